@@ -0,0 +1,265 @@
+package ch.unibe.eindermu.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+import ch.unibe.eindermu.utils.CompressionUtil;
+
+/**
+ * Tests {@link CompressionUtil}.
+ * @author emanuel
+ */
+public class CompressionUtilTest {
+
+    /**
+     * Input stream which records the thread reading it, and whether it has been closed.
+     */
+    private static class RecordingInputStream extends ByteArrayInputStream {
+        Thread reader;
+        boolean closed;
+
+        RecordingInputStream(byte[] data) {
+            super(data);
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            reader = Thread.currentThread();
+            return super.read(b, off, len);
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    /**
+     * Output stream which records the thread writing it, and fails after a number of bytes.
+     */
+    private static class RecordingOutputStream extends ByteArrayOutputStream {
+        Thread writer;
+        boolean closed;
+        int limit = Integer.MAX_VALUE;
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            writer = Thread.currentThread();
+            if(size() + len > limit){
+                throw new IllegalStateException("disk full");
+            }
+            super.write(b, off, len);
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    /**
+     * @return random, hence incompressible, data of several chunks
+     */
+    private byte[] data(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+
+    private byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GZIPOutputStream gz = new GZIPOutputStream(out);
+        gz.write(data);
+        gz.close();
+        return out.toByteArray();
+    }
+
+    private byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] b = new byte[1000];
+        int n;
+        while((n = in.read(b)) != -1){
+            out.write(b, 0, n);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        byte[] data = data(1000000);
+        RecordingOutputStream target = new RecordingOutputStream();
+        OutputStream out = CompressionUtil.compress(target);
+        out.write(data, 0, 10);
+        for(int i = 10; i < 100; i++){
+            out.write(data[i]);
+        }
+        out.write(data, 100, data.length - 100);
+        out.close();
+        out.close();
+        assertTrue(target.closed);
+        assertNotSame(Thread.currentThread(), target.writer);
+
+        RecordingInputStream source = new RecordingInputStream(target.toByteArray());
+        assertArrayEquals(data, readAll(CompressionUtil.decompress(source)));
+        assertTrue(source.closed);
+        assertNotSame(Thread.currentThread(), source.reader);
+    }
+
+    @Test
+    public void testDecompressGzip() throws IOException {
+        byte[] data = data(300000);
+        assertArrayEquals(data, readAll(CompressionUtil.decompress(new ByteArrayInputStream(gzip(data)))));
+        assertArrayEquals(new byte[0], readAll(CompressionUtil.decompress(new ByteArrayInputStream(gzip(new byte[0])))));
+    }
+
+    @Test
+    public void testUncompressed() throws IOException {
+        byte[] data = "<ink/>".getBytes("UTF-8");
+        RecordingInputStream source = new RecordingInputStream(data);
+        assertArrayEquals(data, readAll(CompressionUtil.decompress(source)));
+        assertTrue(source.closed);
+        assertArrayEquals(new byte[0], readAll(CompressionUtil.decompress(new ByteArrayInputStream(new byte[0]))));
+        assertArrayEquals(new byte[]{0x1f}, readAll(CompressionUtil.decompress(new ByteArrayInputStream(new byte[]{0x1f}))));
+    }
+
+    @Test
+    public void testTruncated() throws IOException {
+        byte[] data = data(200000);
+        byte[] compressed = gzip(data);
+        InputStream in = CompressionUtil.decompress(new ByteArrayInputStream(Arrays.copyOf(compressed, compressed.length / 2)));
+        int read = 0;
+        try {
+            byte[] b = new byte[1000];
+            int n;
+            while((n = in.read(b)) != -1){
+                read += n;
+            }
+            fail("truncated stream has been read without error");
+        } catch(IOException e) {
+            //the data preceding the error is provided first
+            assertTrue(read > 0);
+        }
+        //the error is not lost by further reads
+        try {
+            in.read();
+            fail("error has been reported only once");
+        } catch(IOException e) {
+        }
+        in.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void testCorrupted() throws IOException {
+        byte[] compressed = gzip(data(1000));
+        compressed[3] = (byte) 0xff; //reserved flags
+        readAll(CompressionUtil.decompress(new ByteArrayInputStream(compressed)));
+    }
+
+    @Test
+    public void testEarlyClose() throws IOException {
+        RecordingInputStream source = new RecordingInputStream(gzip(data(2000000)));
+        InputStream in = CompressionUtil.decompress(source);
+        assertTrue(in.read() != -1);
+        in.close();
+        assertTrue(source.closed);
+        assertEquals(-1, in.read());
+        //the background thread has been stopped by closing
+        for(Thread t : threads()){
+            assertFalse("decompression".equals(t.getName()) && t.isAlive());
+        }
+    }
+
+    private Thread[] threads() {
+        Thread[] threads = new Thread[Thread.activeCount() + 10];
+        return Arrays.copyOf(threads, Thread.enumerate(threads));
+    }
+
+    @Test
+    public void testSyncFlush() throws IOException {
+        byte[] data = data(100000);
+        RecordingOutputStream target = new RecordingOutputStream();
+        OutputStream out = CompressionUtil.compress(target);
+        out.write(data);
+        out.flush();
+        //everything written before the flush can be decompressed, although the stream is not finished
+        DataInputStream in = new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(target.toByteArray())));
+        byte[] b = new byte[data.length];
+        in.readFully(b);
+        assertArrayEquals(data, b);
+        out.close();
+    }
+
+    @Test
+    public void testWriteFailure() throws IOException {
+        RecordingOutputStream target = new RecordingOutputStream();
+        target.limit = 1000;
+        OutputStream out = CompressionUtil.compress(target);
+        try {
+            byte[] data = data(100000);
+            for(int i = 0; i < 10; i++){
+                out.write(data);
+            }
+            out.close();
+            fail("failure of the target has not been reported");
+        } catch(IOException e) {
+            assertEquals("disk full", e.getCause().getMessage());
+        }
+        try {
+            out.close();
+        } catch(IOException e) {
+            //the failure may be reported again
+        }
+        //the file is closed although the compressed data can not be finished
+        assertTrue(target.closed);
+        out.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void testFlushFailure() throws IOException {
+        RecordingOutputStream target = new RecordingOutputStream();
+        target.limit = 1000;
+        OutputStream out = CompressionUtil.compress(target);
+        out.write(data(100000));
+        out.flush();
+    }
+
+    @Test
+    public void testIsCompressed() throws IOException {
+        File file = File.createTempFile("compression", ".gz");
+        try {
+            FileOutputStream out = new FileOutputStream(file);
+            out.write(gzip(new byte[]{1, 2, 3}));
+            out.close();
+            assertTrue(CompressionUtil.isCompressed(file));
+            out = new FileOutputStream(file);
+            out.write(new byte[]{1, 2, 3});
+            out.close();
+            assertFalse(CompressionUtil.isCompressed(file));
+            assertTrue(CompressionUtil.hasCompressedName(file));
+            assertTrue(CompressionUtil.hasCompressedName(new File("a.inkml.GZ")));
+            assertFalse(CompressionUtil.hasCompressedName(new File("a.inkml")));
+        } finally {
+            file.delete();
+        }
+    }
+}
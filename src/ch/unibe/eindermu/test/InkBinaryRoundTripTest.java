@@ -0,0 +1,125 @@
+package ch.unibe.eindermu.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+import ch.unibe.inkml.InkBinaryLoader;
+import ch.unibe.inkml.InkBinaryWriter;
+import ch.unibe.inkml.InkInk;
+import ch.unibe.inkml.InkTraceLeaf;
+import ch.unibe.inkml.InkTraceView;
+import ch.unibe.inkml.InkTraceViewContainer;
+import ch.unibe.inkml.InkChannel.ChannelName;
+
+/**
+ * Tests that the sample documents are the same after being written and loaded in the binary format.
+ * @author emanuel
+ */
+public class InkBinaryRoundTripTest {
+
+    /**
+     * InkML documents located next to this class.
+     */
+    private static final String[] SAMPLES = {"sample.inkml", "encoded.inkml"};
+
+    private static final ChannelName[] CHANNELS = {ChannelName.X, ChannelName.Y, ChannelName.T};
+
+    private InkInk load(String sample) throws Exception {
+        return InkInk.load(getClass().getResourceAsStream(sample));
+    }
+
+    private InkInk roundTrip(InkInk ink) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new InkBinaryWriter().write(ink, out);
+        return new InkBinaryLoader().load(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    private Document export(InkInk ink) throws Exception {
+        Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+        ink.exportToInkML(document);
+        return document;
+    }
+
+    @Test
+    public void testExportEquals() throws Exception {
+        for(String sample : SAMPLES){
+            InkInk ink = load(sample);
+            assertTrue(sample, export(ink).isEqualNode(export(roundTrip(ink))));
+        }
+    }
+
+    @Test
+    public void testPoints() throws Exception {
+        for(String sample : SAMPLES){
+            InkInk ink = load(sample);
+            InkInk loaded = roundTrip(ink);
+            assertEquals(ink.getFlatTraces().size(), loaded.getFlatTraces().size());
+            for(int i = 0; i < ink.getFlatTraces().size(); i++){
+                InkTraceLeaf expected = (InkTraceLeaf) ink.getFlatTraces().get(i);
+                InkTraceLeaf actual = (InkTraceLeaf) loaded.getFlatTraces().get(i);
+                assertEquals(expected.getId(), actual.getId());
+                assertEquals(expected.getPointCount(), actual.getPointCount());
+                for(int p = 0; p < expected.getPointCount(); p++){
+                    for(ChannelName c : CHANNELS){
+                        assertEquals(expected.getPoint(p).get(c), actual.getPoint(p).get(c), 0);
+                    }
+                }
+                assertEquals(expected.getBounds(), actual.getBounds());
+            }
+            assertEquals(ink.getViewRoots().size(), loaded.getViewRoots().size());
+        }
+        assertEquals("w1", roundTrip(load("sample.inkml")).getAnnotation("writer"));
+    }
+
+    @Test
+    public void testTwice() throws Exception {
+        for(String sample : SAMPLES){
+            InkInk ink = load(sample);
+            assertTrue(sample, export(roundTrip(ink)).isEqualNode(export(roundTrip(roundTrip(ink)))));
+        }
+    }
+
+    /**
+     * Empty view containers are kept, such as the annotated container "v1" whose only child is an empty container,
+     * and the container "v2" whose views are removed.
+     */
+    @Test
+    public void testEmptyViewContainer() throws Exception {
+        InkInk ink = load("sample.inkml");
+        InkTraceViewContainer emptied = (InkTraceViewContainer) ink.getDefinitions().get("v2");
+        for(InkTraceView view : emptied.getContent()){
+            view.remove();
+        }
+        assertTrue(emptied.isEmpty());
+        InkInk loaded = ink;
+        for(int i = 0; i < 2; i++){
+            loaded = roundTrip(loaded);
+            InkTraceViewContainer root = (InkTraceViewContainer) loaded.getDefinitions().get("v0");
+            assertEquals(3, root.getContent().size());
+            InkTraceViewContainer pending = (InkTraceViewContainer) loaded.getDefinitions().get("v1");
+            assertEquals("pending", pending.getAnnotation("type"));
+            assertEquals(1, pending.getContent().size());
+            assertTrue(pending.getContent().get(0).isEmpty());
+            InkTraceViewContainer word = (InkTraceViewContainer) loaded.getDefinitions().get("v2");
+            assertEquals("word", word.getAnnotation("type"));
+            assertTrue(word.isEmpty());
+            assertTrue(export(ink).isEqualNode(export(loaded)));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testNotBinary() throws Exception {
+        InputStream stream = getClass().getResourceAsStream("sample.inkml");
+        new InkBinaryLoader().load(stream);
+    }
+}
@@ -0,0 +1,225 @@
+package ch.unibe.eindermu.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import ch.unibe.inkml.InkInk;
+import ch.unibe.inkml.InkTraceGroup;
+import ch.unibe.inkml.InkTraceLeaf;
+import ch.unibe.inkml.TraceCursor;
+import ch.unibe.inkml.InkChannel.ChannelName;
+
+/**
+ * Tests appending points to traces, and the points shared by source and canvas under an identity transform.
+ * @author emanuel
+ */
+public class InkTraceLeafTest {
+
+    private static final String INKML =
+        "<ink xmlns=\"http://www.w3.org/2003/InkML\">" +
+        "<definitions>" +
+        "<traceFormat xml:id=\"tf\"><channel name=\"X\"/><channel name=\"Y\"/><channel name=\"T\"/></traceFormat>" +
+        "<canvas xml:id=\"cv\" traceFormatRef=\"tf\"/>" +
+        "<canvasTransform xml:id=\"ct\"><mapping type=\"affine\">" +
+        "<bind source=\"X\"/><bind source=\"Y\"/><bind source=\"T\"/>" +
+        "<bind target=\"X\"/><bind target=\"Y\"/><bind target=\"T\"/>" +
+        "<affine>2 0 0 1, 0 2 0 2, 0 0 1 0</affine></mapping></canvasTransform>" +
+        "<canvasTransform xml:id=\"ci\"><mapping type=\"affine\">" +
+        "<bind source=\"X\"/><bind source=\"Y\"/><bind source=\"T\"/>" +
+        "<bind target=\"X\"/><bind target=\"Y\"/><bind target=\"T\"/>" +
+        "<affine>1 0 0 0, 0 1 0 0, 0 0 1 0</affine></mapping></canvasTransform>" +
+        "<context xml:id=\"ctx\" canvasRef=\"#cv\" traceFormatRef=\"#tf\" canvasTransformRef=\"#ct\"/>" +
+        "<context xml:id=\"ctxA\" canvasRef=\"#cv\" traceFormatRef=\"#tf\" canvasTransformRef=\"#ci\"/>" +
+        "<context xml:id=\"ctxI\" canvasRef=\"#cv\" traceFormatRef=\"#tf\"/>" +
+        "</definitions>" +
+        "<context contextRef=\"#ctx\"/>" +
+        "<trace xml:id=\"full\">1 2 10, 4 6 20, -3 5 30, 0 0 40, 7 -1 50</trace>" +
+        "<trace xml:id=\"part\">1 2 10, 4 6 20</trace>" +
+        "<traceGroup xml:id=\"g\"><trace xml:id=\"empty\"></trace></traceGroup>" +
+        "<trace xml:id=\"a\" contextRef=\"#ctxA\">1 2 10, 4 6 20</trace>" +
+        "<trace xml:id=\"i\" contextRef=\"#ctxI\">1 2 10, 4 6 20</trace>" +
+        "</ink>";
+
+    /**
+     * The points of the trace "full", interleaved.
+     */
+    private static final double[] POINTS = {1, 2, 10, 4, 6, 20, -3, 5, 30, 0, 0, 40, 7, -1, 50};
+
+    private static final ChannelName[] CHANNELS = {ChannelName.X, ChannelName.Y, ChannelName.T};
+
+    private InkInk load() throws Exception {
+        return InkInk.load(new ByteArrayInputStream(INKML.getBytes("UTF-8")));
+    }
+
+    private InkTraceLeaf trace(InkInk ink, String id) {
+        return (InkTraceLeaf) ink.getDefinitions().get(id);
+    }
+
+    private void assertSamePoints(InkTraceLeaf expected, InkTraceLeaf actual) {
+        assertEquals(expected.getPointCount(), actual.getPointCount());
+        for(int i = 0; i < expected.getPointCount(); i++){
+            for(ChannelName c : CHANNELS){
+                assertEquals(expected.getPoint(i).get(c), actual.getPoint(i).get(c), 0);
+            }
+        }
+        assertEquals(expected.getBounds(), actual.getBounds());
+        assertEquals(expected.getTimeSpan().start, actual.getTimeSpan().start, 0);
+        assertEquals(expected.getTimeSpan().end, actual.getTimeSpan().end, 0);
+        assertEquals(expected.getCenterOfGravity().getX(), actual.getCenterOfGravity().getX(), 1e-12);
+        assertEquals(expected.getCenterOfGravity().getY(), actual.getCenterOfGravity().getY(), 1e-12);
+    }
+
+    @Test
+    public void testAppendPoint() throws Exception {
+        InkInk ink = load();
+        InkTraceLeaf trace = trace(ink, "empty");
+        InkTraceGroup group = (InkTraceGroup) ink.getDefinitions().get("g");
+        for(int i = 0; i < POINTS.length; i += 3){
+            trace.appendPoint(POINTS[i], POINTS[i + 1], POINTS[i + 2]);
+            //the enclosing group is notified, and does not keep its time span
+            assertEquals(POINTS[i + 2], group.getTimeSpan().end, 0);
+        }
+        assertSamePoints(trace(ink, "full"), trace);
+        group.refreshBound();
+        assertEquals(trace.getBounds(), group.getBounds());
+    }
+
+    @Test
+    public void testAppendPoints() throws Exception {
+        InkInk ink = load();
+        InkTraceLeaf trace = trace(ink, "part");
+        trace.appendPoints(Arrays.copyOfRange(POINTS, 6, POINTS.length), 3);
+        assertSamePoints(trace(ink, "full"), trace);
+        trace.appendPoints(new double[0], 0);
+        assertSamePoints(trace(ink, "full"), trace);
+    }
+
+    /**
+     * The appended source points are kept, such that the canvas points can be transformed from them again.
+     */
+    @Test
+    public void testReloadAppended() throws Exception {
+        InkInk ink = load();
+        InkTraceLeaf trace = trace(ink, "part");
+        for(int i = 6; i < POINTS.length; i += 3){
+            trace.appendPoint(POINTS[i], POINTS[i + 1], POINTS[i + 2]);
+        }
+        trace.reloadPoints();
+        assertSamePoints(trace(ink, "full"), trace);
+    }
+
+    /**
+     * Appending many points one by one grows the storage several times, without losing points.
+     */
+    @Test
+    public void testAppendGrowing() throws Exception {
+        InkInk ink = load();
+        InkTraceLeaf single = trace(ink, "empty");
+        InkTraceLeaf batch = trace(ink, "part");
+        int n = 1000;
+        double[] points = new double[n * 3];
+        for(int i = 0; i < n; i++){
+            points[i * 3] = Math.sin(i);
+            points[i * 3 + 1] = Math.cos(i);
+            points[i * 3 + 2] = 100 + i;
+            single.appendPoint(points[i * 3], points[i * 3 + 1], points[i * 3 + 2]);
+        }
+        batch.appendPoints(points, n);
+        assertEquals(n, single.getPointCount());
+        assertEquals(n + 2, batch.getPointCount());
+        for(int i = 0; i < n; i++){
+            assertEquals(2 * points[i * 3] + 1, single.getPoint(i).get(ChannelName.X), 1e-12);
+            assertEquals(2 * points[i * 3 + 1] + 2, single.getPoint(i).get(ChannelName.Y), 1e-12);
+            assertEquals(points[i * 3 + 2], single.getPoint(i).get(ChannelName.T), 0);
+            for(ChannelName c : CHANNELS){
+                assertEquals(single.getPoint(i).get(c), batch.getPoint(i + 2).get(c), 0);
+            }
+        }
+        assertEquals(100, single.getTimeSpan().start, 0);
+        assertEquals(100 + n - 1, single.getTimeSpan().end, 0);
+        assertEquals(10, batch.getTimeSpan().start, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAppendWrongCount() throws Exception {
+        trace(load(), "empty").appendPoint(1, 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAppendTooFewValues() throws Exception {
+        trace(load(), "empty").appendPoints(new double[5], 2);
+    }
+
+    /**
+     * The traces whose canvas transform is the identity, by an identity matrix or by default.
+     */
+    private static final String[] IDENTITY = {"a", "i"};
+
+    /**
+     * Changing a canvas point must not change the source point sharing its storage.
+     */
+    @Test
+    public void testSetAliased() throws Exception {
+        InkInk ink = load();
+        for(String id : IDENTITY){
+            InkTraceLeaf trace = trace(ink, id);
+            assertEquals(4, trace.getPoint(1).get(ChannelName.X), 0);
+            trace.getPoint(1).set(ChannelName.X, 99);
+            assertEquals(99, trace.getPoint(1).get(ChannelName.X), 0);
+            assertEquals(1, trace.getPoint(0).get(ChannelName.X), 0);
+            trace.reloadPoints();
+            assertEquals(4, trace.getPoint(1).get(ChannelName.X), 0);
+        }
+    }
+
+    @Test
+    public void testCursorSetAliased() throws Exception {
+        InkInk ink = load();
+        for(String id : IDENTITY){
+            InkTraceLeaf trace = trace(ink, id);
+            TraceCursor cursor = trace.cursor("1", null);
+            while(cursor.advance()){
+                cursor.set(ChannelName.Y, -1);
+            }
+            assertEquals(-1, trace.getPoint(1).get(ChannelName.Y), 0);
+            trace.reloadPoints();
+            assertEquals(2, trace.getPoint(0).get(ChannelName.Y), 0);
+            assertEquals(6, trace.getPoint(1).get(ChannelName.Y), 0);
+        }
+    }
+
+    /**
+     * Changes become source points only by transforming them back.
+     */
+    @Test
+    public void testBackTransformAliased() throws Exception {
+        InkInk ink = load();
+        for(String id : IDENTITY){
+            InkTraceLeaf trace = trace(ink, id);
+            trace.getPoint(0).set(ChannelName.T, 5);
+            trace.backTransformPoints();
+            trace.reloadPoints();
+            assertEquals(5, trace.getPoint(0).get(ChannelName.T), 0);
+            assertEquals(20, trace.getPoint(1).get(ChannelName.T), 0);
+        }
+    }
+
+    @Test
+    public void testAppendAliased() throws Exception {
+        InkInk ink = load();
+        for(String id : IDENTITY){
+            InkTraceLeaf trace = trace(ink, id);
+            trace.appendPoint(7, 8, 30);
+            trace.getPoint(0).set(ChannelName.X, 99);
+            trace.reloadPoints();
+            assertEquals(3, trace.getPointCount());
+            assertEquals(1, trace.getPoint(0).get(ChannelName.X), 0);
+            assertEquals(7, trace.getPoint(2).get(ChannelName.X), 0);
+            assertEquals(30, trace.getPoint(2).get(ChannelName.T), 0);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package ch.unibe.eindermu.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import ch.unibe.inkml.util.MatrixCalculator;
+
+/**
+ * Tests the LU decomposition based methods of {@link MatrixCalculator}.
+ * @author emanuel
+ */
+public class MatrixCalculatorTest {
+
+    private MatrixCalculator calculator = new MatrixCalculator();
+
+    /**
+     * @return a * b, computed in double precision
+     */
+    private double[][] multiply(double[][] a, double[][] b) {
+        double[][] m = new double[a.length][b[0].length];
+        for(int i = 0; i < a.length; i++){
+            for(int j = 0; j < b[0].length; j++){
+                for(int k = 0; k < b.length; k++){
+                    m[i][j] += a[i][k] * b[k][j];
+                }
+            }
+        }
+        return m;
+    }
+
+    /**
+     * @return the largest absolute difference between m and the identity
+     */
+    private double residual(double[][] m) {
+        double max = 0;
+        for(int i = 0; i < m.length; i++){
+            for(int j = 0; j < m.length; j++){
+                max = Math.max(max, Math.abs(m[i][j] - ((i == j) ? 1 : 0)));
+            }
+        }
+        return max;
+    }
+
+    private double[][] random(int size) {
+        Random random = new Random(size);
+        double[][] a = new double[size][size];
+        for(int i = 0; i < size; i++){
+            for(int j = 0; j < size; j++){
+                a[i][j] = random.nextDouble() * 2 - 1;
+            }
+        }
+        return a;
+    }
+
+    @Test
+    public void testDeterminantPermutationSign() {
+        //one row exchange
+        assertEquals(-1, calculator.Determinant(new double[][]{{0, 1}, {1, 0}}), 0);
+        //two row exchanges
+        assertEquals(1, calculator.Determinant(new double[][]{{0, 1, 0}, {0, 0, 1}, {1, 0, 0}}), 0);
+        assertEquals(-6, calculator.Determinant(new double[][]{{0, 0, 2}, {0, 3, 0}, {1, 0, 0}}), 1e-12);
+        assertEquals(4, calculator.Determinant(new double[][]{{2, -1, 0}, {-1, 2, -1}, {0, -1, 2}}), 1e-12);
+    }
+
+    @Test
+    public void testDeterminantDoesNotChangeMatrix() {
+        double[][] a = {{0, 1}, {1, 0}};
+        calculator.Determinant(a);
+        calculator.Inverse(a);
+        calculator.ConditionNumber(a);
+        assertArrayEquals(new double[]{0, 1}, a[0], 0);
+        assertArrayEquals(new double[]{1, 0}, a[1], 0);
+    }
+
+    @Test
+    public void testSingular() {
+        double[][] a = {{1, 2}, {2, 4}};
+        assertEquals(0, calculator.Determinant(a), 0);
+        assertEquals(0, calculator.Determinant(new double[][]{{1, 2, 3}, {0, 0, 0}, {4, 5, 6}}), 0);
+        assertTrue(Double.isInfinite(calculator.ConditionNumber(a)));
+        try {
+            calculator.Inverse(a);
+            fail("a singular matrix has been inverted");
+        } catch(IllegalArgumentException e) {
+        }
+        try {
+            calculator.Solve(a, new double[]{1, 2});
+            fail("a singular system has been solved");
+        } catch(IllegalArgumentException e) {
+        }
+    }
+
+    @Test
+    public void testOneByOne() {
+        double[][] a = {{-4}};
+        assertEquals(-4, calculator.Determinant(a), 0);
+        assertEquals(-0.25, calculator.Inverse(a)[0][0], 0);
+        assertEquals(1, calculator.ConditionNumber(a), 0);
+        assertArrayEquals(new double[]{-2}, calculator.Solve(a, new double[]{8}), 0);
+        assertEquals(0, calculator.Determinant(new double[][]{{0}}), 0);
+    }
+
+    @Test
+    public void testInverseResidual() {
+        for(int size = 2; size <= 8; size++){
+            double[][] a = random(size);
+            double[][] inverse = calculator.Inverse(a);
+            assertEquals(0, residual(multiply(a, inverse)), 1e-10);
+            assertEquals(0, residual(multiply(inverse, a)), 1e-10);
+        }
+        //the pivot has to be chosen even if the diagonal is not zero
+        double[][] a = {{1e-12, 1}, {1, 1}};
+        assertEquals(0, residual(multiply(a, calculator.Inverse(a))), 1e-12);
+    }
+
+    @Test
+    public void testSolve() {
+        double[][] a = random(5);
+        double[] x = {1, -2, 3.5, 0, 7};
+        double[] b = new double[x.length];
+        for(int i = 0; i < x.length; i++){
+            for(int j = 0; j < x.length; j++){
+                b[i] += a[i][j] * x[j];
+            }
+        }
+        double[] copy = b.clone();
+        assertArrayEquals(x, calculator.Solve(a, b), 1e-10);
+        assertArrayEquals(copy, b, 0);
+    }
+
+    @Test
+    public void testConditionNumber() {
+        assertEquals(1, calculator.ConditionNumber(new double[][]{{0, 1}, {1, 0}}), 0);
+        assertEquals(1, calculator.ConditionNumber(new double[][]{{3, 0}, {0, 3}}), 1e-15);
+        //||a|| = 2 + e and ||inv(a)|| = (2 + e) / e
+        double e = 1e-6;
+        double[][] a = {{1, 1}, {1, 1 + e}};
+        assertEquals((2 + e) * (2 + e) / e, calculator.ConditionNumber(a), 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNotSquare() {
+        calculator.Determinant(new double[][]{{1, 2, 3}, {4, 5, 6}});
+    }
+}
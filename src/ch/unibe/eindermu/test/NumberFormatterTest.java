@@ -0,0 +1,138 @@
+package ch.unibe.eindermu.test;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import ch.unibe.inkml.InkChannel;
+import ch.unibe.inkml.InkChannelBoolean;
+import ch.unibe.inkml.InkChannelDouble;
+import ch.unibe.inkml.InkInk;
+import ch.unibe.inkml.InkChannel.ChannelName;
+import ch.unibe.inkml.util.BooleanFormatter;
+import ch.unibe.inkml.util.Formatter;
+import ch.unibe.inkml.util.NumberFormatter;
+import ch.unibe.inkml.util.TraceDataTokenizer;
+
+/**
+ * Tests the formatting of values by {@link NumberFormatter} and {@link BooleanFormatter}.
+ * @author emanuel
+ */
+public class NumberFormatterTest {
+
+    private String format(double d, int precision) {
+        StringBuilder out = new StringBuilder();
+        NumberFormatter.appendDouble(d, precision, out);
+        return out.toString();
+    }
+
+    private InkChannel channel(InkChannel c) throws Exception {
+        c.setName(ChannelName.X);
+        return c;
+    }
+
+    @Test
+    public void testAppendDouble() {
+        assertEquals("0", format(0, 3));
+        assertEquals("12", format(12, 3));
+        assertEquals("-12", format(-12, 3));
+        assertEquals("1.5", format(1.5, 3));
+        assertEquals(".25", format(0.25, 3));
+        assertEquals("-.25", format(-0.25, 3));
+        assertEquals("1.005", format(1.005, 3));
+        assertEquals("?", format(Double.NaN, 3));
+    }
+
+    @Test
+    public void testRounding() {
+        assertEquals("2", format(1.9996, 3));
+        assertEquals("-2", format(-1.9996, 3));
+        assertEquals("0", format(0.0004, 3));
+        assertEquals("0", format(-0.0004, 3));
+        assertEquals(".001", format(0.0005, 3));
+        assertEquals("3", format(2.5, 0));
+        assertEquals("3.14159", format(Math.PI, 5));
+        assertEquals("3.141592653589793", format(Math.PI, 15));
+    }
+
+    @Test
+    public void testLarge() {
+        assertEquals("100000000000000000000", format(1e20, 3));
+        assertEquals("-100000000000000000000", format(-1e20, 3));
+        assertEquals("123456789012345", format(123456789012345L, 3));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInfinite() {
+        format(Double.POSITIVE_INFINITY, 3);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPrecisionOutOfRange() throws Exception {
+        new NumberFormatter(channel(new InkChannelDouble(new InkInk()))).setPrecision(19);
+    }
+
+    @Test
+    public void testPrintDouble() {
+        assertEquals(format(-3.14159, Formatter.DEFAULT_PRECISION), NumberFormatter.printDouble(-3.14159));
+    }
+
+    /**
+     * The values are written as explicit value, first difference, and then second differences,
+     * and must be decoded to the same values, rounded to the precision.
+     */
+    @Test
+    public void testDifferencesRoundTrip() throws Exception {
+        double[] values = {10, 12.5, 13, 11.25, -4, -4, 0.001, 1000000};
+        NumberFormatter writer = new NumberFormatter(channel(new InkChannelDouble(new InkInk())));
+        StringBuilder out = new StringBuilder();
+        for(double v : values){
+            writer.appendNext(v, out);
+        }
+        assertEquals(" 10'2.5\"-2-2.25-13.5 15.25 4.001 999995.998", out.toString());
+        NumberFormatter reader = new NumberFormatter(channel(new InkChannelDouble(new InkInk())));
+        TraceDataTokenizer t = new TraceDataTokenizer(out.toString().toCharArray(), 0, out.length());
+        for(double v : values){
+            t.next();
+            assertEquals(v, reader.consume(t.getPrefix(), t.getValue()), 1e-9);
+        }
+    }
+
+    @Test
+    public void testIntermittent() throws Exception {
+        InkChannel c = channel(new InkChannelDouble(new InkInk()));
+        c.setIntermittent(true);
+        NumberFormatter writer = new NumberFormatter(c);
+        StringBuilder out = new StringBuilder();
+        for(double v : new double[]{.25, .5, Double.NaN, -1, 3}){
+            writer.appendNext(v, out);
+        }
+        assertEquals(" .25 .5?-1 3", out.toString());
+    }
+
+    @Test
+    public void testAppendNextEqualsGetNext() throws Exception {
+        NumberFormatter a = new NumberFormatter(channel(new InkChannelDouble(new InkInk())));
+        NumberFormatter b = new NumberFormatter(channel(new InkChannelDouble(new InkInk())));
+        a.setPrecision(2);
+        b.setPrecision(2);
+        StringBuilder appended = new StringBuilder();
+        StringBuilder got = new StringBuilder();
+        for(double v : new double[]{1, -2.125, 3.5, 3.5, 0}){
+            a.appendNext(v, appended);
+            got.append(b.getNext(v));
+        }
+        assertEquals(got.toString(), appended.toString());
+    }
+
+    @Test
+    public void testBoolean() throws Exception {
+        BooleanFormatter f = new BooleanFormatter(channel(new InkChannelBoolean(new InkInk())));
+        StringBuilder out = new StringBuilder();
+        f.appendNext(1, out);
+        f.appendNext(0, out);
+        f.appendNext(0.7, out);
+        assertEquals("TFT", out.toString());
+        assertEquals("F", f.getNext(0.2));
+    }
+}
@@ -0,0 +1,186 @@
+package ch.unibe.eindermu.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import ch.unibe.inkml.InkInk;
+import ch.unibe.inkml.InkMLComplianceException;
+import ch.unibe.inkml.InkTraceLeaf;
+import ch.unibe.inkml.InkChannel.ChannelName;
+import ch.unibe.inkml.util.Formatter;
+import ch.unibe.inkml.util.TraceDataTokenizer;
+
+/**
+ * Tests {@link TraceDataTokenizer} and the decoding of trace data by {@link InkTraceLeaf}.
+ * @author emanuel
+ */
+public class TraceDataTokenizerTest {
+
+    private static final String HEADER =
+        "<ink xmlns=\"http://www.w3.org/2003/InkML\"><definitions>" +
+        "<traceFormat xml:id=\"tf\"><channel name=\"X\"/><channel name=\"Y\"/><channel name=\"T\"/></traceFormat>" +
+        "<canvas xml:id=\"cv\" traceFormatRef=\"tf\"/>" +
+        "<context xml:id=\"ctx\" canvasRef=\"#cv\" traceFormatRef=\"#tf\"/>" +
+        "</definitions><context contextRef=\"#ctx\"/>";
+
+    private TraceDataTokenizer tokenizer(String data) {
+        return new TraceDataTokenizer(data.toCharArray(), 0, data.length());
+    }
+
+    private void assertToken(TraceDataTokenizer t, char prefix, double value) {
+        assertTrue(t.next());
+        assertEquals(prefix, t.getPrefix());
+        assertEquals(value, t.getValue(), 0);
+    }
+
+    private InkTraceLeaf decode(String data) throws Exception {
+        String document = HEADER + "<trace>" + data + "</trace></ink>";
+        InkInk ink = InkInk.load(new ByteArrayInputStream(document.getBytes("UTF-8")));
+        return (InkTraceLeaf) ink.getFlatTraces().get(0);
+    }
+
+    private void assertPoints(InkTraceLeaf trace, double[] x, double[] y) {
+        assertEquals(x.length, trace.getPointCount());
+        for(int i = 0; i < x.length; i++){
+            assertEquals(x[i], trace.getPoint(i).get(ChannelName.X), 0);
+            assertEquals(y[i], trace.getPoint(i).get(ChannelName.Y), 0);
+        }
+    }
+
+    @Test
+    public void testExplicit() {
+        TraceDataTokenizer t = tokenizer("10 -2.5 .5 -.25 0");
+        assertToken(t, Formatter.NO_PREFIX, 10);
+        assertToken(t, Formatter.NO_PREFIX, -2.5);
+        assertToken(t, Formatter.NO_PREFIX, .5);
+        assertToken(t, Formatter.NO_PREFIX, -.25);
+        assertToken(t, Formatter.NO_PREFIX, 0);
+        assertFalse(t.next());
+    }
+
+    @Test
+    public void testQualifiers() {
+        TraceDataTokenizer t = tokenizer("'3 \"-4 !.5 '-1.5");
+        assertToken(t, '\'', 3);
+        assertToken(t, '"', -4);
+        assertToken(t, '!', .5);
+        assertToken(t, '\'', -1.5);
+        assertFalse(t.next());
+    }
+
+    @Test
+    public void testSymbols() {
+        TraceDataTokenizer t = tokenizer("* ? T F ,");
+        assertToken(t, '*', Double.NaN);
+        assertToken(t, '?', Double.NaN);
+        assertToken(t, 'T', Double.NaN);
+        assertToken(t, 'F', Double.NaN);
+        assertToken(t, ',', Double.NaN);
+        assertTrue(t.isPointSeparator());
+        assertFalse(t.next());
+    }
+
+    @Test
+    public void testWithoutSpaces() {
+        TraceDataTokenizer t = tokenizer("1-2'3\"4!5TF*?,6");
+        assertToken(t, Formatter.NO_PREFIX, 1);
+        assertToken(t, Formatter.NO_PREFIX, -2);
+        assertToken(t, '\'', 3);
+        assertToken(t, '"', 4);
+        assertToken(t, '!', 5);
+        assertToken(t, 'T', Double.NaN);
+        assertToken(t, 'F', Double.NaN);
+        assertToken(t, '*', Double.NaN);
+        assertToken(t, '?', Double.NaN);
+        assertToken(t, ',', Double.NaN);
+        assertToken(t, Formatter.NO_PREFIX, 6);
+        assertFalse(t.next());
+    }
+
+    @Test
+    public void testWhiteSpace() {
+        TraceDataTokenizer t = tokenizer("\n\t 1\r\n  2 ,\n3 ");
+        assertToken(t, Formatter.NO_PREFIX, 1);
+        assertToken(t, Formatter.NO_PREFIX, 2);
+        assertToken(t, ',', Double.NaN);
+        assertToken(t, Formatter.NO_PREFIX, 3);
+        assertFalse(t.next());
+    }
+
+    @Test
+    public void testValuesEqualParseDouble() {
+        String[] numbers = {"0.1", "123.456", "-0.007", "9007199254740993", "12345678901234567890.125",
+                "1.00000000000000000000001", "0.000000000000000000000000123"};
+        for(String n : numbers){
+            TraceDataTokenizer t = tokenizer(n);
+            assertToken(t, Formatter.NO_PREFIX, Double.parseDouble(n));
+        }
+    }
+
+    @Test
+    public void testCountPoints() {
+        assertEquals(0, tokenizer("").countPoints());
+        assertEquals(0, tokenizer(" \n ").countPoints());
+        assertEquals(1, tokenizer("1 2").countPoints());
+        assertEquals(2, tokenizer("1 2, 3 4").countPoints());
+        assertEquals(2, tokenizer("1 2, 3 4,\n").countPoints());
+        assertEquals(3, tokenizer("1 2,,3 4").countPoints());
+    }
+
+    @Test
+    public void testResetAndAppend() {
+        String data = " 1 '2, \"3";
+        TraceDataTokenizer t = new TraceDataTokenizer(("xx" + data + "yy").toCharArray(), 2, data.length());
+        assertToken(t, Formatter.NO_PREFIX, 1);
+        assertToken(t, '\'', 2);
+        t.reset();
+        assertToken(t, Formatter.NO_PREFIX, 1);
+        StringBuilder builder = new StringBuilder("a");
+        t.appendTo(builder);
+        assertEquals("a" + data, builder.toString());
+    }
+
+    @Test
+    public void testByteBuffer() throws Exception {
+        String data = "1-2'3\"4!5TF*?,6 .5";
+        TraceDataTokenizer c = tokenizer(data);
+        byte[] bytes = ("<" + data + ">").getBytes("US-ASCII");
+        TraceDataTokenizer b = new TraceDataTokenizer(ByteBuffer.wrap(bytes), 1, data.length());
+        while(c.next()){
+            assertToken(b, c.getPrefix(), c.getValue());
+        }
+        assertFalse(b.next());
+        StringBuilder builder = new StringBuilder();
+        b.appendTo(builder);
+        assertEquals(data, builder.toString());
+    }
+
+    @Test
+    public void testDifferences() throws Exception {
+        InkTraceLeaf trace = decode("10 20 0,'1'2'1,'1'2'1,\"1\"1\"0,\"0\"0\"0,!5!5!5,'1'1'1");
+        assertPoints(trace, new double[]{10, 11, 12, 14, 16, 5, 6}, new double[]{20, 22, 24, 27, 30, 5, 6});
+    }
+
+    @Test
+    public void testMixedDifferences() throws Exception {
+        //the qualifier applies to the channel, and persists for values without qualifier
+        InkTraceLeaf trace = decode("10 20 0,'1 5 1, 3 '1 2");
+        assertPoints(trace, new double[]{10, 11, 14}, new double[]{20, 5, 6});
+    }
+
+    @Test(expected = InkMLComplianceException.class)
+    public void testSecondDifferenceAfterExplicit() throws Exception {
+        decode("10 20 0,\"1 5 1");
+    }
+
+    @Test(expected = InkMLComplianceException.class)
+    public void testUnknownValueOfRegularChannel() throws Exception {
+        decode("10 20 0, ? 5 1");
+    }
+}
@@ -0,0 +1,408 @@
+package ch.unibe.eindermu.utils;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Reads and writes gzip compressed streams. Decompression and compression are done by a background
+ * thread, such that they overlap with parsing or producing the uncompressed data.
+ * The threads exchange the data in chunks through a bounded queue, so a fast producer waits
+ * for a slow consumer instead of buffering the whole stream.
+ *
+ * @author emanuel
+ */
+public class CompressionUtil {
+
+    /**
+     * Size of the chunks passed between the threads, and of the buffers of the gzip streams.
+     */
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    /**
+     * Number of chunks which may wait in the queue.
+     */
+    private static final int CHUNKS = 4;
+
+    /**
+     * Returns a stream providing the uncompressed content of the stream. If the stream starts with
+     * the gzip magic bytes, it is decompressed by a background thread. Otherwise the content is provided as it is.
+     * Closing the returned stream closes the stream.
+     * @param stream
+     * @return the uncompressed content
+     * @throws IOException if the stream can not be read, or is not a valid gzip stream although it starts like one.
+     */
+    public static InputStream decompress(InputStream stream) throws IOException {
+        BufferedInputStream in = new BufferedInputStream(stream, CHUNK_SIZE);
+        in.mark(2);
+        boolean compressed = isGzip(in.read(), in.read());
+        in.reset();
+        if(!compressed){
+            return in;
+        }
+        return PipelinedInputStream.start(new GZIPInputStream(in, CHUNK_SIZE));
+    }
+
+    /**
+     * Returns a stream compressing everything written to it in gzip format, which is written to the stream
+     * by a background thread. Flushing the returned stream flushes everything written so far, such that
+     * it can be decompressed. Closing the returned stream finishes the compressed data and closes the stream.
+     * @param stream
+     * @return stream to write the uncompressed content to
+     * @throws IOException if the gzip header can not be written
+     */
+    public static OutputStream compress(OutputStream stream) throws IOException {
+        return PipelinedOutputStream.start(new GZIPOutputStream(stream, CHUNK_SIZE, true), stream);
+    }
+
+    /**
+     * @param file
+     * @return true if the file starts with the gzip magic bytes
+     * @throws IOException if the file can not be read
+     */
+    public static boolean isCompressed(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            return isGzip(in.read(), in.read());
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @param file
+     * @return true if the name of the file has the extension ".gz"
+     */
+    public static boolean hasCompressedName(File file) {
+        return file.getName().toLowerCase().endsWith(".gz");
+    }
+
+    private static boolean isGzip(int b0, int b1) {
+        return b0 == (GZIPInputStream.GZIP_MAGIC & 0xff) && b1 == (GZIPInputStream.GZIP_MAGIC >> 8);
+    }
+
+    /**
+     * Reads the source by a background thread, and provides its content.
+     */
+    private static class PipelinedInputStream extends InputStream implements Runnable {
+
+        private static final byte[] EOF = new byte[0];
+
+        private final InputStream source;
+
+        private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<byte[]>(CHUNKS);
+
+        private Thread thread;
+
+        /**
+         * Error of the background thread, which is thrown after the preceding data has been read.
+         */
+        private volatile IOException error;
+
+        private byte[] chunk;
+
+        private int pos;
+
+        static PipelinedInputStream start(InputStream source) {
+            PipelinedInputStream stream = new PipelinedInputStream(source);
+            stream.thread = new Thread(stream, "decompression");
+            stream.thread.setDaemon(true);
+            stream.thread.start();
+            return stream;
+        }
+
+        private PipelinedInputStream(InputStream source) {
+            this.source = source;
+        }
+
+        public void run() {
+            try {
+                try {
+                    while(true){
+                        byte[] b = new byte[CHUNK_SIZE];
+                        int n = 0;
+                        int r;
+                        while(n < b.length && (r = source.read(b, n, b.length - n)) != -1){
+                            n += r;
+                        }
+                        if(n > 0){
+                            chunks.put((n == b.length) ? b : Arrays.copyOf(b, n));
+                        }
+                        if(n < b.length){
+                            break;
+                        }
+                    }
+                } catch(IOException e) {
+                    error = e;
+                } catch(RuntimeException e) {
+                    error = new IOException(e.getMessage(), e);
+                }
+                chunks.put(EOF);
+            } catch(InterruptedException e) {
+                //closed by the reader
+            }
+        }
+
+        /**
+         * Takes the next chunk from the queue if the current one has been read.
+         * @return false at the end of the stream
+         */
+        private boolean fill() throws IOException {
+            while(chunk == null || pos == chunk.length){
+                if(chunk == EOF){
+                    if(error != null){
+                        throw error;
+                    }
+                    return false;
+                }
+                try {
+                    chunk = chunks.take();
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for decompressed data");
+                }
+                pos = 0;
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if(!fill()){
+                return -1;
+            }
+            return chunk[pos++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if(len == 0){
+                return 0;
+            }
+            if(!fill()){
+                return -1;
+            }
+            int n = Math.min(len, chunk.length - pos);
+            System.arraycopy(chunk, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (chunk == null) ? 0 : chunk.length - pos;
+        }
+
+        @Override
+        public void close() throws IOException {
+            thread.interrupt();
+            try {
+                thread.join();
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            chunk = EOF;
+            pos = 0;
+            error = null;
+            source.close();
+        }
+    }
+
+    /**
+     * Collects the written data in chunks, which are written to the target by a background thread.
+     */
+    private static class PipelinedOutputStream extends OutputStream implements Runnable {
+
+        private static final byte[] FLUSH = new byte[0];
+
+        private static final byte[] EOF = new byte[0];
+
+        private final OutputStream target;
+
+        /**
+         * Stream the target writes to, which is closed directly if the target failed,
+         * since closing the target would try to write its remaining data.
+         */
+        private final OutputStream sink;
+
+        private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<byte[]>(CHUNKS);
+
+        /**
+         * Released by the background thread whenever it has flushed the target.
+         */
+        private final Semaphore flushed = new Semaphore(0);
+
+        private Thread thread;
+
+        /**
+         * Error of the background thread, which is thrown by the next call of the writer.
+         */
+        private volatile IOException error;
+
+        private byte[] chunk = new byte[CHUNK_SIZE];
+
+        private int count;
+
+        static PipelinedOutputStream start(OutputStream target, OutputStream sink) {
+            PipelinedOutputStream stream = new PipelinedOutputStream(target, sink);
+            stream.thread = new Thread(stream, "compression");
+            stream.thread.setDaemon(true);
+            stream.thread.start();
+            return stream;
+        }
+
+        private PipelinedOutputStream(OutputStream target, OutputStream sink) {
+            this.target = target;
+            this.sink = sink;
+        }
+
+        public void run() {
+            try {
+                while(true){
+                    byte[] b = chunks.take();
+                    try {
+                        if(error == null){
+                            if(b == FLUSH || b == EOF){
+                                target.flush();
+                            }else{
+                                target.write(b);
+                            }
+                            if(b == EOF){
+                                target.close();
+                            }
+                        }
+                    } catch(IOException e) {
+                        error = e;
+                    } catch(RuntimeException e) {
+                        error = new IOException(e.getMessage(), e);
+                    }
+                    if(b == FLUSH){
+                        flushed.release();
+                    }else if(b == EOF){
+                        if(error != null){
+                            closeSink();
+                        }
+                        return;
+                    }
+                }
+            } catch(InterruptedException e) {
+                //the stream is not written anymore
+            }
+        }
+
+        /**
+         * Closes the sink after a failure, which has been reported already.
+         */
+        private void closeSink() {
+            try {
+                sink.close();
+            } catch(IOException e) {
+                //the failure of the target is reported instead
+            }
+        }
+
+        private void put(byte[] b) throws IOException {
+            try {
+                chunks.put(b);
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for compression");
+            }
+        }
+
+        private void checkError() throws IOException {
+            if(error != null){
+                throw error;
+            }
+        }
+
+        /**
+         * Hands the collected data over to the background thread.
+         */
+        private void pass() throws IOException {
+            checkError();
+            if(count == 0){
+                return;
+            }
+            if(count == chunk.length){
+                put(chunk);
+                chunk = new byte[CHUNK_SIZE];
+            }else{
+                put(Arrays.copyOf(chunk, count));
+            }
+            count = 0;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if(count == chunk.length){
+                pass();
+            }
+            chunk[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while(len > 0){
+                if(count == chunk.length){
+                    pass();
+                }
+                int n = Math.min(len, chunk.length - count);
+                System.arraycopy(b, off, chunk, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            pass();
+            put(FLUSH);
+            try {
+                flushed.acquire();
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for compression");
+            }
+            checkError();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if(chunk == null){
+                return;
+            }
+            try {
+                pass();
+                put(EOF);
+                thread.join();
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for compression");
+            } finally {
+                chunk = null;
+                if(thread.isAlive()){
+                    thread.interrupt();
+                    try {
+                        thread.join();
+                    } catch(InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    closeSink();
+                }
+            }
+            checkError();
+        }
+    }
+}
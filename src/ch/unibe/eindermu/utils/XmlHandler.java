@@ -51,8 +51,15 @@ public class XmlHandler{
     	loadFromStream(new FileInputStream(file));
      }
     
+    /**
+     * Loads the XML document from the stream, which is decompressed if it is gzip compressed.
+     * The stream will be closed afterwards.
+     * @param stream
+     * @throws IOException
+     */
     public void loadFromStream(InputStream stream) throws IOException {
         try {
+            stream = CompressionUtil.decompress(stream);
             // apply schema for validation
         	if(!schemata.isEmpty()){
         		factory.setNamespaceAware(true);
@@ -117,8 +124,26 @@ public class XmlHandler{
         this.xmlDocument.setXmlStandalone(true);
     }
     
+    /**
+     * Saves the XML document to the file. If the file name ends with ".gz", it is gzip compressed.
+     * @param file
+     * @throws TransformerException
+     */
     public void saveToFile(File file) throws TransformerException {
-    	transformToOutput(new StreamResult(file));
+        if(!CompressionUtil.hasCompressedName(file)){
+            transformToOutput(new StreamResult(file));
+            return;
+        }
+        try {
+            OutputStream stream = CompressionUtil.compress(new FileOutputStream(file));
+            try {
+                transformToOutput(new StreamResult(stream));
+            } finally {
+                stream.close();
+            }
+        } catch(IOException e) {
+            throw new TransformerException(e);
+        }
     }
     
     public void saveToStream(OutputStream stream) throws TransformerException{
@@ -0,0 +1,189 @@
+package ch.unibe.inkml;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import ch.unibe.eindermu.utils.CompressionUtil;
+
+/**
+ * Common parts of the classes reading InkML documents from a stream of StAX events.
+ *
+ * @see InkStreamLoader
+ * @see InkStreamParser
+ * @author emanuel
+ */
+abstract class AbstractInkStreamReader {
+
+    XMLInputFactory factory = XMLInputFactory.newInstance();
+
+    XMLStreamReader reader;
+
+    /**
+     * Owner document of the detached elements. It never gets any children.
+     */
+    Document scratch;
+
+    /**
+     * The memory mapped file which is currently read, null if a stream is read.
+     */
+    ByteBuffer mapped;
+
+    AbstractInkStreamReader() {
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+    }
+
+    /**
+     * Maps the file into memory. The mapping is referenced by {@link #mapped} until it is set to null.
+     * A gzip compressed file is not mapped, the stream is returned to be decompressed instead.
+     * A file larger than a single mapping can hold is not mapped either, the stream is returned to be read as usual.
+     * @param file the file to be read
+     * @param in stream opened on the file
+     * @return a stream providing the mapped file to the parser
+     * @throws IOException if the file can not be mapped
+     */
+    InputStream map(File file, FileInputStream in) throws IOException {
+        if(CompressionUtil.isCompressed(file)){
+            return in;
+        }
+        FileChannel channel = in.getChannel();
+        if(channel.size() > Integer.MAX_VALUE){
+            return in;
+        }
+        mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        return new MappedInkInputStream(mapped);
+    }
+
+    /**
+     * @return true if the current processing instruction has been inserted by {@link MappedInkInputStream}
+     */
+    boolean isMappedTraceData() {
+        return mapped != null && reader.getPITarget().equals(MappedInkInputStream.PI_TARGET);
+    }
+
+    int getMappedOffset() {
+        String data = reader.getPIData().trim();
+        return Integer.parseInt(data.substring(0, data.indexOf(' ')));
+    }
+
+    int getMappedLength() {
+        String data = reader.getPIData().trim();
+        return Integer.parseInt(data.substring(data.indexOf(' ') + 1));
+    }
+
+    /**
+     * Returns the trace data referenced by the current processing instruction as text,
+     * with line breaks normalized as done by the XML parser.
+     */
+    String getMappedText() {
+        int offset = getMappedOffset();
+        int end = offset + getMappedLength();
+        StringBuilder text = new StringBuilder(end - offset);
+        for(int i = offset; i < end; i++){
+            char c = (char) (mapped.get(i) & 0xff);
+            if(c == '\r'){
+                if(i + 1 < end && mapped.get(i + 1) == '\n'){
+                    continue;
+                }
+                c = '\n';
+            }
+            text.append(c);
+        }
+        return text.toString();
+    }
+
+    boolean isAnnotation(String n) {
+        return n.equals(InkAnnotatedElement.INKML_ANNOTATION_NAME) || n.equals(InkAnnotatedElement.INKML_ANNOTATION_XML_NAME);
+    }
+
+    /**
+     * Returns the name of the current element as it would be returned by a DOM node.
+     */
+    String getName() {
+        String prefix = reader.getPrefix();
+        if(prefix == null || prefix.isEmpty()){
+            return reader.getLocalName();
+        }
+        return prefix + ":" + reader.getLocalName();
+    }
+
+    /**
+     * Creates a detached XML element with the name and the attributes of the current element.
+     * The reader is not moved.
+     */
+    Element readHeader() {
+        Element el = scratch.createElement(getName());
+        for(int i = 0; i < reader.getAttributeCount(); i++){
+            String prefix = reader.getAttributePrefix(i);
+            String name = reader.getAttributeLocalName(i);
+            if(prefix != null && !prefix.isEmpty()){
+                name = prefix + ":" + name;
+            }
+            el.setAttribute(name, reader.getAttributeValue(i));
+        }
+        return el;
+    }
+
+    /**
+     * Reads the current element including all its content into a detached XML element.
+     * Afterwards the reader is positioned on the end tag of the element.
+     */
+    Element readFragment() throws XMLStreamException {
+        Element root = readHeader();
+        Element current = root;
+        while(true){
+            switch(reader.next()){
+            case XMLStreamConstants.START_ELEMENT:
+                Element child = readHeader();
+                current.appendChild(child);
+                current = child;
+                break;
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.CDATA:
+            case XMLStreamConstants.SPACE:
+                current.appendChild(scratch.createTextNode(reader.getText()));
+                break;
+            case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                if(isMappedTraceData()){
+                    current.appendChild(scratch.createTextNode(getMappedText()));
+                }
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                if(current == root){
+                    return root;
+                }
+                current = (Element) current.getParentNode();
+                break;
+            }
+        }
+    }
+
+    /**
+     * Skips the current element including all its content.
+     * Afterwards the reader is positioned on the end tag of the element.
+     */
+    void skipElement() throws XMLStreamException {
+        int depth = 1;
+        while(depth > 0){
+            switch(reader.next()){
+            case XMLStreamConstants.START_ELEMENT:
+                depth++;
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                depth--;
+                break;
+            }
+        }
+    }
+}
@@ -84,7 +84,7 @@ public class InkAffineMapping extends InkMapping {
      * @return
 	 * @throws InkMLComplianceException 
      */
-    private InkChannel.ChannelName[] getTargetNames(InkTraceFormat targetFormat) {
+    private synchronized InkChannel.ChannelName[] getTargetNames(InkTraceFormat targetFormat) {
         if(cached_targetFormat != targetFormat){
             cached_targetFormat = targetFormat;
             ArrayList<InkBind> l= new ArrayList<InkBind>();
@@ -108,7 +108,7 @@ public class InkAffineMapping extends InkMapping {
      * @return
 	 * @throws InkMLComplianceException 
      */
-    private InkChannel.ChannelName[] getSourceNames(InkTraceFormat sourceFormat){
+    private synchronized InkChannel.ChannelName[] getSourceNames(InkTraceFormat sourceFormat){
         if(cached_sourceFormat != sourceFormat){
             cached_sourceFormat = sourceFormat;
             ArrayList<InkBind> binds= new ArrayList<InkBind>();
@@ -160,8 +160,45 @@ public class InkAffineMapping extends InkMapping {
 		return matrix.isInvertible();
 	}
 
+    /**
+     * {@inheritDoc}
+     * True if the matrix is the identity without translation, and if the binds map each channel
+     * of the target format to the channel of the same name.
+     */
+    @Override
+    public boolean isIdentity(InkTraceFormat sourceFormat, InkTraceFormat targetFormat) {
+        ChannelName[] sourceNames = getSourceNames(sourceFormat);
+        ChannelName[] targetNames = getTargetNames(targetFormat);
+        if(targetNames.length != targetFormat.getChannelCount() || sourceNames.length != targetNames.length){
+            return false;
+        }
+        for(int i = 0;i<targetNames.length;i++){
+            if(sourceNames[i] != targetNames[i] || !sourceFormat.containsChannel(sourceNames[i])){
+                return false;
+            }
+        }
+        double[][] m = matrix.getMatrix();
+        if(m.length != targetNames.length || !matrix.isIdentity()){
+            return false;
+        }
+        for(double[] row : m){
+            if(row.length != sourceNames.length){
+                return false;
+            }
+        }
+        double[] translation = matrix.getTranslation();
+        if(translation != null){
+            for(double t : translation){
+                if(t != 0){
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
     @Override
-    public void backTransform(double[][] sourcePoints, double[][] targetPoints,
+    public void backTransformColumns(double[][] sourcePoints, double[][] targetPoints,
             InkTraceFormat canvasFormat, InkTraceFormat sourceFormat) throws InkMLComplianceException {
         ChannelName[] sourceNames = getSourceNames(sourceFormat);
         int[] sourceIndices = new int[sourceNames.length];
@@ -173,16 +210,16 @@ public class InkAffineMapping extends InkMapping {
         for(int i=0;i<targetNames.length;i++){
             targetIndices[i] = canvasFormat.indexOf(targetNames[i]);
         }
-        this.matrix.backtransform(sourcePoints,targetPoints,sourceIndices,targetIndices);
+        this.matrix.backTransformColumns(sourcePoints,targetPoints,sourceIndices,targetIndices);
     }
 
     @Override
-    public void transform(double[][] sourcePoints, double[][] targetPoints,
+    public void transformColumns(double[][] sourcePoints, double[][] targetPoints,
             InkTraceFormat sourceFormat, InkTraceFormat targetFormat) throws InkMLComplianceException {
-        this.matrix.transform(sourcePoints,targetPoints,getSourceIndices(sourceFormat),getTargetIndices(targetFormat));
+        this.matrix.transformColumns(sourcePoints,targetPoints,getSourceIndices(sourceFormat),getTargetIndices(targetFormat));
     }
     
-    private int[] getTargetIndices(InkTraceFormat targetFormat) throws InkMLComplianceException{
+    int[] getTargetIndices(InkTraceFormat targetFormat) throws InkMLComplianceException{
     	ChannelName[] targetNames = getTargetNames(targetFormat);
     	int[] targetIndices = new int[targetNames.length];
         for(int i=0;i<targetNames.length;i++){
@@ -191,7 +228,7 @@ public class InkAffineMapping extends InkMapping {
         return targetIndices;
     }
     
-    private int[] getSourceIndices(InkTraceFormat sourceFormat) throws InkMLComplianceException{
+    int[] getSourceIndices(InkTraceFormat sourceFormat) throws InkMLComplianceException{
     	ChannelName[] sourceNames = getSourceNames(sourceFormat);
     	int[] sourceIndices = new int[sourceNames.length];
         for(int i=0;i<sourceNames.length;i++){
@@ -46,14 +46,23 @@ public abstract class InkAnnotatedElement extends InkUniqueElement {
 			if(child.getNodeType() != Node.ELEMENT_NODE){
 				continue;
 			}
-			Element el = (Element)child;
-			if(el.getNodeName().equals(INKML_ANNOTATION_NAME)){
-				String name = el.getAttribute(INKML_ANNOTATION_ATTR_TYPE);
-				String value = el.getTextContent();
-				this.annotate(name,value);
-			}else if (el.getNodeName().equals(INKML_ANNOTATION_XML_NAME)){
-				this.loadCustomXmlAnnotation(el);
-			}
+			loadAnnotation((Element)child);
+		}
+	}
+
+	/**
+	 * Loads the annotation represented by the XML element, if it is an
+	 * <code>annotation</code> or an <code>annotationXML</code> element.
+	 * Other elements are ignored.
+	 * @param el XML element
+	 */
+	void loadAnnotation(Element el) {
+		if(el.getNodeName().equals(INKML_ANNOTATION_NAME)){
+			String name = el.getAttribute(INKML_ANNOTATION_ATTR_TYPE);
+			String value = el.getTextContent();
+			this.annotate(name,value);
+		}else if (el.getNodeName().equals(INKML_ANNOTATION_XML_NAME)){
+			this.loadCustomXmlAnnotation(el);
 		}
 	}
 
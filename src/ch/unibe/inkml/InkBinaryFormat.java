@@ -0,0 +1,60 @@
+package ch.unibe.inkml;
+
+/**
+ * Constants of the binary format written by {@link InkBinaryWriter} and read by {@link InkBinaryLoader}.
+ *
+ * All numbers are big endian. A document consists of:
+ * <pre>
+ * int     MAGIC
+ * int     VERSION
+ * element the ink element with its attributes and annotations
+ * record* the content of the ink element in document order
+ * byte    END
+ * </pre>
+ * A record starts with one of the following bytes:
+ * <ul>
+ * <li>{@link #FRAGMENT}, followed by an element: a child of the ink element such as
+ * <code>definitions</code> or <code>context</code>, which is built as if it was read from InkML.</li>
+ * <li>{@link #TRACE}, followed by an element containing the attributes and annotations of the trace,
+ * an int with the number of channels, an int with the number of points and the source points
+ * column by column, each column consisting of one double per point.</li>
+ * <li>{@link #TRACE_GROUP}, followed by an element with the attributes and annotations of the group,
+ * the records of the contained traces and END.</li>
+ * <li>{@link #VIEW}, followed by a <code>traceView</code> element.</li>
+ * <li>{@link #VIEW_GROUP}, followed by an element with the attributes and annotations of the trace view container,
+ * the records of the contained views and END.</li>
+ * </ul>
+ * An element consists of its name, an int with the number of attributes, the name and the value of each attribute,
+ * an int with the number of child nodes, and the child nodes. Each child node starts with
+ * {@link #ELEMENT} followed by an element, or with {@link #TEXT} followed by a string.
+ * A string consists of an int with the number of bytes and the string encoded in UTF-8.
+ *
+ * @author emanuel
+ */
+final class InkBinaryFormat {
+
+    /**
+     * "INKB"
+     */
+    static final int MAGIC = 0x494E4B42;
+
+    /**
+     * Has to be increased whenever the format changes.
+     */
+    static final int VERSION = 1;
+
+    static final byte END = 0;
+    static final byte FRAGMENT = 1;
+    static final byte TRACE = 2;
+    static final byte TRACE_GROUP = 3;
+    static final byte VIEW = 4;
+    static final byte VIEW_GROUP = 5;
+
+    static final byte ELEMENT = 1;
+    static final byte TEXT = 2;
+
+    static final String CHARSET = "UTF-8";
+
+    private InkBinaryFormat() {
+    }
+}
@@ -0,0 +1,175 @@
+package ch.unibe.inkml;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import ch.unibe.inkml.util.TraceViewTreeManipulationException;
+
+/**
+ * Loads an InkML document stored in the binary format written by {@link InkBinaryWriter}.
+ *
+ * The source points of each trace are read column by column by bulk operations. All other elements
+ * are built by their <code>buildFromXMLNode</code> method from the stored XML elements,
+ * as done by {@link InkStreamLoader}.
+ *
+ * @see InkBinaryFormat
+ * @author emanuel
+ */
+public class InkBinaryLoader {
+
+    private DataInputStream in;
+
+    /**
+     * Owner document of the detached elements. It never gets any children.
+     */
+    private Document scratch;
+
+    private InkInk ink;
+
+    private byte[] bytes = new byte[8 * 1024];
+
+    /**
+     * Loads the document contained by the stream. The stream will be closed afterwards.
+     * @param stream stream containing the binary document
+     * @return the new document
+     * @throws IOException if the stream can not be read or does not contain a binary document of a supported version
+     * @throws InkMLComplianceException if the document is not compliant to InkML
+     */
+    public InkInk load(InputStream stream) throws IOException, InkMLComplianceException {
+        try {
+            scratch = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+            in = new DataInputStream(new BufferedInputStream(stream, 1 << 16));
+            if(in.readInt() != InkBinaryFormat.MAGIC){
+                throw new IOException("The stream does not contain a binary InkML document");
+            }
+            int version = in.readInt();
+            if(version != InkBinaryFormat.VERSION){
+                throw new IOException("The binary InkML version "+version+" is not supported");
+            }
+            ink = new InkInk();
+            ink.buildFromXMLNode(readElement());
+            readContent(null, null);
+            return ink;
+        } catch(ParserConfigurationException e) {
+            throw new IOException(e.getMessage(), e);
+        } finally {
+            stream.close();
+            in = null;
+            scratch = null;
+            ink = null;
+        }
+    }
+
+    /**
+     * Reads the records until END, and adds the built elements to the group or container,
+     * or to the document if both are null.
+     */
+    private void readContent(InkTraceGroup group, InkTraceViewContainer container) throws IOException, InkMLComplianceException {
+        while(true){
+            byte record = in.readByte();
+            switch(record){
+            case InkBinaryFormat.END:
+                return;
+            case InkBinaryFormat.FRAGMENT:
+                ink.stepNode(readElement());
+                break;
+            case InkBinaryFormat.TRACE:
+                addTrace(group, readTrace(group));
+                break;
+            case InkBinaryFormat.TRACE_GROUP:
+                InkTraceGroup childGroup = new InkTraceGroup(ink, group);
+                childGroup.buildFromXMLNode(readElement());
+                readContent(childGroup, null);
+                addTrace(group, childGroup);
+                break;
+            case InkBinaryFormat.VIEW:
+                addView(container, InkTraceView.createTraceView(ink, container, readElement()));
+                break;
+            case InkBinaryFormat.VIEW_GROUP:
+                InkTraceViewContainer childContainer = new InkTraceViewContainer(ink, container);
+                childContainer.buildFromXMLNode(readElement());
+                readContent(null, childContainer);
+                addView(container, childContainer);
+                break;
+            default:
+                throw new IOException("Unknown record "+record+" in binary InkML document");
+            }
+        }
+    }
+
+    private InkTraceLeaf readTrace(InkTraceGroup group) throws IOException, InkMLComplianceException {
+        InkTraceLeaf trace = new InkTraceLeaf(ink, group);
+        trace.loadAttributes(readElement());
+        int channels = in.readInt();
+        int length = in.readInt();
+        if(channels != trace.getSourceFormat().getChannelCount()){
+            throw new InkMLComplianceException("The trace has "+channels+" channels, but its format has "+trace.getSourceFormat().getChannelCount());
+        }
+        if(bytes.length < 8 * length){
+            bytes = new byte[Math.max(8 * length, bytes.length * 2)];
+        }
+        double[][] columns = new double[channels][length];
+        for(int d = 0; d < channels; d++){
+            in.readFully(bytes, 0, 8 * length);
+            ByteBuffer.wrap(bytes, 0, 8 * length).asDoubleBuffer().get(columns[d]);
+        }
+        trace.loadColumns(columns, length);
+        return trace;
+    }
+
+    private void addTrace(InkTraceGroup group, InkTrace trace) {
+        if(group == null){
+            ink.addTrace(trace);
+        }else{
+            group.addTrace(trace);
+        }
+    }
+
+    private void addView(InkTraceViewContainer container, InkTraceView view) throws InkMLComplianceException {
+        if(container == null){
+            ink.addView(view);
+            return;
+        }
+        try {
+            container.addTrace(view);
+        } catch (TraceViewTreeManipulationException e) {
+            throw new InkMLComplianceException("There has been a ViewTreeManipulation exception, this should not happen.", e);
+        }
+    }
+
+    private Element readElement() throws IOException {
+        Element element = scratch.createElement(readString());
+        int attributes = in.readInt();
+        for(int i = 0; i < attributes; i++){
+            String name = readString();
+            element.setAttribute(name, readString());
+        }
+        int children = in.readInt();
+        for(int i = 0; i < children; i++){
+            if(in.readByte() == InkBinaryFormat.ELEMENT){
+                element.appendChild(readElement());
+            }else{
+                element.appendChild(scratch.createTextNode(readString()));
+            }
+        }
+        return element;
+    }
+
+    private String readString() throws IOException {
+        int length = in.readInt();
+        if(bytes.length < length){
+            bytes = new byte[Math.max(length, bytes.length * 2)];
+        }
+        in.readFully(bytes, 0, length);
+        return new String(bytes, 0, length, InkBinaryFormat.CHARSET);
+    }
+}
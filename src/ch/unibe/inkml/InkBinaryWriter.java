@@ -0,0 +1,226 @@
+package ch.unibe.inkml;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * Writes an InkML document in a binary format, which can be loaded by {@link InkBinaryLoader}
+ * much faster than the InkML document itself can be parsed.
+ *
+ * The source points of each trace are stored column by column as doubles, such that they are
+ * written and read by bulk operations. All other elements are stored as the XML elements
+ * produced by their <code>exportToInkML</code> method, in a binary encoding. Like this the
+ * loaded document is the same as the one obtained by loading the exported InkML document.
+ *
+ * @see InkBinaryFormat
+ * @author emanuel
+ */
+public class InkBinaryWriter {
+
+    private DataOutputStream out;
+
+    /**
+     * Owner document of the detached elements. It never gets any children.
+     */
+    private Document scratch;
+
+    private InkInk ink;
+
+    /**
+     * Reused for the columns of all traces
+     */
+    private double[] column = new double[1024];
+
+    private ByteBuffer bytes = ByteBuffer.allocate(8 * 1024);
+
+    /**
+     * Writes the document to the stream. The stream is flushed but not closed.
+     * @param ink the document to be written
+     * @param stream stream the document is written to
+     * @throws IOException if the stream can not be written
+     * @throws InkMLComplianceException if the document can not be exported to InkML
+     */
+    public void write(InkInk ink, OutputStream stream) throws IOException, InkMLComplianceException {
+        try {
+            scratch = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+            out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+            this.ink = ink;
+            out.writeInt(InkBinaryFormat.MAGIC);
+            out.writeInt(InkBinaryFormat.VERSION);
+            Element header = scratch.createElement(InkInk.INKML_NAME);
+            ink.exportHeader(header);
+            writeElement(header);
+            Element definitions = scratch.createElement(InkInk.INKML_NAME);
+            ink.getDefinitions().exportToInkML(definitions);
+            writeFragments(definitions);
+            writeFragments(ink.getCurrentContext());
+            for(InkTrace trace : ink.getTraces()){
+                if(trace.getCurrentContext() != ink.getCurrentContext()){
+                    writeFragments(trace.getCurrentContext());
+                }
+                writeTrace(trace);
+            }
+            for(InkTraceView view : ink.getViewRoots()){
+                if(!isWritten(view)){
+                    continue;
+                }
+                writeView(view);
+                //the context of a view is exported after the view, as done by InkTraceView#prepairForExport
+                if(view.getCurrentContext() != ink.getCurrentContext()){
+                    writeFragments(view.getCurrentContext());
+                }
+            }
+            out.writeByte(InkBinaryFormat.END);
+            out.flush();
+        } catch(ParserConfigurationException e) {
+            throw new IOException(e.getMessage(), e);
+        } finally {
+            out = null;
+            scratch = null;
+            this.ink = null;
+        }
+    }
+
+    private void writeTrace(InkTrace trace) throws IOException, InkMLComplianceException {
+        if(trace.isLeaf()){
+            InkTraceLeaf leaf = (InkTraceLeaf) trace;
+            leaf.prepareExport();
+            out.writeByte(InkBinaryFormat.TRACE);
+            Element header = scratch.createElement(InkTraceLeaf.INKML_NAME);
+            leaf.exportHeader(header);
+            writeElement(header);
+            int channels = leaf.getSourceFormat().getChannelCount();
+            int length = leaf.getPointCount();
+            out.writeInt(channels);
+            out.writeInt(length);
+            if(column.length < length){
+                column = new double[Math.max(length, column.length * 2)];
+                bytes = ByteBuffer.allocate(8 * column.length);
+            }
+            for(int d = 0; d < channels; d++){
+                leaf.exportColumn(d, column);
+                bytes.clear();
+                bytes.asDoubleBuffer().put(column, 0, length);
+                out.write(bytes.array(), 0, 8 * length);
+            }
+        }else{
+            InkTraceGroup group = (InkTraceGroup) trace;
+            out.writeByte(InkBinaryFormat.TRACE_GROUP);
+            Element header = scratch.createElement(InkTraceGroup.INKML_NAME);
+            group.exportHeader(header);
+            writeElement(header);
+            for(InkTrace child : group.getContent()){
+                writeTrace(child);
+            }
+            out.writeByte(InkBinaryFormat.END);
+        }
+    }
+
+    /**
+     * Containers are written even if they are empty, since they can carry an id or annotations,
+     * or be the content of a container which does. A view referencing no trace is not written.
+     */
+    private boolean isWritten(InkTraceView view) {
+        return !view.isLeaf() || !view.isEmpty();
+    }
+
+    private void writeView(InkTraceView view) throws IOException, InkMLComplianceException {
+        if(view.isLeaf()){
+            out.writeByte(InkBinaryFormat.VIEW);
+            Element header = scratch.createElement(InkTraceViewLeaf.INKML_NAME);
+            ((InkTraceViewLeaf) view).exportHeader(header);
+            writeElement(header);
+        }else{
+            InkTraceViewContainer container = (InkTraceViewContainer) view;
+            out.writeByte(InkBinaryFormat.VIEW_GROUP);
+            Element header = scratch.createElement(InkTraceViewContainer.INKML_NAME);
+            container.exportHeader(header);
+            writeElement(header);
+            if(!container.isEmpty()){
+                for(InkTraceView child : container.getContent()){
+                    if(isWritten(child)){
+                        writeView(child);
+                    }
+                }
+            }
+            out.writeByte(InkBinaryFormat.END);
+        }
+    }
+
+    /**
+     * Exports the element into a detached ink element and writes the result as fragments.
+     */
+    private void writeFragments(InkElement element) throws IOException, InkMLComplianceException {
+        Element parent = scratch.createElement(InkInk.INKML_NAME);
+        element.exportToInkML(parent);
+        writeFragments(parent);
+    }
+
+    private void writeFragments(Element parent) throws IOException {
+        for(Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()){
+            if(child.getNodeType() == Node.ELEMENT_NODE){
+                out.writeByte(InkBinaryFormat.FRAGMENT);
+                writeElement((Element) child);
+            }
+        }
+    }
+
+    private void writeElement(Element element) throws IOException {
+        writeString(element.getNodeName());
+        NamedNodeMap attributes = element.getAttributes();
+        out.writeInt(attributes.getLength());
+        for(int i = 0; i < attributes.getLength(); i++){
+            Attr attribute = (Attr) attributes.item(i);
+            writeString(attribute.getName());
+            writeString(attribute.getValue());
+        }
+        int count = 0;
+        for(Node child = element.getFirstChild(); child != null; child = child.getNextSibling()){
+            if(isWritten(child)){
+                count++;
+            }
+        }
+        out.writeInt(count);
+        for(Node child = element.getFirstChild(); child != null; child = child.getNextSibling()){
+            if(child.getNodeType() == Node.ELEMENT_NODE){
+                out.writeByte(InkBinaryFormat.ELEMENT);
+                writeElement((Element) child);
+            }else if(isWritten(child)){
+                out.writeByte(InkBinaryFormat.TEXT);
+                writeString(child.getNodeValue());
+            }
+        }
+    }
+
+    /**
+     * Comments and processing instructions are not written.
+     */
+    private boolean isWritten(Node node) {
+        switch(node.getNodeType()){
+        case Node.ELEMENT_NODE:
+        case Node.TEXT_NODE:
+        case Node.CDATA_SECTION_NODE:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    private void writeString(String s) throws IOException {
+        byte[] b = s.getBytes(InkBinaryFormat.CHARSET);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+}
@@ -4,27 +4,29 @@ import org.w3c.dom.Element;
 
 public class InkCanvas extends InkUniqueElement{
 
-	private static InkCanvas defaultCanvas;
 	public static final String ID_DEFAULT_CANVAS = "DefaultCanvas";
     public static final String INKML_NAME = "canvas";
     public static final String INKML_ATTR_TRACEFORMATREF = "traceFormatRef";
     public static final String ID_PREFIX = "cv";
 	
+	/**
+	 * Returns the default canvas of the document. It is created when it is requested for the first time,
+	 * and registered in the definitions of the document. So it is never shared by different documents.
+	 * @param ink
+	 * @return
+	 */
 	public static InkCanvas getDefaultCanvas(InkInk ink){
-	    if(defaultCanvas == null){
-    	    if(ink.getDefinitions().containsKey(ID_DEFAULT_CANVAS)){
-    	        return (InkCanvas) ink.getDefinitions().get(ID_DEFAULT_CANVAS);
-            }else{
-                try {
-                    defaultCanvas = new InkCanvas(ink,ID_DEFAULT_CANVAS);
-                    defaultCanvas.setInkTraceFormat(new DefaultInkTraceFormat(ink));
-                } catch (InkMLComplianceException e) {
-                    // Should not occure, we have already tested above.
-                    throw new Error(e);
-                }
-            }
-		}
-		return defaultCanvas;
+	    if(ink.getDefinitions().containsKey(ID_DEFAULT_CANVAS)){
+	        return (InkCanvas) ink.getDefinitions().get(ID_DEFAULT_CANVAS);
+	    }
+	    try {
+	        InkCanvas canvas = new InkCanvas(ink,ID_DEFAULT_CANVAS);
+	        canvas.setInkTraceFormat(new DefaultInkTraceFormat(ink));
+	        return canvas;
+	    } catch (InkMLComplianceException e) {
+	        // Should not occure, we have already tested above.
+	        throw new Error(e);
+	    }
 	}
 	
 	private InkTraceFormat inkTraceFormat;
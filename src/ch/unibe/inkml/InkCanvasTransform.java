@@ -1,5 +1,9 @@
 package ch.unibe.inkml;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
 
@@ -33,6 +37,11 @@ public class InkCanvasTransform extends InkUniqueElement {
 	
 	private boolean invertible = true;
 	private InkMapping foreward,backward;
+
+	/**
+	 * Plans of the forward mapping, compiled for the pairs of formats used so far.
+	 */
+	private List<TransformPlan> plans = new ArrayList<TransformPlan>();
 	
 	public InkCanvasTransform(InkInk ink) {
 		super(ink);
@@ -127,15 +136,65 @@ public class InkCanvasTransform extends InkUniqueElement {
 	}
 
     /**
-     * @param sourcePoints
-     * @param points
+     * @param sourceFormat
+     * @param targetFormat
+     * @return true if the forward mapping is the identity for these formats, see {@link InkMapping#isIdentity(InkTraceFormat, InkTraceFormat)}
+     */
+    public boolean isIdentity(InkTraceFormat sourceFormat, InkTraceFormat targetFormat) {
+        return foreward != null && foreward.isIdentity(sourceFormat, targetFormat);
+    }
+
+    /**
+     * @param sourcePoints sourcePoints[channel][point], see {@link InkMapping#transformColumns(double[][], double[][], InkTraceFormat, InkTraceFormat)}
+     * @param points points[channel][point]
+     * @param sourceFormat
+     * @param targetFormat
+     * @throws InkMLComplianceException 
+     */
+    public void transformColumns(double[][] sourcePoints, double[][] points,
+            InkTraceFormat sourceFormat, InkTraceFormat targetFormat) throws InkMLComplianceException {
+        getPlan(sourceFormat, targetFormat).transform(sourcePoints, points);
+    }
+
+    /**
+     * @param sourcePoints sourcePoints[point][channel]
+     * @param points points[point][channel]
      * @param sourceFormat
      * @param targetFormat
      * @throws InkMLComplianceException 
+     * @deprecated the points are copied column by column, 
+     *      use {@link #transformColumns(double[][], double[][], InkTraceFormat, InkTraceFormat)}
      */
+    @Deprecated
     public void transform(double[][] sourcePoints, double[][] points,
             InkTraceFormat sourceFormat, InkTraceFormat targetFormat) throws InkMLComplianceException {
-        foreward.transform(sourcePoints, points, sourceFormat, targetFormat);
+        double[][] columns = InkMapping.toColumns(points, targetFormat.getChannelCount());
+        transformColumns(InkMapping.toColumns(sourcePoints, sourceFormat.getChannelCount()), columns, sourceFormat, targetFormat);
+        InkMapping.toRows(columns, points);
+    }
+
+    /**
+     * Returns the plan of the forward mapping for the formats. Plans are compiled once and reused
+     * by all traces transformed with the same formats, until the mapping is changed.
+     * @param sourceFormat
+     * @param targetFormat
+     * @return the plan
+     * @throws InkMLComplianceException
+     */
+    synchronized TransformPlan getPlan(InkTraceFormat sourceFormat, InkTraceFormat targetFormat) throws InkMLComplianceException {
+        for(Iterator<TransformPlan> i = plans.iterator(); i.hasNext();){
+            TransformPlan plan = i.next();
+            if(plan.isFor(sourceFormat, targetFormat)){
+                if(plan.isCurrent(foreward)){
+                    return plan;
+                }
+                i.remove();
+                break;
+            }
+        }
+        TransformPlan plan = TransformPlan.compile(foreward, sourceFormat, targetFormat);
+        plans.add(plan);
+        return plan;
     }
 
     /**
@@ -147,31 +206,52 @@ public class InkCanvasTransform extends InkUniqueElement {
      */
     public InkTracePoint transform(InkTracePoint sourcePoint, InkTraceFormat sourceFormat,
             InkTraceFormat targetFormat) throws InkMLComplianceException {
-        double[][] src = new double[1][sourceFormat.getChannelCount()];
+        double[][] src = new double[sourceFormat.getChannelCount()][1];
         int counter = 0;
         for(InkChannel channel : sourceFormat.getChannels()){
-            src[0][counter++] = sourcePoint.get(channel.getName());
+            src[counter++][0] = sourcePoint.get(channel.getName());
+        }
+        double[][] trgt = new double[targetFormat.getChannelCount()][1];
+        transformColumns(src,trgt,sourceFormat,targetFormat);
+        double[] point = new double[trgt.length];
+        for(int i = 0;i<point.length;i++){
+            point[i] = trgt[i][0];
         }
-        double[][] trgt = new double[1][targetFormat.getChannelCount()];
-        transform(src,trgt,sourceFormat,targetFormat);
-        return new ArrayTracePoint(trgt[0],targetFormat);
+        return new ArrayTracePoint(point,targetFormat);
     }
     
     /**
-     * @param points
-     * @param sourcePoints
+     * @param points points[channel][point]
+     * @param sourcePoints sourcePoints[channel][point], receives the transformed points
      * @param canvasFormat
      * @param sourceFormat
      * @throws InkMLComplianceException 
      */
-    public void backTransform(double[][] points, double[][] sourcePoints,
+    public void backTransformColumns(double[][] points, double[][] sourcePoints,
             InkTraceFormat canvasFormat, InkTraceFormat sourceFormat) throws InkMLComplianceException {
         if (foreward.isInvertible()){
-            foreward.backTransform(sourcePoints, points, canvasFormat, sourceFormat);
+            foreward.backTransformColumns(sourcePoints, points, canvasFormat, sourceFormat);
         }else if(backward != null){
-            backward.transform(sourcePoints, sourcePoints, canvasFormat, sourceFormat);
+            backward.transformColumns(points, sourcePoints, canvasFormat, sourceFormat);
         }else{
             throw new UnsupportedOperationException("Backwards transformation is not given, and foreward transformation is not invertible.");
         }
     }
+
+    /**
+     * @param points points[point][channel]
+     * @param sourcePoints sourcePoints[point][channel], receives the transformed points
+     * @param canvasFormat
+     * @param sourceFormat
+     * @throws InkMLComplianceException 
+     * @deprecated the points are copied column by column, 
+     *      use {@link #backTransformColumns(double[][], double[][], InkTraceFormat, InkTraceFormat)}
+     */
+    @Deprecated
+    public void backTransform(double[][] points, double[][] sourcePoints,
+            InkTraceFormat canvasFormat, InkTraceFormat sourceFormat) throws InkMLComplianceException {
+        double[][] columns = InkMapping.toColumns(sourcePoints, sourceFormat.getChannelCount());
+        backTransformColumns(InkMapping.toColumns(points, canvasFormat.getChannelCount()), columns, canvasFormat, sourceFormat);
+        InkMapping.toRows(columns, sourcePoints);
+    }
 }
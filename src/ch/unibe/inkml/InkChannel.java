@@ -5,6 +5,7 @@ import org.w3c.dom.NodeList;
 
 import ch.unibe.inkml.util.Formatter;
 import ch.unibe.inkml.util.NumberFormatter;
+import ch.unibe.inkml.util.PointColumn;
 
 /**
  * Represent an InkML Channel element.
@@ -477,6 +478,15 @@ abstract public class InkChannel extends InkUniqueElement {
 	 */
 	@SuppressWarnings("unchecked")
     abstract public Formatter formatterFactory();
+
+	/**
+	 * Column factory method. Returns the column storing the values 
+	 * of this channel as compact as the type of this channel permits.
+	 * @param values the values of all points, unknown values are NaN
+	 * @param singlePrecision if true, decimal values may be stored as float
+	 * @return
+	 */
+	abstract public PointColumn columnFactory(double[] values, boolean singlePrecision);
 	
 	
 	@Override
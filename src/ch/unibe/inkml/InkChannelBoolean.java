@@ -4,6 +4,7 @@ import org.w3c.dom.Element;
 
 import ch.unibe.inkml.util.BooleanFormatter;
 import ch.unibe.inkml.util.Formatter;
+import ch.unibe.inkml.util.PointColumn;
 
 
 public class InkChannelBoolean extends InkChannel {
@@ -45,17 +46,25 @@ public class InkChannelBoolean extends InkChannel {
 
 	@Override
 	public void setDefaultValue(String defaultValue) {
-		this.defaultValue = (Boolean) parse(defaultValue);
+		if(!defaultValue.isEmpty()){
+			this.defaultValue = (Boolean) parse(defaultValue);
+		}else{
+			this.defaultValue = false;
+		}
 	}
 
 	@Override
 	public void setMax(String max) throws InkMLComplianceException {
-		throw new InkMLComplianceException("A boolean channel has no maximum or minimum");
+		if(!max.isEmpty()){
+			throw new InkMLComplianceException("A boolean channel has no maximum or minimum");
+		}
 	}
 
 	@Override
 	public void setMin(String min) throws InkMLComplianceException {
-		throw new InkMLComplianceException("A boolean channel has no maximum or minimum");
+		if(!min.isEmpty()){
+			throw new InkMLComplianceException("A boolean channel has no maximum or minimum");
+		}
 	}
 
 	@Override
@@ -86,4 +95,12 @@ public class InkChannelBoolean extends InkChannel {
         return new Boolean(d>0.5);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PointColumn columnFactory(double[] values, boolean singlePrecision) {
+        return PointColumn.booleans(values);
+    }
+
 }
@@ -4,6 +4,7 @@ import org.w3c.dom.Element;
 
 import ch.unibe.inkml.util.Formatter;
 import ch.unibe.inkml.util.NumberFormatter;
+import ch.unibe.inkml.util.PointColumn;
 
 public class InkChannelDouble extends InkChannel {
 
@@ -102,4 +103,12 @@ public class InkChannelDouble extends InkChannel {
         return (Object)d;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PointColumn columnFactory(double[] values, boolean singlePrecision) {
+        return PointColumn.decimals(values, singlePrecision);
+    }
+
 }
@@ -4,6 +4,7 @@ import org.w3c.dom.Element;
 
 import ch.unibe.inkml.util.Formatter;
 import ch.unibe.inkml.util.NumberFormatter;
+import ch.unibe.inkml.util.PointColumn;
 
 public class InkChannelInteger extends InkChannel {
 
@@ -95,4 +96,12 @@ public class InkChannelInteger extends InkChannel {
         return (Object)((int)d);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PointColumn columnFactory(double[] values, boolean singlePrecision) {
+        return PointColumn.integers(values);
+    }
+
 }
@@ -0,0 +1,217 @@
+package ch.unibe.inkml;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads many InkML documents concurrently, and hands them to a {@link Consumer}.
+ *
+ * The files are loaded by a pool of worker threads, each using its own {@link InkStreamLoader}.
+ * Loaded documents are passed to the consumer through a bounded queue. If the consumer is slower
+ * than the workers, the workers wait until the queue has room again. Like this at most
+ * <code>parallelism + queueCapacity + 1</code> documents are held in memory at the same time,
+ * independently of the number of files.
+ *
+ * The consumer is called by the thread calling {@link #load(List, Consumer)}, one document at a time,
+ * so it does not need to be thread-safe. The documents arrive in the order they have been loaded,
+ * which is not necessarily the order of the files. A file which can not be loaded is reported to
+ * the consumer, and the remaining files are loaded anyway.
+ *
+ * @author emanuel
+ */
+public class InkCorpusLoader {
+
+    /**
+     * Receives the documents loaded by an {@link InkCorpusLoader}.
+     */
+    public interface Consumer {
+        /**
+         * Called for each document which has been loaded successfully.
+         * @param file the file the document has been loaded from
+         * @param ink the document
+         * @throws Exception to stop loading, the exception is thrown by {@link InkCorpusLoader#load(List, Consumer)}.
+         */
+        void loaded(File file, InkInk ink) throws Exception;
+
+        /**
+         * Called for each file which could not be loaded.
+         * @param file the file
+         * @param e the reason, usually an {@link IOException} or an {@link InkMLComplianceException}
+         * @throws Exception to stop loading, the exception is thrown by {@link InkCorpusLoader#load(List, Consumer)}.
+         */
+        void failed(File file, Exception e) throws Exception;
+    }
+
+    /**
+     * The outcome of loading one file.
+     */
+    private static class Result {
+        File file;
+        InkInk ink;
+        Exception error;
+
+        Result(File file, InkInk ink, Exception error){
+            this.file = file;
+            this.ink = ink;
+            this.error = error;
+        }
+    }
+
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    private int queueCapacity = 16;
+
+    private InkStreamLoader.PointDecoding pointDecoding = InkStreamLoader.PointDecoding.EAGER;
+
+    /**
+     * Sets the number of worker threads. The default is the number of available processors.
+     * @param parallelism number of threads, at least 1
+     */
+    public void setParallelism(int parallelism) {
+        if(parallelism < 1){
+            throw new IllegalArgumentException("The parallelism must be at least 1, but is "+parallelism);
+        }
+        this.parallelism = parallelism;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the number of loaded documents which may wait for the consumer. The default is 16.
+     * @param queueCapacity number of documents, at least 1
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        if(queueCapacity < 1){
+            throw new IllegalArgumentException("The queue capacity must be at least 1, but is "+queueCapacity);
+        }
+        this.queueCapacity = queueCapacity;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * Sets when the points of the loaded traces are decoded.
+     * @see InkStreamLoader#setPointDecoding(InkStreamLoader.PointDecoding)
+     * @param pointDecoding
+     */
+    public void setPointDecoding(InkStreamLoader.PointDecoding pointDecoding) {
+        this.pointDecoding = pointDecoding;
+    }
+
+    public InkStreamLoader.PointDecoding getPointDecoding() {
+        return pointDecoding;
+    }
+
+    /**
+     * Returns the InkML files contained by the directory and its subdirectories, sorted by their path.
+     * @param directory
+     * @return all files ending with ".inkml", or with ".inkml.gz" for compressed files
+     * @throws IOException if the directory can not be read
+     */
+    public static List<File> listFiles(File directory) throws IOException {
+        List<File> files = new ArrayList<File>();
+        collectFiles(directory, files);
+        Collections.sort(files);
+        return files;
+    }
+
+    private static void collectFiles(File directory, List<File> files) throws IOException {
+        File[] content = directory.listFiles(new FileFilter() {
+            public boolean accept(File file) {
+                return file.isDirectory() || file.getName().toLowerCase().endsWith(".inkml") || file.getName().toLowerCase().endsWith(".inkml.gz");
+            }
+        });
+        if(content == null){
+            throw new IOException("The directory '"+directory.getPath()+"' can not be read");
+        }
+        for(File file : content){
+            if(file.isDirectory()){
+                collectFiles(file, files);
+            }else{
+                files.add(file);
+            }
+        }
+    }
+
+    /**
+     * Loads all InkML files contained by the directory and its subdirectories.
+     * @see #load(List, Consumer)
+     * @param directory
+     * @param consumer
+     * @throws Exception the first exception thrown by the consumer
+     */
+    public void load(File directory, Consumer consumer) throws Exception {
+        load(listFiles(directory), consumer);
+    }
+
+    /**
+     * Loads the files, and hands each document or the reason it could not be loaded to the consumer.
+     * Returns after all files have been handed to the consumer. If the consumer throws an exception,
+     * the workers are stopped and the exception is thrown by this method.
+     * @param files the files to be loaded
+     * @param consumer
+     * @throws InterruptedException if the calling thread is interrupted while waiting for the workers
+     * @throws Exception the first exception thrown by the consumer
+     */
+    public void load(final List<File> files, Consumer consumer) throws Exception {
+        final BlockingQueue<Result> queue = new ArrayBlockingQueue<Result>(queueCapacity);
+        final AtomicInteger next = new AtomicInteger();
+        ExecutorService workers = Executors.newFixedThreadPool(Math.min(parallelism, Math.max(files.size(), 1)));
+        try {
+            for(int i = 0; i < parallelism && i < files.size(); i++){
+                workers.execute(new Runnable() {
+                    public void run() {
+                        InkStreamLoader loader = new InkStreamLoader();
+                        loader.setPointDecoding(pointDecoding);
+                        try {
+                            for(int f = next.getAndIncrement(); f < files.size(); f = next.getAndIncrement()){
+                                queue.put(load(loader, files.get(f)));
+                            }
+                        } catch (InterruptedException e) {
+                            //the consumer has stopped loading
+                        }
+                    }
+                });
+            }
+            for(int received = 0; received < files.size(); received++){
+                Result result = queue.take();
+                if(result.error == null){
+                    consumer.loaded(result.file, result.ink);
+                }else{
+                    consumer.failed(result.file, result.error);
+                }
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * Loads one file, catching all exceptions such that the file can be reported as failed.
+     * Errors are wrapped into an {@link ExecutionException}.
+     */
+    private Result load(InkStreamLoader loader, File file) {
+        try {
+            return new Result(file, loader.load(file), null);
+        } catch (Exception e) {
+            return new Result(file, null, e);
+        } catch (Error e) {
+            //otherwise the worker would die, and the consumer would wait for the result forever
+            return new Result(file, null, new ExecutionException(e));
+        }
+    }
+}
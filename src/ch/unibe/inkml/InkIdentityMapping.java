@@ -42,8 +42,22 @@ public class InkIdentityMapping extends InkMapping {
 		return true;
 	}
 
+    /**
+     * {@inheritDoc}
+     * True if the source format contains all channels of the target format.
+     */
     @Override
-    public void transform(double[][] sourcePoints, double[][] points,
+    public boolean isIdentity(InkTraceFormat sourceFormat, InkTraceFormat targetFormat) {
+        for(InkChannel c : targetFormat){
+            if(!sourceFormat.containsChannel(c.getName())){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void transformColumns(double[][] sourcePoints, double[][] points,
             InkTraceFormat sourceFormat, InkTraceFormat targetFormat)
             throws InkMLComplianceException {
         int[] targetIndices = new int[sourceFormat.getChannelCount()];
@@ -51,15 +65,13 @@ public class InkIdentityMapping extends InkMapping {
         for(InkChannel c : sourceFormat){
             targetIndices[i++] = targetFormat.indexOf(c.getName());
         }
-        for (i = 0;i<sourcePoints.length;i++){
-            for(int c = 0; c<targetIndices.length;c++){
-                points[i][targetIndices[c]] = sourcePoints[i][c];
-            }
+        for(int c = 0; c<targetIndices.length;c++){
+            System.arraycopy(sourcePoints[c], 0, points[targetIndices[c]], 0, sourcePoints[c].length);
         }
     }
 	
     @Override
-    public void backTransform(double[][] sourcePoints, double[][] points,
+    public void backTransformColumns(double[][] sourcePoints, double[][] points,
             InkTraceFormat canvasFormat, InkTraceFormat sourceFormat)
             throws InkMLComplianceException {
         int[] targetIndices = new int[sourceFormat.getChannelCount()];
@@ -67,10 +79,8 @@ public class InkIdentityMapping extends InkMapping {
         for(InkChannel c : sourceFormat){
             targetIndices[i++] = canvasFormat.indexOf(c.getName());
         }
-        for (i = 0;i<sourcePoints.length;i++){
-            for(int c = 0; c<targetIndices.length;c++){
-                sourcePoints[i][c] = points[i][targetIndices[c]];
-            }
+        for(int c = 0; c<targetIndices.length;c++){
+            System.arraycopy(points[targetIndices[c]], 0, sourcePoints[c], 0, sourcePoints[c].length);
         }
         
     }
@@ -0,0 +1,933 @@
+package ch.unibe.inkml;
+
+import java.awt.geom.Rectangle2D;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.SAXException;
+
+import ch.unibe.eindermu.Messenger;
+import ch.unibe.eindermu.utils.CompressionUtil;
+import ch.unibe.inkml.util.Timespan;
+import ch.unibe.inkml.util.TraceDataTokenizer;
+
+/**
+ * Index of the traces and trace groups of a large InkML file, which allows to load single traces
+ * without parsing the whole file.
+ *
+ * For each trace and trace group the index records the position of its element in the file, its id,
+ * its number of points, its bounds and its time span, as well as the context in effect.
+ * The index is stored in a file next to the InkML file (see {@link #open(File)}), and rebuilt
+ * whenever the size or the modification time of the InkML file have changed.
+ *
+ * {@link #getInk()} returns a document containing only the annotations, the definitions and the contexts
+ * of the indexed file. Traces are loaded into this document by {@link #loadTrace(Entry)}, which reads
+ * and parses only the bytes of the trace element. Loaded traces are not added to the document.
+ *
+ * Only uncompressed files stored in an ASCII compatible encoding such as UTF-8 can be indexed.
+ *
+ * @author emanuel
+ */
+public class InkIndex {
+
+    /**
+     * Extension appended to the name of the InkML file to get the name of the index file.
+     */
+    public static final String EXTENSION = ".idx";
+
+    /**
+     * "INKI"
+     */
+    private static final int MAGIC = 0x494E4B49;
+
+    /**
+     * Has to be increased whenever the format of the index file changes.
+     */
+    private static final int VERSION = 3;
+
+    /**
+     * Number of bytes of the file mapped at once while building the index.
+     */
+    private static final int WINDOW = 1 << 26;
+
+    /**
+     * Number of bytes which have to be mapped to determine the kind of markup, see {@link MarkupScanner#kind(int)}.
+     */
+    private static final int MARGIN = 16;
+
+    /**
+     * A trace or trace group found in the indexed file.
+     */
+    public static class Entry {
+        private boolean group;
+        private String id;
+        private long offset;
+        private long length;
+        private Entry parent;
+        private int context;
+        private String contextRef;
+        private int pointCount;
+        private Rectangle2D bounds;
+        private Timespan timespan;
+
+        /**
+         * @return true if this is a trace group, false if it is a trace
+         */
+        public boolean isGroup() {
+            return group;
+        }
+
+        /**
+         * @return the xml:id of the element, null if it has none
+         */
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * @return byte offset of the element within the file
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        /**
+         * @return number of bytes of the element, including its start and end tag
+         */
+        public long getLength() {
+            return length;
+        }
+
+        /**
+         * @return the enclosing trace group, null if the element is a child of the ink element
+         */
+        public Entry getParent() {
+            return parent;
+        }
+
+        /**
+         * @return number of points of the trace, or of all traces contained by the trace group
+         */
+        public int getPointCount() {
+            return pointCount;
+        }
+
+        /**
+         * @return bounds in canvas coordinates, null if there are no points
+         */
+        public Rectangle2D getBounds() {
+            return bounds;
+        }
+
+        /**
+         * @return time span, null if there are no points
+         */
+        public Timespan getTimeSpan() {
+            return timespan;
+        }
+
+        /**
+         * Adds the points of a contained element.
+         */
+        private void add(Entry child) {
+            pointCount += child.pointCount;
+            if(child.bounds != null){
+                if(bounds == null){
+                    bounds = (Rectangle2D) child.bounds.clone();
+                }else{
+                    bounds.add(child.bounds);
+                }
+            }
+            if(child.timespan != null){
+                if(timespan == null){
+                    timespan = new Timespan(child.timespan);
+                }else{
+                    timespan.add(child.timespan);
+                }
+            }
+        }
+    }
+
+    /**
+     * An element found by {@link #scan(FileChannel, int)} whose end tag has not been reached yet.
+     */
+    private static class Open {
+        long start;
+        boolean fragment;
+        Entry entry;
+        /**
+         * The start tag of a trace.
+         */
+        Element header;
+        /**
+         * The trace group built from the header, if the element is a trace group.
+         */
+        InkTraceGroup group;
+        /**
+         * The trace group enclosing a trace.
+         */
+        InkTraceGroup parentGroup;
+        /**
+         * Position of the trace data, following the start tag of a trace.
+         */
+        long dataStart;
+        /**
+         * True if the trace contains other markup than its trace data.
+         */
+        boolean mixed;
+    }
+
+    private File file;
+
+    private long fileLength;
+
+    private long lastModified;
+
+    /**
+     * Number of bytes preceding the start tag of the ink element, such as the XML declaration and the document type declaration.
+     */
+    private int prologLength;
+
+    /**
+     * The bytes of the prolog, read once by {@link #prolog()}.
+     */
+    private byte[] prolog;
+
+    /**
+     * Number of bytes up to the end of the start tag of the ink element.
+     */
+    private int headerLength;
+
+    private String inkName;
+
+    /**
+     * Positions of the annotations, definitions and contexts which are children of the ink element.
+     */
+    private List<long[]> fragments = new ArrayList<long[]>();
+
+    private List<Entry> entries = new ArrayList<Entry>();
+
+    private Map<String, Entry> ids = new HashMap<String, Entry>();
+
+    private DocumentBuilder builder;
+
+    /**
+     * Document creating the elements returned by {@link #parseTag(MarkupScanner, int, int, int)}.
+     */
+    private Document tags;
+
+    private InkInk ink;
+
+    /**
+     * The contexts which are current one after the other, starting with the default context.
+     */
+    private List<InkContext> contexts;
+
+    private InkIndex(File file) {
+        this.file = file;
+        this.fileLength = file.length();
+        this.lastModified = file.lastModified();
+    }
+
+    /**
+     * Returns the index of the InkML file. If the index file does not exist, or if it does not match
+     * the InkML file anymore, the index is built and stored in the index file. If the index file
+     * can not be written, a warning is issued and the index is returned anyway.
+     * @param file the InkML file
+     * @return the index
+     * @throws IOException if the file can not be read or indexed
+     * @throws InkMLComplianceException if the document is not compliant to InkML
+     */
+    public static InkIndex open(File file) throws IOException, InkMLComplianceException {
+        File indexFile = new File(file.getPath() + EXTENSION);
+        if(indexFile.isFile()){
+            try {
+                InkIndex index = read(file, indexFile);
+                if(index != null){
+                    return index;
+                }
+            } catch(IOException e) {
+                //the index is rebuilt
+            }
+        }
+        InkIndex index = build(file);
+        try {
+            index.save(indexFile);
+        } catch(IOException e) {
+            Messenger.warn("The index of '"+file.getPath()+"' can not be saved: "+e.getMessage());
+        }
+        return index;
+    }
+
+    /**
+     * Builds the index of the InkML file by scanning it once. The file is mapped into memory one window
+     * after the other, so files of any size can be indexed. Each trace is decoded as soon as its element
+     * has been found, to get its number of points, its bounds and its time span, and then discarded.
+     * Like this the document is never loaded as a whole.
+     * @param file the InkML file
+     * @return the index
+     * @throws IOException if the file can not be read or indexed
+     * @throws InkMLComplianceException if the document is not compliant to InkML
+     */
+    public static InkIndex build(File file) throws IOException, InkMLComplianceException {
+        return build(file, WINDOW);
+    }
+
+    /**
+     * @param window number of bytes mapped at once. It is doubled whenever a trace element does not fit.
+     */
+    static InkIndex build(File file, int window) throws IOException, InkMLComplianceException {
+        if(CompressionUtil.isCompressed(file)){
+            throw new IOException("The compressed file '"+file.getPath()+"' can not be indexed");
+        }
+        InkIndex index = new InkIndex(file);
+        FileInputStream in = new FileInputStream(file);
+        try {
+            index.scan(in.getChannel(), window);
+        } finally {
+            in.close();
+        }
+        return index;
+    }
+
+    /**
+     * Finds the elements which are stored in the index, builds the document returned by {@link #getInk()}
+     * from the fragments found, and decodes the traces within the contexts in effect.
+     * Positions within the file are longs, positions within the current window are ints.
+     */
+    private void scan(FileChannel channel, int window) throws IOException, InkMLComplianceException {
+        long size = channel.size();
+        long base = 0;
+        ByteBuffer buffer = map(channel, base, window);
+        MarkupScanner markup = new MarkupScanner(buffer);
+        if(!markup.isAsciiCompatible()){
+            throw new IOException("The file '"+file.getPath()+"' is not stored in an ASCII compatible encoding");
+        }
+        List<Open> stack = new ArrayList<Open>();
+        Set<Entry> withTraces = new HashSet<Entry>();
+        //the trace whose element has to be kept within the window until its end tag is found
+        Open trace = null;
+        int pos = 0;
+        while(base + pos < size){
+            boolean last = base + markup.getLimit() == size;
+            int kind = (last || pos + MARGIN <= markup.getLimit()) ? markup.kind(pos) : -1;
+            int end = (kind < 0) ? 0 : markup.end(pos, kind);
+            if(!last && (kind < 0 || end >= markup.getLimit())){
+                //the markup may continue beyond the window, which is moved to begin at the markup or at the open trace
+                long start = (trace == null) ? base + pos : trace.start;
+                if(start == base){
+                    if(window == Integer.MAX_VALUE){
+                        throw new IOException("The file '"+file.getPath()+"' contains an element at "+start+" which is too large to be indexed");
+                    }
+                    window = (window > Integer.MAX_VALUE / 2) ? Integer.MAX_VALUE : window * 2;
+                }
+                buffer = map(channel, start, window);
+                markup = new MarkupScanner(buffer);
+                pos = (int) (base + pos - start);
+                base = start;
+                continue;
+            }
+            Open top = stack.isEmpty() ? null : stack.get(stack.size() - 1);
+            if(trace != null && kind != MarkupScanner.TEXT && !(kind == MarkupScanner.END_TAG && top == trace)){
+                //comments, CDATA sections or elements can not be decoded from the window
+                trace.mixed = true;
+            }
+            if(kind == MarkupScanner.START_TAG || kind == MarkupScanner.EMPTY_ELEMENT_TAG){
+                int nameEnd = markup.endOfName(pos + 1, end);
+                int localStart = markup.startOfLocalName(pos + 1, nameEnd);
+                Open open = new Open();
+                open.start = base + pos;
+                if(top == null){
+                    if(base + end > Integer.MAX_VALUE){
+                        throw new IOException("The file '"+file.getPath()+"' has a prolog which is too large to be indexed");
+                    }
+                    prologLength = (int) (base + pos);
+                    headerLength = (int) (base + end);
+                    inkName = name(markup, pos + 1, nameEnd);
+                    startInk();
+                }else if(stack.size() == 1 && isFragment(name(markup, localStart, nameEnd))){
+                    open.fragment = true;
+                }else if(trace == null && (stack.size() == 1 || top.entry != null) && (markup.matches(InkTraceLeaf.INKML_NAME, localStart, nameEnd)
+                        || markup.matches(InkTraceGroup.INKML_NAME, localStart, nameEnd))){
+                    open.entry = new Entry();
+                    open.entry.group = markup.matches(InkTraceGroup.INKML_NAME, localStart, nameEnd);
+                    open.entry.offset = open.start;
+                    open.entry.parent = top.entry;
+                    open.entry.context = contexts.isEmpty() ? 0 : contexts.size() - 1;
+                    entries.add(open.entry);
+                    Element header = parseTag(markup, pos, nameEnd, end);
+                    if(open.entry.group){
+                        open.group = new InkTraceGroup(ink, top.group);
+                        open.group.buildFromXMLNode(header);
+                    }else{
+                        open.header = header;
+                        open.parentGroup = top.group;
+                        open.dataStart = base + end;
+                        trace = open;
+                    }
+                }
+                if(kind == MarkupScanner.START_TAG){
+                    stack.add(open);
+                    pos = end;
+                    continue;
+                }
+                top = open;
+            }else if(kind == MarkupScanner.END_TAG){
+                if(top == null){
+                    throw new IOException("The file '"+file.getPath()+"' contains an unexpected end tag at "+(base + pos));
+                }
+                stack.remove(stack.size() - 1);
+            }else{
+                pos = end;
+                continue;
+            }
+            //top has been closed
+            close(top, base + end);
+            if(top == trace){
+                summarize(trace, buffer, (int) (trace.dataStart - base), (kind == MarkupScanner.END_TAG) ? pos : end);
+                for(Entry e = trace.entry.parent; e != null; e = e.parent){
+                    e.add(trace.entry);
+                    withTraces.add(e);
+                }
+                trace = null;
+            }
+            if(stack.isEmpty()){
+                finish(withTraces);
+                return;
+            }
+            pos = end;
+        }
+        throw new IOException("The file '"+file.getPath()+"' ends before the ink element");
+    }
+
+    /**
+     * Maps a window of the file, which is shorter if the file ends before.
+     */
+    private static ByteBuffer map(FileChannel channel, long start, int window) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(window, channel.size() - start));
+    }
+
+    private void close(Open open, long end) throws IOException, InkMLComplianceException {
+        if(open.fragment){
+            fragments.add(new long[]{open.start, end - open.start});
+            apply(readElement(open.start, length(open.start, end)));
+        }else if(open.entry != null){
+            open.entry.length = end - open.start;
+            if(open.group != null){
+                open.entry.id = open.group.getId();
+                open.entry.contextRef = getInheritedContextRef(open.group);
+                unregister(open.group);
+            }
+        }
+    }
+
+    /**
+     * Decodes the trace data found in the window and records the number of points, the bounds and
+     * the time span of the trace. Traces containing more than text, or entity references, are parsed
+     * from the file instead.
+     */
+    private void summarize(Open open, ByteBuffer buffer, int dataStart, int dataEnd) throws IOException, InkMLComplianceException {
+        InkTraceLeaf trace = new InkTraceLeaf(ink, open.parentGroup);
+        try {
+            if(open.mixed || contains(buffer, dataStart, dataEnd, '&')){
+                trace.buildFromXMLNode(readElement(open.start, length(open.start, open.start + open.entry.length)));
+            }else{
+                trace.loadAttributes(open.header);
+                trace.deferPoints(new TraceDataTokenizer(buffer, dataStart, dataEnd - dataStart), true);
+            }
+        } finally {
+            unregister(trace);
+        }
+        Entry entry = open.entry;
+        entry.id = trace.getId();
+        entry.contextRef = getInheritedContextRef(trace);
+        entry.pointCount = trace.getPointCount();
+        if(entry.pointCount > 0){
+            entry.bounds = (Rectangle2D) trace.getBounds().clone();
+            entry.timespan = (trace.getTimeSpan() == null) ? null : new Timespan(trace.getTimeSpan());
+        }
+    }
+
+    /**
+     * Removes the trace groups not containing any traces, such as trace view containers,
+     * and completes the document.
+     */
+    private void finish(Set<Entry> withTraces) {
+        List<Entry> found = entries;
+        entries = new ArrayList<Entry>();
+        for(Entry entry : found){
+            if(entry.group && !withTraces.contains(entry)){
+                continue;
+            }
+            entries.add(entry);
+            if(entry.id != null){
+                ids.put(entry.id, entry);
+            }
+        }
+        finishInk();
+    }
+
+    private int length(long start, long end) throws IOException {
+        if(end - start > Integer.MAX_VALUE){
+            throw new IOException("The element at "+start+" of '"+file.getPath()+"' is too large to be read");
+        }
+        return (int) (end - start);
+    }
+
+    private static boolean contains(ByteBuffer buffer, int start, int end, char c) {
+        for(int i = start; i < end; i++){
+            if(buffer.get(i) == c){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns an element having the attributes of a start tag, but no content.
+     * Tags containing entity references or characters beyond ASCII are parsed.
+     */
+    private Element parseTag(MarkupScanner markup, int start, int nameEnd, int end) throws IOException {
+        int tagEnd = (markup.get(end - 2) == '/') ? end - 2 : end - 1;
+        for(int i = start; i < tagEnd; i++){
+            byte c = markup.get(i);
+            if(c == '&' || c < 0){
+                byte[] prolog = prolog();
+                byte[] document = new byte[prolog.length + tagEnd - start + 2];
+                System.arraycopy(prolog, 0, document, 0, prolog.length);
+                for(int k = start; k < tagEnd; k++){
+                    document[prolog.length + k - start] = markup.get(k);
+                }
+                document[document.length - 2] = '/';
+                document[document.length - 1] = '>';
+                return parse(document);
+            }
+        }
+        if(tags == null){
+            tags = builder().newDocument();
+        }
+        Element element = tags.createElement(name(markup, start + 1, nameEnd));
+        int i = nameEnd;
+        while(true){
+            while(i < tagEnd && isWhiteSpace(markup.get(i))){
+                i++;
+            }
+            if(i >= tagEnd){
+                return element;
+            }
+            int attributeStart = i;
+            while(i < tagEnd && markup.get(i) != '=' && !isWhiteSpace(markup.get(i))){
+                i++;
+            }
+            String name = name(markup, attributeStart, i);
+            while(i < tagEnd && markup.get(i) != '"' && markup.get(i) != '\''){
+                i++;
+            }
+            if(i >= tagEnd){
+                throw new IOException("The tag at "+start+" within the file '"+file.getPath()+"' is not well formed");
+            }
+            byte quote = markup.get(i++);
+            StringBuilder value = new StringBuilder();
+            for(; i < tagEnd && markup.get(i) != quote; i++){
+                //attribute value normalization
+                value.append(isWhiteSpace(markup.get(i)) ? ' ' : (char) markup.get(i));
+            }
+            element.setAttribute(name, value.toString());
+            i++;
+        }
+    }
+
+    private static boolean isWhiteSpace(byte c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+    }
+
+    private static String name(MarkupScanner markup, int start, int end) {
+        StringBuilder name = new StringBuilder(end - start);
+        for(int i = start; i < end; i++){
+            name.append((char) markup.get(i));
+        }
+        return name.toString();
+    }
+
+    private static boolean isFragment(String localName) {
+        return localName.equals(InkDefinitions.INKML_NAME) || localName.equals("definition")
+            || localName.equals(InkContext.INKML_NAME)
+            || localName.equals(InkAnnotatedElement.INKML_ANNOTATION_NAME)
+            || localName.equals(InkAnnotatedElement.INKML_ANNOTATION_XML_NAME);
+    }
+
+    /**
+     * Returns the id of the context a trace or trace group inherits from its enclosing trace groups,
+     * if it has no local context itself.
+     */
+    private static String getInheritedContextRef(InkTrace trace) {
+        if(trace.hasLocalContext()){
+            return null;
+        }
+        for(InkTraceGroup group = trace.getParent(); group != null; group = group.getParent()){
+            if(group.hasLocalContext()){
+                return group.getLocalContext().getId();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes the index to the index file.
+     * @param indexFile
+     * @throws IOException if the file can not be written
+     */
+    public void save(File indexFile) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile), 1 << 16));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(fileLength);
+            out.writeLong(lastModified);
+            out.writeInt(prologLength);
+            out.writeInt(headerLength);
+            out.writeUTF(inkName);
+            out.writeInt(fragments.size());
+            for(long[] fragment : fragments){
+                out.writeLong(fragment[0]);
+                out.writeLong(fragment[1]);
+            }
+            Map<Entry, Integer> positions = new HashMap<Entry, Integer>();
+            out.writeInt(entries.size());
+            for(Entry entry : entries){
+                positions.put(entry, positions.size());
+                out.writeBoolean(entry.group);
+                writeString(out, entry.id);
+                out.writeLong(entry.offset);
+                out.writeLong(entry.length);
+                out.writeInt((entry.parent == null) ? -1 : positions.get(entry.parent));
+                out.writeInt(entry.context);
+                writeString(out, entry.contextRef);
+                out.writeInt(entry.pointCount);
+                out.writeBoolean(entry.bounds != null);
+                if(entry.bounds != null){
+                    out.writeDouble(entry.bounds.getX());
+                    out.writeDouble(entry.bounds.getY());
+                    out.writeDouble(entry.bounds.getWidth());
+                    out.writeDouble(entry.bounds.getHeight());
+                }
+                out.writeBoolean(entry.timespan != null);
+                if(entry.timespan != null){
+                    out.writeDouble(entry.timespan.start);
+                    out.writeDouble(entry.timespan.end);
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads the index from the index file.
+     * @return the index, or null if it does not match the file
+     * @throws IOException if the index file can not be read
+     */
+    private static InkIndex read(File file, File indexFile) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile), 1 << 16));
+        try {
+            InkIndex index = new InkIndex(file);
+            if(in.readInt() != MAGIC || in.readInt() != VERSION
+                    || in.readLong() != index.fileLength || in.readLong() != index.lastModified){
+                return null;
+            }
+            index.prologLength = in.readInt();
+            index.headerLength = in.readInt();
+            index.inkName = in.readUTF();
+            int count = in.readInt();
+            for(int i = 0; i < count; i++){
+                index.fragments.add(new long[]{in.readLong(), in.readLong()});
+            }
+            count = in.readInt();
+            for(int i = 0; i < count; i++){
+                Entry entry = new Entry();
+                entry.group = in.readBoolean();
+                entry.id = readString(in);
+                entry.offset = in.readLong();
+                entry.length = in.readLong();
+                int parent = in.readInt();
+                entry.parent = (parent < 0) ? null : index.entries.get(parent);
+                entry.context = in.readInt();
+                entry.contextRef = readString(in);
+                entry.pointCount = in.readInt();
+                if(in.readBoolean()){
+                    entry.bounds = new Rectangle2D.Double(in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble());
+                }
+                if(in.readBoolean()){
+                    entry.timespan = new Timespan(in.readDouble(), in.readDouble());
+                }
+                index.entries.add(entry);
+                if(entry.id != null){
+                    index.ids.put(entry.id, entry);
+                }
+            }
+            return index;
+        } catch(EOFException e) {
+            throw new IOException("The index file '"+indexFile.getPath()+"' is truncated");
+        } catch(IndexOutOfBoundsException e) {
+            throw new IOException("The index file '"+indexFile.getPath()+"' is corrupt");
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if(s != null){
+            out.writeUTF(s);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * @return the indexed file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return all traces and trace groups in document order
+     */
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * @param id
+     * @return the trace or trace group with the id, null if there is none
+     */
+    public Entry getEntry(String id) {
+        return ids.get(id);
+    }
+
+    /**
+     * Returns the traces selected by the options, according to the values stored in the index.
+     * @param options
+     * @return the selected traces in document order
+     */
+    public List<Entry> select(InkLoadOptions options) {
+        List<Entry> result = new ArrayList<Entry>();
+        for(Entry entry : entries){
+            if(entry.group){
+                continue;
+            }
+            if(options.getTraceIds() != null && (entry.id == null || !options.getTraceIds().contains(entry.id))){
+                continue;
+            }
+            if(options.needsPoints() && (entry.pointCount == 0 || !options.accepts(entry.timespan, entry.bounds))){
+                continue;
+            }
+            result.add(entry);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the document containing the annotations, the definitions and the contexts of the indexed file.
+     * It is built when it is requested for the first time.
+     * @return the document
+     * @throws IOException if the file can not be read
+     * @throws InkMLComplianceException if the document is not compliant to InkML
+     */
+    public InkInk getInk() throws IOException, InkMLComplianceException {
+        if(ink != null){
+            return ink;
+        }
+        boolean complete = false;
+        try {
+            startInk();
+            for(long[] fragment : fragments){
+                apply(readElement(fragment[0], length(fragment[0], fragment[0] + fragment[1])));
+            }
+            finishInk();
+            complete = true;
+        } finally {
+            if(!complete){
+                ink = null;
+                contexts = null;
+            }
+        }
+        return ink;
+    }
+
+    /**
+     * Creates the document from the start tag of the ink element.
+     */
+    private void startInk() throws IOException, InkMLComplianceException {
+        byte[] header = read(0, headerLength);
+        byte[] end = ("</" + inkName + ">").getBytes("US-ASCII");
+        byte[] document = new byte[header.length + end.length];
+        System.arraycopy(header, 0, document, 0, header.length);
+        System.arraycopy(end, 0, document, header.length, end.length);
+        ink = new InkInk();
+        ink.buildFromXMLNode(parse(document));
+        contexts = new ArrayList<InkContext>();
+    }
+
+    /**
+     * Adds an annotation, definitions or a context, which is a child of the ink element, to the document.
+     */
+    private void apply(Element element) throws InkMLComplianceException {
+        String n = element.getNodeName();
+        n = n.substring(n.indexOf(':') + 1);
+        if(n.equals(InkAnnotatedElement.INKML_ANNOTATION_NAME) || n.equals(InkAnnotatedElement.INKML_ANNOTATION_XML_NAME)){
+            ink.loadAnnotation(element);
+        }else if(n.equals(InkContext.INKML_NAME)){
+            if(contexts.isEmpty()){
+                //the default context is created once the definitions preceding the first context are known
+                contexts.add(ink.getCurrentContext());
+            }
+            ink.stepNode(element);
+            contexts.add(ink.getCurrentContext());
+        }else{
+            ink.stepNode(element);
+        }
+    }
+
+    private void finishInk() {
+        if(contexts.isEmpty()){
+            contexts.add(ink.getCurrentContext());
+        }
+    }
+
+    /**
+     * Loads the trace or trace group by reading and parsing only its element.
+     * The trace is built in the document returned by {@link #getInk()}, within the context
+     * which was in effect at its position in the file, but it is not added to the document.
+     * The ids of the trace and of its content are not registered in the definitions of the document,
+     * such that a trace can be loaded any number of times.
+     * @param entry an entry of this index
+     * @return the trace or trace group
+     * @throws IOException if the file can not be read, or has been changed since it has been indexed
+     * @throws InkMLComplianceException if the trace is not compliant to InkML
+     */
+    public InkTrace loadTrace(Entry entry) throws IOException, InkMLComplianceException {
+        if(file.length() != fileLength || file.lastModified() != lastModified){
+            throw new IOException("The file '"+file.getPath()+"' has been changed since it has been indexed");
+        }
+        InkInk ink = getInk();
+        Element element = readElement(entry.offset, length(entry.offset, entry.offset + entry.length));
+        if(entry.contextRef != null && !element.hasAttribute("contextRef")){
+            element.setAttribute("contextRef", "#" + entry.contextRef);
+        }
+        InkContext current = ink.getCurrentContext();
+        ink.setCurrentContext(contexts.get(entry.context));
+        try {
+            InkTrace trace = entry.group ? new InkTraceGroup(ink, null) : new InkTraceLeaf(ink, null);
+            try {
+                trace.buildFromXMLNode(element);
+            } finally {
+                unregister(trace);
+            }
+            return trace;
+        } finally {
+            ink.setCurrentContext(current);
+        }
+    }
+
+    /**
+     * Removes the ids of the trace and of its content from the definitions of the document.
+     */
+    private void unregister(InkTrace trace) {
+        if(trace.hasId() && ink.getDefinitions().containsKey(trace.getId()) && ink.getDefinitions().get(trace.getId()) == trace){
+            ink.getDefinitions().remove(trace.getId());
+        }
+        if(!trace.isLeaf()){
+            for(InkTrace child : ((InkTraceGroup) trace).getContent()){
+                unregister(child);
+            }
+        }
+    }
+
+    /**
+     * Reads a range of bytes of the file by a positioned read.
+     */
+    private byte[] read(long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            while(buffer.hasRemaining()){
+                if(channel.read(buffer, offset + buffer.position()) < 0){
+                    throw new EOFException("The file '"+file.getPath()+"' has been truncated since it has been indexed");
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Returns the prolog of the file, which is read only the first time.
+     */
+    private byte[] prolog() throws IOException {
+        if(prolog == null){
+            prolog = read(0, prologLength);
+        }
+        return prolog;
+    }
+
+    /**
+     * Reads and parses an element of the file. The prolog of the file is prepended, such that the
+     * encoding and the entities declared by the file are respected.
+     */
+    private Element readElement(long offset, int length) throws IOException {
+        byte[] prolog = prolog();
+        byte[] element = read(offset, length);
+        byte[] document = new byte[prolog.length + element.length];
+        System.arraycopy(prolog, 0, document, 0, prolog.length);
+        System.arraycopy(element, 0, document, prolog.length, element.length);
+        return parse(document);
+    }
+
+    private Element parse(byte[] document) throws IOException {
+        try {
+            return builder().parse(new ByteArrayInputStream(document)).getDocumentElement();
+        } catch(SAXException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    private DocumentBuilder builder() throws IOException {
+        if(builder == null){
+            try {
+                builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+            } catch(ParserConfigurationException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+        }
+        return builder;
+    }
+}
@@ -1,14 +1,26 @@
 package ch.unibe.inkml;
 
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
 import ch.unibe.eindermu.utils.Aspect;
+import ch.unibe.eindermu.utils.CompressionUtil;
 import ch.unibe.eindermu.utils.Observer;
+import ch.unibe.inkml.util.PointStore;
 import ch.unibe.inkml.util.Timespan;
 import ch.unibe.inkml.util.TraceBound;
 import ch.unibe.inkml.util.TraceViewFilter;
@@ -62,6 +74,21 @@ public class InkInk extends InkAnnotatedElement implements Observer {
 	 */
 	private String documentId;
 
+	/**
+	 * If true, the decimal channels of traces are stored as float.
+	 */
+	private boolean singlePrecision = false;
+
+	/**
+	 * Allocates the point data of traces in direct memory, null if the points are stored on the heap.
+	 */
+	private PointStore pointStore;
+
+	/**
+	 * If true, traces keep the trace data they have been loaded from.
+	 */
+	private boolean keepTraceData = false;
+
 	
 	/**
 	 * Constructs the actual InkML tree, without Ink, no document can exist.
@@ -89,6 +116,62 @@ public class InkInk extends InkAnnotatedElement implements Observer {
 		return currentContext;
 	}
 
+	/**
+	 * Specifies whether the values of decimal channels are stored with single precision,
+	 * which halves the memory needed by them. This applies to the source points of traces
+	 * which are loaded or modified afterwards. Integer and boolean channels are always stored 
+	 * as compact as their values permit.
+	 * @param singlePrecision
+	 */
+	public void setSinglePrecision(boolean singlePrecision) {
+		this.singlePrecision = singlePrecision;
+	}
+
+	public boolean isSinglePrecision() {
+		return singlePrecision;
+	}
+
+	/**
+	 * Specifies where the points of traces loaded or modified afterwards are stored.
+	 * If a store is set, the points are stored in direct memory allocated by it, otherwise on the heap.
+	 * The store may be shared by several documents. It is not released by {@link #close()}, but by its owner
+	 * when none of its documents is used anymore.
+	 * @param pointStore the store, or null to store the points on the heap
+	 */
+	public void setPointStore(PointStore pointStore) {
+		this.pointStore = pointStore;
+	}
+
+	public PointStore getPointStore() {
+		return pointStore;
+	}
+
+	/**
+	 * Specifies whether traces loaded afterwards keep a copy of their trace data. As long as the points 
+	 * of such a trace are not modified, the trace data is saved unchanged instead of encoding the points again.
+	 * This saves time when a document is loaded, annotated and saved, at the cost of about one byte 
+	 * per character of trace data. The default is false.
+	 * @param keepTraceData
+	 */
+	public void setKeepTraceData(boolean keepTraceData) {
+		this.keepTraceData = keepTraceData;
+	}
+
+	public boolean isKeepTraceData() {
+		return keepTraceData;
+	}
+
+	/**
+	 * Closes this document: the points of all traces are discarded. The point store, if there is one,
+	 * is not released, since other documents may still use it, see {@link #setPointStore(PointStore)}.
+	 * Accessing the points of a trace afterwards throws an {@link IllegalStateException}.
+	 */
+	public void close() {
+		for(InkTrace l : this.getFlatTraces()){
+			((InkTraceLeaf)l).releasePoints();
+		}
+	}
+
 	/**
 	 * Sets a context active. This means that all traces created
 	 * afterwards will have this context as the context they live in.
@@ -158,7 +241,12 @@ public class InkInk extends InkAnnotatedElement implements Observer {
 		
 	}
 
-	private void stepNode(Element node) throws InkMLComplianceException{
+	/**
+	 * Builds the content represented by a direct child element of the ink element.
+	 * @param node XML element which is a child of the ink element.
+	 * @throws InkMLComplianceException
+	 */
+	void stepNode(Element node) throws InkMLComplianceException{
 	    String n = node.getNodeName();
 		if(n.equals(InkDefinitions.INKML_NAME) || n.equals("definition") /*backwards compatibility for definition-instead-of-definitions bug*/){ 
 			definitions = new InkDefinitions(this.getInk());
@@ -210,11 +298,7 @@ public class InkInk extends InkAnnotatedElement implements Observer {
 
 	@Override
 	public void exportToInkML(Element node) throws InkMLComplianceException {
-		super.exportToInkML(node);
-		if(documentId != null && !documentId.isEmpty()){
-		    node.setAttribute(INKML_ATTR_DOCUMENT_ID, documentId);
-		    node.setAttribute(XML_ATTR_NAMESPACE, INKML_NAMESPACE);
-		}
+		exportHeader(node);
 		this.getDefinitions().exportToInkML(node);
 		if(this.currentContext!= null){
 			this.currentContext.exportToInkML(node);
@@ -227,6 +311,19 @@ public class InkInk extends InkAnnotatedElement implements Observer {
 		}
 	}
 
+	/**
+	 * Writes the attributes and the annotations of this document to the ink element.
+	 * @param node
+	 * @throws InkMLComplianceException
+	 */
+	void exportHeader(Element node) throws InkMLComplianceException {
+		super.exportToInkML(node);
+		if(documentId != null && !documentId.isEmpty()){
+		    node.setAttribute(INKML_ATTR_DOCUMENT_ID, documentId);
+		    node.setAttribute(XML_ATTR_NAMESPACE, INKML_NAMESPACE);
+		}
+	}
+
 
 
 	/**
@@ -369,6 +466,33 @@ public class InkInk extends InkAnnotatedElement implements Observer {
 		}
 	}
 
+	/**
+	 * Removes traces which have been added while loading and turned out not to be selected.
+	 * Unlike {@link #removeTrace(InkTrace)}, groups are kept even if they get empty, no
+	 * observers are notified, and trace views are not searched, since none refers to the traces yet.
+	 * @param detached the traces to remove
+	 */
+	void detachTraces(Collection<? extends InkTrace> detached) {
+		if(detached.isEmpty()){
+			return;
+		}
+		Set<InkTrace> set = Collections.newSetFromMap(new IdentityHashMap<InkTrace, Boolean>());
+		set.addAll(detached);
+		Set<InkTraceGroup> parents = Collections.newSetFromMap(new IdentityHashMap<InkTraceGroup, Boolean>());
+		for(InkTrace trace : detached){
+			if(!trace.isRoot()){
+				parents.add(trace.getParent());
+			}
+			if(trace.hasId()){
+				this.definitions.remove(trace.getId());
+			}
+		}
+		this.traces.removeAll(set);
+		for(InkTraceGroup parent : parents){
+			parent.getTraces().removeAll(set);
+		}
+	}
+
 
 
 
@@ -384,6 +508,68 @@ public class InkInk extends InkAnnotatedElement implements Observer {
 		}
 	}
 
+	/**
+	 * Loads an InkML document from a stream, without building a DOM tree of the whole document.
+	 * In contrast to {@link ch.unibe.eindermu.utils.XmlHandler} no schema validation is done.
+	 * The stream will be closed afterwards.
+	 * @see InkStreamLoader
+	 * @param stream the stream containing the InkML document
+	 * @return the new document
+	 * @throws IOException if the stream can not be read or does not contain well-formed XML
+	 * @throws InkMLComplianceException if the document is not compliant to InkML
+	 */
+	public static InkInk load(InputStream stream) throws IOException, InkMLComplianceException {
+		return new InkStreamLoader().load(stream);
+	}
+
+	/**
+	 * Loads only the traces of an InkML document which are selected by the options,
+	 * and the trace views referring to them. The stream will be closed afterwards.
+	 * @see InkLoadOptions
+	 * @param stream the stream containing the InkML document
+	 * @param options selects the traces to be loaded
+	 * @return the new document
+	 * @throws IOException if the stream can not be read or does not contain well-formed XML
+	 * @throws InkMLComplianceException if the document is not compliant to InkML
+	 */
+	public static InkInk load(InputStream stream, InkLoadOptions options) throws IOException, InkMLComplianceException {
+		InkStreamLoader loader = new InkStreamLoader();
+		loader.setLoadOptions(options);
+		return loader.load(stream);
+	}
+
+	/**
+	 * Writes this document to a stream, without building a DOM tree of the whole document.
+	 * The stream is flushed but not closed.
+	 * @see InkStreamWriter
+	 * @param stream the stream the document is written to
+	 * @throws IOException if the stream can not be written
+	 * @throws InkMLComplianceException if the document can not be exported to InkML
+	 */
+	public void save(OutputStream stream) throws IOException, InkMLComplianceException {
+		new InkStreamWriter().write(this, stream);
+	}
+
+	/**
+	 * Writes this document to a file. If the file name ends with ".gz", the document is gzip
+	 * compressed by a background thread, while it is written.
+	 * @see #save(OutputStream)
+	 * @param file the file the document is written to
+	 * @throws IOException if the file can not be written
+	 * @throws InkMLComplianceException if the document can not be exported to InkML
+	 */
+	public void save(File file) throws IOException, InkMLComplianceException {
+		OutputStream stream = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+		if(CompressionUtil.hasCompressedName(file)){
+			stream = CompressionUtil.compress(stream);
+		}
+		try {
+			save(stream);
+		} finally {
+			stream.close();
+		}
+	}
+
     /**
      * Sets the unique document id of this document.
      * @see InkInk#documentId
@@ -0,0 +1,137 @@
+package ch.unibe.inkml;
+
+import java.awt.geom.Rectangle2D;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.w3c.dom.Element;
+
+import ch.unibe.inkml.util.Timespan;
+import ch.unibe.inkml.util.TraceDataTokenizer;
+
+/**
+ * Selects the traces loaded by {@link InkStreamLoader}. Traces which are not selected are skipped,
+ * as well as the trace views referring to them. Trace groups are loaded even if none of their traces are selected.
+ *
+ * A trace is selected if it passes all criteria which are set:
+ * <ul>
+ * <li>its <code>xml:id</code> is one of the given ids. Other traces are skipped without reading their trace data.</li>
+ * <li>its time span intersects the given time span. Traces without time channel are skipped.</li>
+ * <li>its bounds intersect the given rectangle, both in canvas coordinates.</li>
+ * </ul>
+ * For the last two criteria the trace data has to be decoded while loading. Only the first point of a trace is
+ * decoded to skip a trace starting after the time span, since the time span of a trace starts with its first point.
+ * The bounds of a trace however are only known after decoding all of its points. With eager point decoding
+ * the selected traces keep their points, with lazy point decoding they keep only their bounds and time span,
+ * see {@link InkStreamLoader#setLoadOptions(InkLoadOptions)}.
+ *
+ * The options can also be applied to the entries of an {@link InkIndex}, see {@link InkIndex#select(InkLoadOptions)}.
+ *
+ * @author emanuel
+ */
+public class InkLoadOptions {
+
+    private Set<String> traceIds;
+
+    private Timespan timespan;
+
+    private Rectangle2D bounds;
+
+    /**
+     * Selects only the traces with one of the ids.
+     * @param traceIds the ids without leading '#', or null to select traces regardless of their id.
+     */
+    public void setTraceIds(Set<String> traceIds) {
+        this.traceIds = (traceIds == null) ? null : new HashSet<String>(traceIds);
+    }
+
+    public Set<String> getTraceIds() {
+        return traceIds;
+    }
+
+    /**
+     * Selects only the traces whose time span intersects the time span.
+     * @param timespan or null to select traces regardless of their time
+     */
+    public void setTimespan(Timespan timespan) {
+        this.timespan = (timespan == null) ? null : new Timespan(timespan);
+    }
+
+    public Timespan getTimespan() {
+        return timespan;
+    }
+
+    /**
+     * Selects only the traces whose bounds intersect the rectangle. Traces touching the rectangle are selected.
+     * @param bounds rectangle in canvas coordinates, or null to select traces regardless of their position
+     */
+    public void setBounds(Rectangle2D bounds) {
+        this.bounds = (bounds == null) ? null : (Rectangle2D) bounds.clone();
+    }
+
+    public Rectangle2D getBounds() {
+        return bounds;
+    }
+
+    /**
+     * @return true if the points have to be decoded to decide whether a trace is selected.
+     */
+    boolean needsPoints() {
+        return timespan != null || bounds != null;
+    }
+
+    /**
+     * Decides by the attributes of a trace, whether it may be selected.
+     * @param header the trace element
+     * @return false if the trace is not selected
+     */
+    boolean accepts(Element header) {
+        return traceIds == null || traceIds.contains(header.getAttribute(InkUniqueElement.INKML_ATTR_ID));
+    }
+
+    /**
+     * Decides by the first point of a trace, whether it may be selected, without decoding the other points.
+     * @param trace trace whose context is known
+     * @param data trace data of the trace
+     * @return false if the trace starts after the time span and is therefore not selected
+     * @throws InkMLComplianceException if the first point is not compliant
+     */
+    boolean acceptsStart(InkTraceLeaf trace, TraceDataTokenizer data) throws InkMLComplianceException {
+        //a trace without start time is decided after decoding all of its points, as done so far
+        return timespan == null || !(trace.decodeStartTime(data) > timespan.end);
+    }
+
+    /**
+     * Decides by the points of a trace, whether it is selected.
+     * @param trace trace whose bounds and time span are available
+     * @return false if the trace is not selected
+     */
+    boolean accepts(InkTraceLeaf trace) {
+        if(trace.getPointCount() == 0){
+            return !needsPoints();
+        }
+        return accepts(trace.getTimeSpan(), trace.getBounds());
+    }
+
+    /**
+     * Decides by the time span and the bounds of a trace, whether it is selected.
+     * @param t time span of the trace, null if it is not known
+     * @param b bounds of the trace, null if it is not known
+     * @return false if the trace is not selected
+     */
+    boolean accepts(Timespan t, Rectangle2D b) {
+        if(timespan != null){
+            if(t == null || t.end < timespan.start || t.start > timespan.end){
+                return false;
+            }
+        }
+        if(bounds != null){
+            //Rectangle2D#intersects does not accept the empty bounds of straight traces
+            if(b == null || b.getMaxX() < bounds.getMinX() || b.getMinX() > bounds.getMaxX()
+                    || b.getMaxY() < bounds.getMinY() || b.getMinY() > bounds.getMaxY()){
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -7,4 +7,8 @@ public class InkMLComplianceException extends Exception {
 		super(string);
 	}
 
+	public InkMLComplianceException(String string, Throwable cause) {
+		super(string, cause);
+	}
+
 }
@@ -197,25 +197,106 @@ abstract public class InkMapping extends InkUniqueElement {
 	abstract public boolean isInvertible();
 
     /**
-     * @param sourcePoints
-     * @param points
+     * Returns true if the mapping sets each channel of the target format to the channel of the same name
+     * of the source format, unchanged. Then the points do not need to be transformed, see
+     * {@link InkTraceLeaf}. The default implementation returns false.
+     * @param sourceFormat
+     * @param targetFormat
+     * @return true if the mapping is the identity for these formats
+     */
+    public boolean isIdentity(InkTraceFormat sourceFormat, InkTraceFormat targetFormat) {
+        return false;
+    }
+
+    /**
+     * Transforms points from the source format to the target format.
+     * The points are stored column by column, one array per channel in the order of the format,
+     * each containing one value per point.
+     * @param sourcePoints sourcePoints[channel][point]
+     * @param points points[channel][point], receives the transformed points
      * @param sourceFormat
      * @param targetFormat
      * @throws InkMLComplianceException 
      */
-    public abstract void transform(double[][] sourcePoints, double[][] points,
+    public abstract void transformColumns(double[][] sourcePoints, double[][] points,
             InkTraceFormat sourceFormat, InkTraceFormat targetFormat) throws InkMLComplianceException;
 
     /**
-     * @param sourcePoints
-     * @param points
+     * Transforms points from the target format back to the source format.
+     * The points are stored column by column as described for {@link #transformColumns(double[][], double[][], InkTraceFormat, InkTraceFormat)}.
+     * @param sourcePoints sourcePoints[channel][point], receives the transformed points
+     * @param points points[channel][point]
      * @param canvasFormat
      * @param sourceFormat
      * @throws InkMLComplianceException 
      */
-    public abstract void backTransform(double[][] sourcePoints, double[][] points,
+    public abstract void backTransformColumns(double[][] sourcePoints, double[][] points,
             InkTraceFormat canvasFormat, InkTraceFormat sourceFormat) throws InkMLComplianceException;
 
+    /**
+     * Transforms points stored point by point.
+     * @param sourcePoints sourcePoints[point][channel]
+     * @param points points[point][channel], receives the transformed points
+     * @param sourceFormat
+     * @param targetFormat
+     * @throws InkMLComplianceException 
+     * @deprecated the points are copied column by column,
+     *      use {@link #transformColumns(double[][], double[][], InkTraceFormat, InkTraceFormat)}
+     */
+    @Deprecated
+    public void transform(double[][] sourcePoints, double[][] points,
+            InkTraceFormat sourceFormat, InkTraceFormat targetFormat) throws InkMLComplianceException {
+        double[][] columns = toColumns(points, targetFormat.getChannelCount());
+        transformColumns(toColumns(sourcePoints, sourceFormat.getChannelCount()), columns, sourceFormat, targetFormat);
+        toRows(columns, points);
+    }
+
+    /**
+     * Transforms points stored point by point back to the source format.
+     * @param sourcePoints sourcePoints[point][channel], receives the transformed points
+     * @param points points[point][channel]
+     * @param canvasFormat
+     * @param sourceFormat
+     * @throws InkMLComplianceException 
+     * @deprecated the points are copied column by column,
+     *      use {@link #backTransformColumns(double[][], double[][], InkTraceFormat, InkTraceFormat)}
+     */
+    @Deprecated
+    public void backTransform(double[][] sourcePoints, double[][] points,
+            InkTraceFormat canvasFormat, InkTraceFormat sourceFormat) throws InkMLComplianceException {
+        double[][] columns = toColumns(sourcePoints, sourceFormat.getChannelCount());
+        backTransformColumns(columns, toColumns(points, canvasFormat.getChannelCount()), canvasFormat, sourceFormat);
+        toRows(columns, sourcePoints);
+    }
+
+    /**
+     * @param rows rows[point][channel]
+     * @param channels number of channels
+     * @return the same points stored column by column, columns[channel][point]
+     */
+    static double[][] toColumns(double[][] rows, int channels) {
+        double[][] columns = new double[channels][rows.length];
+        for(int i = 0;i<rows.length;i++){
+            for(int c = 0;c<channels && c<rows[i].length;c++){
+                columns[c][i] = rows[i][c];
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * Copies points stored column by column into the rows, which store them point by point.
+     * @param columns columns[channel][point]
+     * @param rows rows[point][channel], receives the points
+     */
+    static void toRows(double[][] columns, double[][] rows) {
+        for(int i = 0;i<rows.length;i++){
+            for(int c = 0;c<columns.length && c<rows[i].length;c++){
+                rows[i][c] = columns[c][i];
+            }
+        }
+    }
+
     
     public InkMapping clone(InkInk ink){
         InkMapping newMapping = InkMapping.mappingFactory(ink, getType());
@@ -31,7 +31,7 @@ public class InkMathMLMapping extends InkMapping {
 	}
 
     @Override
-    public void backTransform(double[][] sourcePoints, double[][] points,
+    public void backTransformColumns(double[][] sourcePoints, double[][] points,
             InkTraceFormat canvasFormat, InkTraceFormat sourceFormat)
             throws InkMLComplianceException {
         // TODO Auto-generated method stub
@@ -40,7 +40,7 @@ public class InkMathMLMapping extends InkMapping {
     }
 
     @Override
-    public void transform(double[][] sourcePoints, double[][] points,
+    public void transformColumns(double[][] sourcePoints, double[][] points,
             InkTraceFormat sourceFormat, InkTraceFormat targetFormat)
             throws InkMLComplianceException {
         // TODO Auto-generated method stub
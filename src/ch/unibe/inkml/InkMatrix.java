@@ -19,6 +19,16 @@ public class InkMatrix extends InkUniqueElement {
 	private double[][] inverse;
 	
 	private double[] retranslation;
+
+	/**
+	 * Whether the matrix is invertible, null if it has not been determined since the last change.
+	 */
+	private Boolean invertible;
+
+	/**
+	 * Incremented whenever the matrix or the translation changes, see {@link TransformPlan}.
+	 */
+	private int version = 0;
 	
 	public InkMatrix(InkInk ink) {
 		super(ink);
@@ -62,6 +72,7 @@ public class InkMatrix extends InkUniqueElement {
 			}
 			t.add(vrow);
 		}
+		changed();
 		matrix = new double[t.size()][t.get(0).size()-1];
 		translation  = new double[t.size()];
 		for(int y = 0; y<t.size();y++){
@@ -110,6 +121,7 @@ public class InkMatrix extends InkUniqueElement {
 	}
 	
 	public void setMatrix(double[][] matrix,double[] translation) {
+		changed();
 		this.matrix = matrix;
 		this.translation = translation;
 	}
@@ -163,6 +175,7 @@ public class InkMatrix extends InkUniqueElement {
 	}
 
 	public void flipAxis(int x, int y) {
+		changed();
 		double tmp;
 		for(int i = 0;i < matrix[x].length;i++){
 			tmp = matrix[x][i];
@@ -175,82 +188,252 @@ public class InkMatrix extends InkUniqueElement {
 			translation[x] = translation[y];
 			translation[y] = tmp;
 		}
-		
-		retranslation = null;
-		inverse = null;
 	}
 	
 	public void invertAxis(int axis){
+		changed();
 		for(int i = 0;i < matrix[axis].length;i++){
 			matrix[axis][i] = -matrix[axis][i];
 		}
 		if(translation != null){
 			translation[axis] = -translation[axis];
 		}
-		retranslation = null;
+	}
+
+	/**
+	 * Discards what has been derived from the matrix, after it or the translation changed.
+	 */
+	private void changed() {
+		version++;
 		inverse = null;
+		retranslation = null;
+		invertible = null;
 	}
 
+	/**
+	 * @return true if the matrix is square and its determinant is not 0. The result is cached until the matrix changes.
+	 */
 	public boolean isInvertible() {
-		MatrixCalculator m = new MatrixCalculator();
-		return matrix.length == matrix[0].length && m.Determinant(matrix) != 0; 
+		if(invertible == null){
+			MatrixCalculator m = new MatrixCalculator();
+			invertible = matrix.length == matrix[0].length && m.Determinant(matrix) != 0;
+		}
+		return invertible;
+	}
+
+	/**
+	 * The condition number tells how accurate the back transformation is: about log10 of it
+	 * decimal digits are lost. Matrices with a large condition number should rather be given
+	 * with an explicit backward mapping.
+	 * @return the condition number of the matrix, infinite if it is not invertible
+	 */
+	public double getConditionNumber() {
+		if(!isInvertible()){
+			return Double.POSITIVE_INFINITY;
+		}
+		return new MatrixCalculator().ConditionNumber(matrix);
 	}
 
     /**
-     * acctually performs the transformation
-     * @param operand
-     * @param product
+     * acctually performs the transformation.
+     * Matrices with two rows and columns are transformed in one pass over the points, others channel by channel,
+     * see {@link #transformChannel(double[][], int[], double[], double[], double[], int, double[], int)}.
+     * If a product channel is also an operand channel, the points are transformed one after the other.
+     * @param operand operand[channel][point]
+     * @param product product[channel][point]
      * @param sourceIndices
      * @param targetIndices
      * @param matrix
      */
     private void acutalTransform(double[][] operand, double[][] product,
             int[] oI, int[] pI,double[] productTranslation, double[] operandTranslation, double[][] matrix) {
+        int length = (oI.length > 0) ? operand[oI[0]].length : product[pI[0]].length;
+        if(matrix.length == 2 && matrix[0].length == 2 && matrix[1].length == 2){
+            transform2D(operand, product, oI, pI, productTranslation, operandTranslation, matrix, length);
+            return;
+        }
+        for(int y = 0;y<matrix.length;y++){
+            for(int x = 0;x<matrix[0].length;x++){
+                if(product[pI[y]] == operand[oI[x]]){
+                    transformPointwise(operand, product, oI, pI, productTranslation, operandTranslation, matrix, length);
+                    return;
+                }
+            }
+        }
+        for(int y = 0;y<matrix.length;y++){ //iterate over all elements of product vectors
+            transformChannel(operand, oI, operandTranslation, matrix[y], productTranslation, y, product[pI[y]], length);
+        }
+    }
+
+    /**
+     * Computes one channel of the product for all points, by adding up the weighted operand channels one after the other.
+     * The loops are simple enough to be vectorized by the JIT compiler. The sums are computed in the same order as
+     * they are for single points, hence the results do not differ.
+     * @param operand operand[channel][point]
+     * @param oI indices of the operand channels
+     * @param operandTranslation added to the operand channels before they are weighted, may be null
+     * @param weights weights of the operand channels, one row of the matrix
+     * @param productTranslation added to the product channel, may be null
+     * @param y index of the product channel in the productTranslation
+     * @param product the product channel, receives the result
+     * @param length number of points
+     */
+    static void transformChannel(double[][] operand, int[] oI, double[] operandTranslation,
+            double[] weights, double[] productTranslation, int y, double[] product, int length) {
+        for(int i = 0;i<length;i++){
+            product[i] = 0;
+        }
+        for(int x = 0;x<weights.length;x++){
+            double[] column = operand[oI[x]];
+            double w = weights[x];
+            if(operandTranslation != null){
+                double t = operandTranslation[x];
+                for(int i = 0;i<length;i++){
+                    product[i] += (column[i] + t) * w;
+                }
+            }else{
+                for(int i = 0;i<length;i++){
+                    product[i] += column[i] * w;
+                }
+            }
+        }
+        if(productTranslation != null){
+            double t = productTranslation[y];
+            for(int i = 0;i<length;i++){
+                product[i] += t;
+            }
+        }
+    }
+
+    /**
+     * Transforms points of two channels, which is the common case of X and Y.
+     * Each point is read before it is written, so product and operand channels may be the same.
+     */
+    private static void transform2D(double[][] operand, double[][] product,
+            int[] oI, int[] pI,double[] productTranslation, double[] operandTranslation, double[][] matrix, int length) {
+        double[] o0 = operand[oI[0]], o1 = operand[oI[1]];
+        double[] p0 = product[pI[0]], p1 = product[pI[1]];
+        double m00 = matrix[0][0], m01 = matrix[0][1], m10 = matrix[1][0], m11 = matrix[1][1];
+        double ot0 = 0, ot1 = 0;
+        if(operandTranslation != null){
+            ot0 = operandTranslation[0];
+            ot1 = operandTranslation[1];
+        }
+        boolean translated = productTranslation != null;
+        double pt0 = translated ? productTranslation[0] : 0;
+        double pt1 = translated ? productTranslation[1] : 0;
+        for(int i = 0;i<length;i++){
+            double a = o0[i], b = o1[i];
+            if(operandTranslation != null){
+                a += ot0;
+                b += ot1;
+            }
+            double v0 = 0, v1 = 0;
+            v0 += a * m00;
+            v0 += b * m01;
+            v1 += a * m10;
+            v1 += b * m11;
+            if(translated){
+                v0 += pt0;
+                v1 += pt1;
+            }
+            p0[i] = v0;
+            p1[i] = v1;
+        }
+    }
+
+    /**
+     * Transforms the points one after the other.
+     */
+    private static void transformPointwise(double[][] operand, double[][] product,
+            int[] oI, int[] pI,double[] productTranslation, double[] operandTranslation, double[][] matrix, int length) {
     	double[] opv = new double[matrix[0].length];
-        for(int i = 0;i<operand.length;i++){//iterate over all vectors
+        for(int i = 0;i<length;i++){//iterate over all vectors
         	for(int x = 0;x<matrix[0].length;x++){// iterate over all elements of operand vextor;
-                opv[x] = operand[i][oI[x]];
+                opv[x] = operand[oI[x]][i];
                 if(operandTranslation != null){
                 	opv[x] += operandTranslation[x];
                 }
             }
             for(int y = 0;y<matrix.length;y++){ //iterate over all elements of product vectors
-                product[i][pI[y]] = 0;
+                double value = 0;
                 for(int x = 0;x<matrix[y].length;x++){// iterate over all elements of operand vextor;
-                    product[i][pI[y]] += opv[x] * matrix[y][x]; 
+                    value += opv[x] * matrix[y][x]; 
                 }
                 if(productTranslation!= null){
-                	product[i][pI[y]] += productTranslation[y];
+                	value += productTranslation[y];
                 }
+                product[pI[y]][i] = value;
             }
         }
     }
 
     /**
      * Mulitplies the sourcePoints with the matrix, result is stored in the targetPoints matrix.
+     * Both are stored column by column, one array per channel.
      * sourceIndices and targetIndices specify the correct ordering/filtering of the columns of the sourcePoint matrix
      * or the targetPoint matrix
-     * @param sourcePoints
-     * @param targetPoints
+     * @param sourcePoints sourcePoints[channel][point]
+     * @param targetPoints targetPoints[channel][point]
      * @param sourceIndices
      * @param targetIndices
      */
-    public void transform(double[][] sourcePoints, double[][] targetPoints,
+    public void transformColumns(double[][] sourcePoints, double[][] targetPoints,
             int[] sourceIndices, int[] targetIndices) {
         acutalTransform(sourcePoints, targetPoints, sourceIndices, targetIndices,translation, null, matrix);
     }
 
     /**
-     * @param sourcePoints
-     * @param targetPoints
+     * Multiplies the targetPoints with the inverse matrix, result is stored in the sourcePoints matrix.
+     * Both are stored column by column, as for {@link #transformColumns(double[][], double[][], int[], int[])}.
+     * @param sourcePoints sourcePoints[channel][point]
+     * @param targetPoints targetPoints[channel][point]
      * @param sourceIndices
      * @param targetIndices
      */
-    public void backtransform(double[][] sourcePoints, double[][] targetPoints,
+    public void backTransformColumns(double[][] sourcePoints, double[][] targetPoints,
             int[] sourceIndices, int[] targetIndices) {
     	double [][] inverse = getInverse();
     	acutalTransform(targetPoints, sourcePoints, targetIndices, sourceIndices, null, retranslation, inverse);
-        
+    }
+
+    /**
+     * Mulitplies the sourcePoints with the matrix, result is stored in the targetPoints matrix.
+     * sourceIndices and targetIndices specify the correct ordering/filtering of the columns of the sourcePoint matrix
+     * or the targetPoint matrix
+     * @param sourcePoints sourcePoints[point][channel]
+     * @param targetPoints targetPoints[point][channel]
+     * @param sourceIndices
+     * @param targetIndices
+     * @deprecated the points are copied column by column, use {@link #transformColumns(double[][], double[][], int[], int[])}
+     */
+    @Deprecated
+    public void transform(double[][] sourcePoints, double[][] targetPoints,
+            int[] sourceIndices, int[] targetIndices) {
+        if(sourcePoints.length == 0 || targetPoints.length == 0){
+            return;
+        }
+        double[][] columns = InkMapping.toColumns(targetPoints, targetPoints[0].length);
+        transformColumns(InkMapping.toColumns(sourcePoints, sourcePoints[0].length), columns, sourceIndices, targetIndices);
+        InkMapping.toRows(columns, targetPoints);
+    }
+
+    /**
+     * @param sourcePoints sourcePoints[point][channel]
+     * @param targetPoints targetPoints[point][channel]
+     * @param sourceIndices
+     * @param targetIndices
+     * @deprecated the points are copied column by column, use {@link #backTransformColumns(double[][], double[][], int[], int[])}
+     */
+    @Deprecated
+    public void backtransform(double[][] sourcePoints, double[][] targetPoints,
+            int[] sourceIndices, int[] targetIndices) {
+        if(sourcePoints.length == 0 || targetPoints.length == 0){
+            return;
+        }
+        double[][] columns = InkMapping.toColumns(sourcePoints, sourcePoints[0].length);
+        backTransformColumns(columns, InkMapping.toColumns(targetPoints, targetPoints[0].length), sourceIndices, targetIndices);
+        InkMapping.toRows(columns, sourcePoints);
     }
     
     public InkMatrix clone(InkInk ink){
@@ -263,10 +446,18 @@ public class InkMatrix extends InkUniqueElement {
             im.translation = translation.clone();
         if(retranslation!=null)
             im.retranslation = retranslation.clone();
+        im.invertible = invertible;
         return im;
     }
 
 	public double[] getTranslation() {
 		return translation;
 	}
+
+	/**
+	 * @return number of changes of the matrix or the translation so far
+	 */
+	int getVersion() {
+		return version;
+	}
 }
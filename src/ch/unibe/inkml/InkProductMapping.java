@@ -40,6 +40,13 @@ public class InkProductMapping extends InkMapping {
 			m.exportToInkML(mappingNode);
 		}
 	}
+	/**
+	 * @return the mappings, in the order they are applied
+	 */
+	List<InkMapping> getMappings() {
+		return mappings;
+	}
+
 	@Override
 	public boolean isInvertible() {
 		for(InkMapping m : mappings){
@@ -51,20 +58,20 @@ public class InkProductMapping extends InkMapping {
 	}
 
     @Override
-    public void backTransform(double[][] sourcePoints, double[][] points,
+    public void backTransformColumns(double[][] sourcePoints, double[][] points,
             InkTraceFormat canvasFormat, InkTraceFormat sourceFormat)
             throws InkMLComplianceException {
         for(InkMapping m : mappings){
-            m.backTransform(sourcePoints, points, canvasFormat, sourceFormat);
+            m.backTransformColumns(sourcePoints, points, canvasFormat, sourceFormat);
         }
     }
 
     @Override
-    public void transform(double[][] sourcePoints, double[][] points,
+    public void transformColumns(double[][] sourcePoints, double[][] points,
             InkTraceFormat sourceFormat, InkTraceFormat targetFormat)
             throws InkMLComplianceException {
         for(InkMapping m : mappings){
-            m.transform(sourcePoints, points, sourceFormat, targetFormat);
+            m.transformColumns(sourcePoints, points, sourceFormat, targetFormat);
         }
     }
 
@@ -0,0 +1,100 @@
+package ch.unibe.inkml;
+
+import org.w3c.dom.Element;
+
+/**
+ * Receives the content of an InkML document read by {@link InkStreamParser}, in document order.
+ *
+ * In contrast to {@link InkStreamLoader} no traces or trace views are built. The points of each trace
+ * are decoded into arrays of primitive values, which are handed to {@link #trace(Element, InkContext, InkTraceFormat, double[][], int)}.
+ * Elements which are not decoded are handed over as detached XML elements, containing the attributes and
+ * annotations of the element.
+ *
+ * All methods do nothing by default, so only the ones of interest have to be overridden.
+ *
+ * @author emanuel
+ */
+public abstract class InkStreamHandler {
+
+    private boolean stopped;
+
+    /**
+     * Called after the ink element has been read.
+     * The document contains the attributes and the annotations of the ink element, and,
+     * as they are read, the definitions and the contexts. It never contains any traces or trace views.
+     * @param ink the document
+     */
+    public void startDocument(InkInk ink) {
+    }
+
+    /**
+     * Called when a <code>context</code> element changes the current context of the document.
+     * @param context the new current context
+     */
+    public void contextChanged(InkContext context) {
+    }
+
+    /**
+     * Called when a <code>traceGroup</code> element is opened. This may be a trace group as well as a
+     * container of trace views, InkML uses the same element for both.
+     * @param header detached element containing the attributes of the group
+     */
+    public void startTraceGroup(Element header) {
+    }
+
+    /**
+     * Called for each annotation contained by the innermost open <code>traceGroup</code> element.
+     * @param annotation detached <code>annotation</code> or <code>annotationXML</code> element
+     */
+    public void annotation(Element annotation) {
+    }
+
+    /**
+     * Called when the innermost open <code>traceGroup</code> element is closed.
+     */
+    public void endTraceGroup() {
+    }
+
+    /**
+     * Called for each trace, after its data has been decoded.
+     * The arrays are reused for the following traces, so they are only valid during this call.
+     * They may be longer than the number of points. Values of intermittent channels which are not
+     * specified by the trace data are NaN.
+     * @param header detached element containing the attributes and the annotations of the trace
+     * @param context the context which applies to the trace, which is the one referenced by the trace,
+     *      the one of the enclosing trace group or the current context of the document
+     * @param sourceFormat the trace format of the context, by which the trace data has been decoded
+     * @param channels one array for each channel of the source format, in the order of {@link InkTraceFormat#getIndex()}
+     * @param length number of points
+     */
+    public void trace(Element header, InkContext context, InkTraceFormat sourceFormat, double[][] channels, int length) {
+    }
+
+    /**
+     * Called for each <code>traceView</code> element.
+     * @param traceView detached <code>traceView</code> element
+     */
+    public void traceView(Element traceView) {
+    }
+
+    /**
+     * Called after the end of the ink element has been read, unless parsing has been stopped.
+     */
+    public void endDocument() {
+    }
+
+    /**
+     * Stops parsing as soon as the current call returns. No further methods will be called.
+     */
+    protected void stop() {
+        stopped = true;
+    }
+
+    boolean isStopped() {
+        return stopped;
+    }
+
+    void reset() {
+        stopped = false;
+    }
+}
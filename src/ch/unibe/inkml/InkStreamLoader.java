@@ -0,0 +1,633 @@
+package ch.unibe.inkml;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import ch.unibe.eindermu.utils.CompressionUtil;
+import ch.unibe.inkml.util.PointStore;
+import ch.unibe.inkml.util.TraceDataTokenizer;
+import ch.unibe.inkml.util.TraceViewTreeManipulationException;
+
+/**
+ * Loads an InkML document from a stream of StAX events, without building
+ * a DOM tree of the whole document.
+ *
+ * Traces, trace groups and the trace view tree are built directly from the events.
+ * Small elements such as <code>definitions</code>, <code>context</code> or <code>annotation</code>
+ * are read into a detached XML element, which is handed to the corresponding
+ * <code>buildFromXMLNode</code> method. Like this the same compliance checks
+ * apply as when the document is loaded by {@link InkInk#loadFromXMLDocument(Document)}.
+ *
+ * Since InkML uses the <code>traceGroup</code> element for trace groups as well as for
+ * trace view containers, the type of a top level <code>traceGroup</code> is
+ * decided by the first <code>trace</code> or <code>traceView</code> element it contains.
+ * Until then the group and its annotations are kept pending.
+ *
+ * @author emanuel
+ */
+public class InkStreamLoader extends AbstractInkStreamReader {
+
+    /**
+     * Specifies when the points of the traces are decoded.
+     */
+    public enum PointDecoding {
+        /**
+         * The points are decoded while loading.
+         */
+        EAGER,
+        /**
+         * The trace data is kept as text and decoded when the points, the bounds or the time span
+         * of a trace are accessed for the first time.
+         */
+        LAZY,
+        /**
+         * Like {@link #LAZY}, but the bounds, the time span and the center of gravity are calculated
+         * while loading, so they can be accessed without keeping the points in memory.
+         */
+        LAZY_WITH_BOUNDS
+    }
+
+    private enum Kind {UNDECIDED, TRACE_GROUP, VIEW_GROUP, TRACE}
+
+    /**
+     * An element of the trace tree or the trace view tree, which is currently open.
+     */
+    private class Frame {
+        Kind kind;
+        Frame parent;
+        /**
+         * Detached XML element containing the attributes and the annotations of the element.
+         */
+        Element header;
+        /**
+         * The element built from this frame, null until it is materialized.
+         */
+        InkTraceLike<?> element;
+        /**
+         * Closed child groups whose kind has not been decided at the time they were closed.
+         */
+        List<Frame> pending = new ArrayList<Frame>();
+
+        Frame(Kind kind, Frame parent, Element header){
+            this.kind = kind;
+            this.parent = parent;
+            this.header = header;
+        }
+    }
+
+    private InkInk ink;
+
+    /**
+     * The innermost open frame
+     */
+    private Frame top;
+
+    /**
+     * Collects the trace data of the trace which is currently read.
+     * The buffer is reused for all traces of the document.
+     */
+    private char[] traceData = new char[1024];
+
+    private int traceDataLength = 0;
+
+    /**
+     * Trace data of the trace which is currently read, if it is located in the mapped file.
+     */
+    private TraceDataTokenizer mappedTraceData;
+
+    private PointDecoding pointDecoding = PointDecoding.EAGER;
+
+    private int parallelism = 1;
+
+    /**
+     * Pool decoding the traces, created by the first load which decodes them concurrently.
+     * Null if they are decoded by the loading thread.
+     */
+    private ForkJoinPool pool;
+
+    /**
+     * Decoding tasks of the traces read so far, in document order.
+     */
+    private List<Future<Void>> decoding = new ArrayList<Future<Void>>();
+
+    /**
+     * Traces decoded by the pool, which have been added to the document, but are only selected by
+     * {@link #awaitDecoding()} once their points are available.
+     */
+    private List<InkTraceLeaf> selecting = new ArrayList<InkTraceLeaf>();
+
+    /**
+     * Selects the loaded traces, null to load all traces.
+     */
+    private InkLoadOptions options;
+
+    /**
+     * Ids of the traces which have been skipped according to the options.
+     */
+    private Set<String> skippedIds = new HashSet<String>();
+
+    private boolean singlePrecision = false;
+
+    private PointStore pointStore;
+
+    private boolean keepTraceData = false;
+
+    /**
+     * Sets when the points of the loaded traces are decoded. The default is {@link PointDecoding#EAGER}.
+     * With {@link PointDecoding#LAZY}, compliance errors in the trace data are not detected while loading.
+     * @param pointDecoding
+     */
+    public void setPointDecoding(PointDecoding pointDecoding) {
+        this.pointDecoding = pointDecoding;
+    }
+
+    public PointDecoding getPointDecoding() {
+        return pointDecoding;
+    }
+
+    /**
+     * Sets the number of threads decoding the traces, if they are decoded eagerly.
+     * With more than one thread, the contexts of the traces are resolved in document order
+     * by the loading thread, while their points are decoded and transformed concurrently by a {@link ForkJoinPool}.
+     * If the trace data of several traces is not compliant, the error of the first one in document order is reported.
+     * The threads are started by the first load and kept for the following ones, until {@link #close()} is called
+     * or the parallelism is changed.
+     * @param parallelism number of threads, 1 or less to decode the traces by the loading thread (default).
+     */
+    public void setParallelism(int parallelism) {
+        parallelism = Math.max(parallelism, 1);
+        if(parallelism != this.parallelism){
+            close();
+            this.parallelism = parallelism;
+        }
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Stops the threads decoding the traces. The loader can still be used, the next load
+     * which decodes the traces concurrently starts new threads.
+     */
+    public void close() {
+        if(pool != null){
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    /**
+     * Sets the options selecting the traces to be loaded. By default all traces are loaded.
+     * If the options select traces by their time span or their bounds, the traces are decoded while loading,
+     * except those skipped because their first point is later than the time span.
+     * With eager point decoding the points of the selected traces are kept, and the traces are decoded by 
+     * as many threads as set by {@link #setParallelism(int)}. With lazy point decoding the points are 
+     * discarded after the bounds and the time span of the traces have been calculated.
+     * @param options the options, or null to load all traces
+     */
+    public void setLoadOptions(InkLoadOptions options) {
+        this.options = options;
+    }
+
+    public InkLoadOptions getLoadOptions() {
+        return options;
+    }
+
+    /**
+     * Specifies whether the decimal channels of the loaded traces are stored with single precision,
+     * see {@link InkInk#setSinglePrecision(boolean)}. The default is false.
+     * @param singlePrecision
+     */
+    public void setSinglePrecision(boolean singlePrecision) {
+        this.singlePrecision = singlePrecision;
+    }
+
+    public boolean isSinglePrecision() {
+        return singlePrecision;
+    }
+
+    /**
+     * Specifies where the points of the loaded traces are stored, see {@link InkInk#setPointStore(PointStore)}.
+     * The same store may be used for several documents. By default the points are stored on the heap.
+     * @param pointStore the store, or null to store the points on the heap
+     */
+    public void setPointStore(PointStore pointStore) {
+        this.pointStore = pointStore;
+    }
+
+    public PointStore getPointStore() {
+        return pointStore;
+    }
+
+    /**
+     * Specifies whether the loaded traces keep a copy of their trace data to save it unchanged,
+     * see {@link InkInk#setKeepTraceData(boolean)}. The default is false.
+     * @param keepTraceData
+     */
+    public void setKeepTraceData(boolean keepTraceData) {
+        this.keepTraceData = keepTraceData;
+    }
+
+    public boolean isKeepTraceData() {
+        return keepTraceData;
+    }
+
+    /**
+     * Loads the InkML document stored in the file, by mapping it into memory.
+     * The trace data is decoded directly from the mapped file, without being processed by the XML parser.
+     * A gzip compressed file is not mapped but decompressed while it is read, and a file
+     * larger than 2 GB is not mapped but read as a stream.
+     * Traces keep a copy of the data they need, so the file is not referred to after loading, and may be overwritten.
+     * @param file file containing the InkML document
+     * @return the new document
+     * @throws IOException if the file can not be read or does not contain well-formed XML
+     * @throws InkMLComplianceException if the document is not compliant to InkML
+     */
+    public InkInk load(File file) throws IOException, InkMLComplianceException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            return load(map(file, in));
+        } finally {
+            mapped = null;
+            in.close();
+        }
+    }
+
+    /**
+     * Loads the InkML document contained by the stream, which is decompressed if it is gzip compressed.
+     * The stream will be closed afterwards.
+     * @param stream stream containing the InkML document
+     * @return the new document
+     * @throws IOException if the stream can not be read or does not contain well-formed XML
+     * @throws InkMLComplianceException if the document is not compliant to InkML
+     */
+    public InkInk load(InputStream stream) throws IOException, InkMLComplianceException {
+        try {
+            scratch = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+            if(mapped == null){
+                stream = CompressionUtil.decompress(stream);
+            }
+            reader = factory.createXMLStreamReader(stream);
+            try{
+                while(reader.hasNext() && reader.next() != XMLStreamConstants.START_ELEMENT);
+                if(!reader.isStartElement() || !getName().equals(InkInk.INKML_NAME)){
+                    throw new InkMLComplianceException("XML tree do not contain 'ink' root element");
+                }
+                if(pool == null && parallelism > 1 && pointDecoding == PointDecoding.EAGER){
+                    pool = new ForkJoinPool(parallelism);
+                }
+                ink = new InkInk();
+                skippedIds.clear();
+                ink.setSinglePrecision(singlePrecision);
+                ink.setPointStore(pointStore);
+                ink.setKeepTraceData(keepTraceData);
+                ink.buildFromXMLNode(readHeader());
+                try{
+                    readInkContent();
+                }finally{
+                    //errors of traces preceding the current position are reported first
+                    awaitDecoding();
+                }
+                return ink;
+            }finally{
+                reader.close();
+            }
+        } catch(XMLStreamException e) {
+            throw new IOException(e.getMessage(), e);
+        } catch(ParserConfigurationException e) {
+            throw new IOException(e.getMessage(), e);
+        } finally {
+            stream.close();
+            reader = null;
+            scratch = null;
+            top = null;
+            ink = null;
+        }
+    }
+
+    /**
+     * Reads the content of the ink element until its end tag.
+     */
+    private void readInkContent() throws XMLStreamException, IOException, InkMLComplianceException {
+        while(reader.hasNext()){
+            switch(reader.next()){
+            case XMLStreamConstants.START_ELEMENT:
+                startElement(getName());
+                break;
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.CDATA:
+            case XMLStreamConstants.SPACE:
+                if(top != null && top.kind == Kind.TRACE){
+                    appendTraceData(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                }
+                break;
+            case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                if(top != null && top.kind == Kind.TRACE && isMappedTraceData()){
+                    mappedTraceData = new TraceDataTokenizer(mapped, getMappedOffset(), getMappedLength());
+                }
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                if(top == null){
+                    return; //end of ink
+                }
+                endElement();
+                break;
+            }
+        }
+    }
+
+    private void startElement(String n) throws XMLStreamException, IOException, InkMLComplianceException {
+        if(top == null){
+            if(n.equals(InkTraceLeaf.INKML_NAME)){
+                startTrace();
+            }else if(n.equals(InkTraceViewContainer.INKML_NAME)){
+                top = new Frame(Kind.UNDECIDED, null, readHeader());
+            }else if(isAnnotation(n)){
+                ink.loadAnnotation(readFragment());
+            }else if(n.equals(InkDefinitions.INKML_NAME) || n.equals("definition")
+                    || n.equals(InkContext.INKML_NAME) || n.equals(InkTraceViewLeaf.INKML_NAME)){
+                awaitDecoding();
+                Element fragment = readFragment();
+                if(!isSkipped(fragment)){
+                    ink.stepNode(fragment);
+                }
+            }else{
+                skipElement();
+            }
+        }else if(isAnnotation(n)){
+            Element annotation = readFragment();
+            if(top.element == null){
+                top.header.appendChild(annotation);
+            }else{
+                top.element.loadAnnotation(annotation);
+            }
+        }else if(top.kind == Kind.TRACE){
+            skipElement();
+        }else if(n.equals(InkTraceLeaf.INKML_NAME)){
+            decide(Kind.TRACE_GROUP);
+            materialize(top);
+            startTrace();
+        }else if(n.equals(InkTraceViewLeaf.INKML_NAME)){
+            awaitDecoding();
+            decide(Kind.VIEW_GROUP);
+            materialize(top);
+            InkTraceViewContainer container = (InkTraceViewContainer) top.element;
+            Element view = readFragment();
+            if(!isSkipped(view)){
+                addView(container, InkTraceView.createTraceView(ink, container, view));
+            }
+        }else if(n.equals(InkTraceViewContainer.INKML_NAME)){
+            if(top.kind != Kind.UNDECIDED){
+                materialize(top);
+            }
+            top = new Frame(top.kind, top, readHeader());
+        }else{
+            skipElement();
+        }
+    }
+
+    private void endElement() throws InkMLComplianceException {
+        Frame frame = top;
+        top = frame.parent;
+        if(frame.kind == Kind.UNDECIDED){
+            if(frame.parent != null){
+                //wait for the parent to be decided
+                frame.parent.pending.add(frame);
+                return;
+            }
+            //a trace group containing neither traces nor trace views
+            decide(frame, Kind.TRACE_GROUP);
+        }
+        finish(frame);
+    }
+
+    private void startTrace() throws XMLStreamException {
+        Element header = readHeader();
+        if(options != null && !options.accepts(header)){
+            if(header.hasAttribute(InkUniqueElement.INKML_ATTR_ID)){
+                skippedIds.add(header.getAttribute(InkUniqueElement.INKML_ATTR_ID));
+            }
+            skipElement();
+            return;
+        }
+        top = new Frame(Kind.TRACE, top, header);
+        traceDataLength = 0;
+        mappedTraceData = null;
+    }
+
+    /**
+     * @return true if the element is a trace view referring to a trace which has been skipped
+     * according to the load options.
+     */
+    private boolean isSkipped(Element element) {
+        if(options == null || !element.getNodeName().equals(InkTraceViewLeaf.INKML_NAME)
+                || !element.hasAttribute(InkTraceViewLeaf.INKML_ATTR_TRACEDATA_REF)){
+            return false;
+        }
+        return skippedIds.contains(element.getAttribute(InkTraceViewLeaf.INKML_ATTR_TRACEDATA_REF).replace("#", ""));
+    }
+
+    private void appendTraceData(char[] text, int start, int length) {
+        if(traceDataLength + length > traceData.length){
+            traceData = Arrays.copyOf(traceData, Math.max(traceData.length * 2, traceDataLength + length));
+        }
+        System.arraycopy(text, start, traceData, traceDataLength, length);
+        traceDataLength += length;
+    }
+
+    /**
+     * Sets the kind of the top level group, and all its open descendants.
+     * @param kind TRACE_GROUP or VIEW_GROUP
+     * @throws InkMLComplianceException if the group has already been decided to be of the other kind.
+     */
+    private void decide(Kind kind) throws InkMLComplianceException {
+        if(top.kind == kind){
+            return;
+        }
+        Frame root = top;
+        while(root.parent != null){
+            root = root.parent;
+        }
+        if(root.kind != Kind.UNDECIDED && root.kind != kind){
+            throw new InkMLComplianceException("libinkml does not support traces and traceViews been mixed within a traceGroup");
+        }
+        for(Frame f = top; f != null; f = f.parent){
+            decide(f, kind);
+        }
+    }
+
+    private void decide(Frame frame, Kind kind) {
+        frame.kind = kind;
+        for(Frame child : frame.pending){
+            decide(child, kind);
+        }
+    }
+
+    /**
+     * Creates the trace group or trace view container represented by the frame, and
+     * finishes its pending children.
+     */
+    private void materialize(Frame frame) throws InkMLComplianceException {
+        if(frame.element != null){
+            return;
+        }
+        if(frame.parent != null){
+            materialize(frame.parent);
+        }
+        if(frame.kind == Kind.TRACE_GROUP){
+            InkTraceGroup group = new InkTraceGroup(ink, (frame.parent == null) ? null : (InkTraceGroup) frame.parent.element);
+            group.buildFromXMLNode(frame.header);
+            frame.element = group;
+        }else{
+            InkTraceViewContainer container = new InkTraceViewContainer(ink, (frame.parent == null) ? null : (InkTraceViewContainer) frame.parent.element);
+            container.buildFromXMLNode(frame.header);
+            frame.element = container;
+        }
+        frame.header = null;
+        for(Frame child : frame.pending){
+            finish(child);
+        }
+        frame.pending.clear();
+    }
+
+    /**
+     * Adds the element represented by a closed frame to its parent.
+     */
+    private void finish(Frame frame) throws InkMLComplianceException {
+        if(frame.kind == Kind.TRACE){
+            InkTraceGroup parent = (frame.parent == null) ? null : (InkTraceGroup) frame.parent.element;
+            InkTraceLeaf trace = new InkTraceLeaf(ink, parent);
+            trace.loadAttributes(frame.header);
+            boolean select = options != null && options.needsPoints();
+            boolean concurrent = pool != null && pointDecoding == PointDecoding.EAGER;
+            TraceDataTokenizer data = mappedTraceData;
+            if(data == null){
+                //the trace copies what it keeps of the data, so the buffer can be reused
+                data = new TraceDataTokenizer(traceData, 0, traceDataLength);
+            }
+            if(select && !options.acceptsStart(trace, data)){
+                traceDataLength = 0;
+                mappedTraceData = null;
+                skip(trace);
+                return;
+            }
+            if(concurrent){
+                trace.deferPoints(data, false);
+                FutureTask<Void> task = new FutureTask<Void>(trace.createDecodingTask());
+                pool.execute(task);
+                decoding.add(task);
+            }else if(pointDecoding == PointDecoding.EAGER){
+                trace.loadPoints(data);
+            }else{
+                trace.deferPoints(data, select || pointDecoding == PointDecoding.LAZY_WITH_BOUNDS);
+            }
+            traceDataLength = 0;
+            mappedTraceData = null;
+            if(select && concurrent){
+                //added in document order, but removed again by awaitDecoding if it is not selected
+                selecting.add(trace);
+            }else if(select && !options.accepts(trace)){
+                skip(trace);
+                return;
+            }
+            if(parent == null){
+                ink.addTrace(trace);
+            }else{
+                parent.addTrace(trace);
+            }
+            return;
+        }
+        materialize(frame);
+        if(frame.kind == Kind.TRACE_GROUP){
+            if(frame.parent == null){
+                ink.addTrace((InkTraceGroup) frame.element);
+            }else{
+                ((InkTraceGroup) frame.parent.element).addTrace((InkTraceGroup) frame.element);
+            }
+        }else{
+            if(frame.parent == null){
+                ink.addView((InkTraceView) frame.element);
+            }else{
+                addView((InkTraceViewContainer) frame.parent.element, (InkTraceView) frame.element);
+            }
+        }
+    }
+
+    /**
+     * Forgets a trace which is not selected according to the options.
+     */
+    private void skip(InkTraceLeaf trace) {
+        if(trace.hasId()){
+            ink.getDefinitions().remove(trace.getId());
+            skippedIds.add(trace.getId());
+        }
+    }
+
+    /**
+     * Waits until the traces read so far have been decoded, and removes those which are not selected.
+     * @throws InkMLComplianceException the error of the first trace in document order whose data is not compliant
+     * @throws InterruptedIOException if the thread is interrupted while waiting
+     */
+    private void awaitDecoding() throws IOException, InkMLComplianceException {
+        try {
+            for(Future<Void> task : decoding){
+                task.get();
+            }
+            List<InkTraceLeaf> rejected = new ArrayList<InkTraceLeaf>();
+            for(InkTraceLeaf trace : selecting){
+                if(!options.accepts(trace)){
+                    rejected.add(trace);
+                    if(trace.hasId()){
+                        skippedIds.add(trace.getId());
+                    }
+                }
+            }
+            ink.detachTraces(rejected);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while decoding the traces");
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof InkMLComplianceException){
+                throw (InkMLComplianceException) e.getCause();
+            }else if(e.getCause() instanceof RuntimeException){
+                throw (RuntimeException) e.getCause();
+            }
+            throw new Error(e.getCause());
+        } finally {
+            for(Future<Void> task : decoding){
+                task.cancel(false);
+            }
+            decoding.clear();
+            selecting.clear();
+        }
+    }
+
+    private void addView(InkTraceViewContainer container, InkTraceView view) throws InkMLComplianceException {
+        try {
+            container.addTrace(view);
+        } catch (TraceViewTreeManipulationException e) {
+            throw new InkMLComplianceException("There has been a ViewTreeManipulation exception, this should not happen.", e);
+        }
+    }
+}
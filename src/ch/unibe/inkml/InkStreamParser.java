@@ -0,0 +1,291 @@
+package ch.unibe.inkml;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+
+import org.w3c.dom.Element;
+
+import ch.unibe.eindermu.utils.CompressionUtil;
+import ch.unibe.inkml.util.Formatter;
+import ch.unibe.inkml.util.TraceDataTokenizer;
+
+/**
+ * Reads an InkML document from a stream of StAX events and reports its content to an {@link InkStreamHandler}.
+ *
+ * Definitions and contexts are built as done by {@link InkStreamLoader}, since they are needed to decode the traces.
+ * Traces, trace groups and trace views however are never built. The trace data is decoded into
+ * arrays of primitive values which are reused for all traces of the document, so the memory
+ * needed does not grow with the size of the document.
+ *
+ * @author emanuel
+ */
+public class InkStreamParser extends AbstractInkStreamReader {
+
+    private InkStreamHandler handler;
+
+    private InkInk ink;
+
+    /**
+     * Contexts of the open trace groups, the innermost last.
+     */
+    private List<InkContext> groups = new ArrayList<InkContext>();
+
+    /**
+     * Detached element of the trace which is currently read, null if no trace is read.
+     */
+    private Element trace;
+
+    /**
+     * Collects the trace data of the trace which is currently read.
+     * The buffer is reused for all traces of the document.
+     */
+    private char[] traceData = new char[1024];
+
+    private int traceDataLength = 0;
+
+    /**
+     * Trace data of the trace which is currently read, if it is located in the mapped file.
+     */
+    private TraceDataTokenizer mappedTraceData;
+
+    /**
+     * The decoded points, one array per channel. Reused for all traces of the document.
+     */
+    private double[][] channels = new double[0][];
+
+    /**
+     * Parses the InkML document stored in the file, by mapping it into memory.
+     * The trace data is decoded directly from the mapped file, without being processed by the XML parser.
+     * A gzip compressed file is not mapped but decompressed while it is read, and a file
+     * larger than 2 GB is not mapped but read as a stream.
+     * @param file file containing the InkML document
+     * @param handler handler receiving the content of the document
+     * @throws IOException if the file can not be read or does not contain well-formed XML
+     * @throws InkMLComplianceException if the document is not compliant to InkML
+     */
+    public void parse(File file, InkStreamHandler handler) throws IOException, InkMLComplianceException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            parse(map(file, in), handler);
+        } finally {
+            mapped = null;
+            in.close();
+        }
+    }
+
+    /**
+     * Parses the InkML document contained by the stream, which is decompressed if it is gzip compressed.
+     * The stream will be closed afterwards.
+     * @param stream stream containing the InkML document
+     * @param handler handler receiving the content of the document
+     * @throws IOException if the stream can not be read or does not contain well-formed XML
+     * @throws InkMLComplianceException if the document is not compliant to InkML
+     */
+    public void parse(InputStream stream, InkStreamHandler handler) throws IOException, InkMLComplianceException {
+        try {
+            this.handler = handler;
+            handler.reset();
+            scratch = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+            if(mapped == null){
+                stream = CompressionUtil.decompress(stream);
+            }
+            reader = factory.createXMLStreamReader(stream);
+            try{
+                while(reader.hasNext() && reader.next() != XMLStreamConstants.START_ELEMENT);
+                if(!reader.isStartElement() || !getName().equals(InkInk.INKML_NAME)){
+                    throw new InkMLComplianceException("XML tree do not contain 'ink' root element");
+                }
+                ink = new InkInk();
+                ink.buildFromXMLNode(readHeader());
+                readInkContent();
+            }finally{
+                reader.close();
+            }
+        } catch(XMLStreamException e) {
+            throw new IOException(e.getMessage(), e);
+        } catch(ParserConfigurationException e) {
+            throw new IOException(e.getMessage(), e);
+        } finally {
+            stream.close();
+            reader = null;
+            scratch = null;
+            this.handler = null;
+            ink = null;
+            trace = null;
+            mappedTraceData = null;
+            groups.clear();
+        }
+    }
+
+    /**
+     * Reads the content of the ink element until its end tag, or until the handler stops parsing.
+     */
+    private void readInkContent() throws XMLStreamException, InkMLComplianceException {
+        boolean started = false;
+        while(reader.hasNext()){
+            int event = reader.next();
+            if(!started && (event == XMLStreamConstants.END_ELEMENT || (event == XMLStreamConstants.START_ELEMENT && !isInkAnnotation()))){
+                //the annotations of the ink element are part of the document handed to the handler
+                handler.startDocument(ink);
+                started = true;
+                if(handler.isStopped()){
+                    return;
+                }
+            }
+            switch(event){
+            case XMLStreamConstants.START_ELEMENT:
+                startElement(getName());
+                break;
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.CDATA:
+            case XMLStreamConstants.SPACE:
+                if(trace != null){
+                    appendTraceData(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                }
+                break;
+            case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                if(trace != null && isMappedTraceData()){
+                    mappedTraceData = new TraceDataTokenizer(mapped, getMappedOffset(), getMappedLength());
+                }
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                if(trace != null){
+                    endTrace();
+                }else if(!groups.isEmpty()){
+                    groups.remove(groups.size() - 1);
+                    handler.endTraceGroup();
+                }else{
+                    handler.endDocument();
+                    return;
+                }
+                break;
+            }
+            if(handler.isStopped()){
+                return;
+            }
+        }
+    }
+
+    private boolean isInkAnnotation() {
+        return trace == null && groups.isEmpty() && isAnnotation(getName());
+    }
+
+    private void startElement(String n) throws XMLStreamException, InkMLComplianceException {
+        if(trace != null){
+            if(isAnnotation(n)){
+                trace.appendChild(readFragment());
+            }else{
+                skipElement();
+            }
+        }else if(n.equals(InkTraceLeaf.INKML_NAME)){
+            trace = readHeader();
+            traceDataLength = 0;
+            mappedTraceData = null;
+        }else if(n.equals(InkTraceViewContainer.INKML_NAME)){
+            Element header = readHeader();
+            groups.add(resolveContext(header));
+            handler.startTraceGroup(header);
+        }else if(n.equals(InkTraceViewLeaf.INKML_NAME)){
+            handler.traceView(readFragment());
+        }else if(isAnnotation(n)){
+            if(groups.isEmpty()){
+                ink.loadAnnotation(readFragment());
+            }else{
+                handler.annotation(readFragment());
+            }
+        }else if(groups.isEmpty() && (n.equals(InkDefinitions.INKML_NAME) || n.equals("definition"))){
+            ink.stepNode(readFragment());
+        }else if(groups.isEmpty() && n.equals(InkContext.INKML_NAME)){
+            ink.stepNode(readFragment());
+            handler.contextChanged(ink.getCurrentContext());
+        }else{
+            skipElement();
+        }
+    }
+
+    private void appendTraceData(char[] text, int start, int length) {
+        if(traceDataLength + length > traceData.length){
+            traceData = Arrays.copyOf(traceData, Math.max(traceData.length * 2, traceDataLength + length));
+        }
+        System.arraycopy(text, start, traceData, traceDataLength, length);
+        traceDataLength += length;
+    }
+
+    /**
+     * Decodes the trace which has been read, and hands it to the handler.
+     */
+    private void endTrace() throws InkMLComplianceException {
+        TraceDataTokenizer data = mappedTraceData;
+        if(data == null){
+            data = new TraceDataTokenizer(traceData, 0, traceDataLength);
+        }
+        InkContext context = resolveContext(trace);
+        InkTraceFormat sourceFormat = context.getSourceFormat();
+        int length = decode(data, sourceFormat);
+        Element header = trace;
+        trace = null;
+        mappedTraceData = null;
+        handler.trace(header, context, sourceFormat, channels, length);
+    }
+
+    /**
+     * Returns the context applying to a trace or trace group, as done by {@link InkTraceLike#getContext()}.
+     */
+    private InkContext resolveContext(Element header) {
+        if(header.hasAttribute("contextRef")){
+            return (InkContext) ink.getDefinitions().get(header.getAttribute("contextRef").replace("#", ""));
+        }else if(!groups.isEmpty()){
+            return groups.get(groups.size() - 1);
+        }
+        return ink.getCurrentContext();
+    }
+
+    /**
+     * Decodes the trace data into {@link #channels}, as done by {@link InkTraceLeaf#loadPoints(TraceDataTokenizer)}.
+     * @return number of points
+     */
+    private int decode(TraceDataTokenizer tokenizer, InkTraceFormat sourceFormat) throws InkMLComplianceException {
+        int length = tokenizer.countPoints();
+        Formatter[] formatter = new Formatter[sourceFormat.getChannelCount()];
+        int[] index = new int[formatter.length];
+        int d = 0;
+        for(InkChannel c : sourceFormat){
+            formatter[d] = c.formatterFactory();
+            index[d++] = sourceFormat.indexOf(c.getName());
+        }
+        if(channels.length < formatter.length){
+            channels = Arrays.copyOf(channels, formatter.length);
+        }
+        for(d = 0; d < formatter.length; d++){
+            if(channels[d] == null || channels[d].length < length){
+                channels[d] = new double[Math.max(length, (channels[d] == null) ? 0 : channels[d].length * 2)];
+            }
+            Arrays.fill(channels[d], 0, length, Double.NaN);
+        }
+        int point = 0;
+        int i = 0;
+        while(tokenizer.next()){
+            if(tokenizer.isPointSeparator() || i >= formatter.length){
+                point++;
+                i = 0;
+                continue;
+            }
+            if(point >= length){
+                throw new IndexOutOfBoundsException("Index "+point+" is larger than Bound: "+length);
+            }
+            channels[index[i]][point] = formatter[i].consume(tokenizer.getPrefix(), tokenizer.getValue());
+            i++;
+        }
+        return length;
+    }
+}
@@ -0,0 +1,452 @@
+package ch.unibe.inkml;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import ch.unibe.inkml.util.Formatter;
+
+/**
+ * Writes an InkML document to a stream by a {@link XMLStreamWriter}, without building
+ * a DOM tree of the whole document.
+ *
+ * Traces, trace groups and the trace view tree are written directly to the stream. The trace data
+ * of each trace is formatted into a buffer, which is reused for all traces of the document.
+ * Small elements such as <code>definitions</code>, <code>context</code> or <code>annotation</code>
+ * are exported into a detached XML element by the corresponding <code>exportToInkML</code> method,
+ * which is then copied to the stream. Like this the written document is the same as the one
+ * produced by {@link InkInk#exportToInkML(Document)}.
+ *
+ * A document can also be written incrementally, for example while it is captured:
+ * {@link #start(InkInk, OutputStream)} writes the header, each call of {@link #append(InkTrace)}
+ * writes one more trace and flushes the stream, and {@link #finish()} closes the ink element.
+ * The cost of each step only depends on the size of the written elements, not on the size of the document.
+ *
+ * @see InkStreamLoader
+ * @author emanuel
+ */
+public class InkStreamWriter {
+
+    private static final String INDENT = "    ";
+
+    private XMLOutputFactory factory = XMLOutputFactory.newInstance();
+
+    private XMLStreamWriter writer;
+
+    private OutputStream stream;
+
+    /**
+     * Owner document of the detached elements. It never gets any children.
+     */
+    private Document scratch;
+
+    private InkInk ink;
+
+    /**
+     * The context written last
+     */
+    private InkContext context;
+
+    private boolean indent = true;
+
+    private int precision = Formatter.DEFAULT_PRECISION;
+
+    /**
+     * False while the content of an element containing text is written,
+     * since white space added there would become part of the text.
+     */
+    private boolean indenting;
+
+    /**
+     * Number of open elements
+     */
+    private int depth;
+
+    /**
+     * True if the innermost open element has child elements.
+     */
+    private boolean elementContent;
+
+    /**
+     * Collects the trace data of the trace which is currently written.
+     */
+    private StringBuilder traceData = new StringBuilder(1024);
+
+    private char[] traceChars = new char[1024];
+
+
+    /**
+     * Sets whether each element is written on a line of its own, indented by four spaces per level.
+     * The default is true. Without indentation the document is written in a single line.
+     * @param indent
+     */
+    public void setIndent(boolean indent) {
+        this.indent = indent;
+    }
+
+    public boolean isIndent() {
+        return indent;
+    }
+
+    /**
+     * Sets the number of decimal places of the values written to the trace data.
+     * The default is {@link Formatter#DEFAULT_PRECISION}.
+     * @param precision number of decimal places, between 0 and 18
+     */
+    public void setPrecision(int precision) {
+        if(precision < 0 || precision > 18){
+            throw new IllegalArgumentException("The precision must be between 0 and 18, not "+precision);
+        }
+        this.precision = precision;
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    /**
+     * Writes the InkML document to the stream, encoded in UTF-8. The stream is flushed but not closed.
+     * @param ink the document to be written
+     * @param stream stream the document is written to
+     * @throws IOException if the stream can not be written
+     * @throws InkMLComplianceException if the document can not be exported to InkML
+     */
+    public void write(InkInk ink, OutputStream stream) throws IOException, InkMLComplianceException {
+        start(ink, stream);
+        try {
+            for(InkTrace trace : ink.getTraces()){
+                writeTraceAndContext(trace);
+            }
+            for(InkTraceView view : ink.getViewRoots()){
+                writeViewAndContext(view);
+            }
+        } catch(XMLStreamException e) {
+            close();
+            throw new IOException(e.getMessage(), e);
+        } catch(InkMLComplianceException e) {
+            close();
+            throw e;
+        }
+        finish();
+    }
+
+    /**
+     * Starts writing the document incrementally: The start tag of the ink element, its annotations,
+     * the definitions and the current context are written. Afterwards traces and trace views can be
+     * appended by {@link #append(InkTrace)} and {@link #append(InkTraceView)}, until the document is
+     * completed by {@link #finish()}.
+     * Elements added to the definitions after this call are not written.
+     * @param ink the document to be written
+     * @param stream stream the document is written to
+     * @throws IOException if the stream can not be written
+     * @throws InkMLComplianceException if the document can not be exported to InkML
+     */
+    public void start(InkInk ink, OutputStream stream) throws IOException, InkMLComplianceException {
+        if(writer != null){
+            throw new IllegalStateException("The writer has already been started");
+        }
+        try {
+            scratch = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+            writer = factory.createXMLStreamWriter(stream, "UTF-8");
+            this.stream = stream;
+            this.ink = ink;
+            indenting = indent;
+            depth = 0;
+            elementContent = false;
+            writer.writeStartDocument("UTF-8", "1.0");
+            Element header = scratch.createElement(InkInk.INKML_NAME);
+            ink.exportHeader(header);
+            writeStart(header);
+            Element definitions = scratch.createElement(InkInk.INKML_NAME);
+            ink.getDefinitions().exportToInkML(definitions);
+            writeChildren(definitions);
+            writeContext(ink.getCurrentContext());
+        } catch(XMLStreamException e) {
+            close();
+            throw new IOException(e.getMessage(), e);
+        } catch(ParserConfigurationException e) {
+            close();
+            throw new IOException(e.getMessage(), e);
+        } catch(InkMLComplianceException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Appends a trace or a trace group, which is a direct child of the ink element,
+     * preceded by its context if it differs from the context of the previously written trace.
+     * Afterwards everything written so far is flushed to the stream, such that the stream
+     * contains a complete document except for the end tag of the ink element.
+     * @param trace a finished trace
+     * @throws IOException if the stream can not be written
+     * @throws InkMLComplianceException if the trace can not be exported to InkML
+     */
+    public void append(InkTrace trace) throws IOException, InkMLComplianceException {
+        checkStarted();
+        try {
+            writeTraceAndContext(trace);
+            writer.flush();
+            stream.flush();
+        } catch(XMLStreamException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Appends a trace view, which is a direct child of the ink element, and flushes
+     * everything written so far to the stream.
+     * @param view
+     * @throws IOException if the stream can not be written
+     * @throws InkMLComplianceException if the view can not be exported to InkML
+     */
+    public void append(InkTraceView view) throws IOException, InkMLComplianceException {
+        checkStarted();
+        try {
+            writeViewAndContext(view);
+            writer.flush();
+            stream.flush();
+        } catch(XMLStreamException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Completes the document by writing the end tag of the ink element. The stream is flushed but not closed.
+     * @throws IOException if the stream can not be written
+     */
+    public void finish() throws IOException {
+        checkStarted();
+        try {
+            writeEnd();
+            newLine();
+            writer.writeEndDocument();
+            writer.flush();
+            stream.flush();
+        } catch(XMLStreamException e) {
+            throw new IOException(e.getMessage(), e);
+        } finally {
+            close();
+        }
+    }
+
+    private void checkStarted() {
+        if(writer == null){
+            throw new IllegalStateException("The writer has not been started");
+        }
+    }
+
+    /**
+     * Releases the XML writer, without closing the stream.
+     */
+    private void close() {
+        try {
+            if(writer != null){
+                writer.close();
+            }
+        } catch(XMLStreamException e) {
+            //the stream is not written anymore
+        } finally {
+            writer = null;
+            stream = null;
+            scratch = null;
+            ink = null;
+            context = null;
+        }
+    }
+
+    private void writeTraceAndContext(InkTrace trace) throws XMLStreamException, InkMLComplianceException {
+        if(trace.getCurrentContext() != context){
+            writeContext(trace.getCurrentContext());
+        }
+        writeTrace(trace);
+    }
+
+    private void writeViewAndContext(InkTraceView view) throws XMLStreamException, InkMLComplianceException {
+        writeView(view);
+        //the context of a view is exported after the view, as done by InkTraceView#prepairForExport
+        if(!view.isEmpty() && view.getCurrentContext() != context){
+            writeContext(view.getCurrentContext());
+        }
+    }
+
+    /**
+     * Writes a context element, which applies to the following traces.
+     */
+    private void writeContext(InkContext context) throws XMLStreamException, InkMLComplianceException {
+        writeExported(context);
+        this.context = context;
+    }
+
+    /**
+     * Writes a trace or a trace group including all its content.
+     */
+    private void writeTrace(InkTrace trace) throws XMLStreamException, InkMLComplianceException {
+        if(trace.isLeaf()){
+            InkTraceLeaf leaf = (InkTraceLeaf) trace;
+            Element header = scratch.createElement(InkTraceLeaf.INKML_NAME);
+            leaf.exportHeader(header);
+            writeStart(header);
+            traceData.setLength(0);
+            leaf.exportPoints(traceData, precision);
+            if(traceChars.length < traceData.length()){
+                traceChars = new char[Math.max(traceData.length(), traceChars.length * 2)];
+            }
+            traceData.getChars(0, traceData.length(), traceChars, 0);
+            writer.writeCharacters(traceChars, 0, traceData.length());
+            writeEnd();
+        }else{
+            InkTraceGroup group = (InkTraceGroup) trace;
+            Element header = scratch.createElement(InkTraceGroup.INKML_NAME);
+            group.exportHeader(header);
+            writeStart(header);
+            for(InkTrace child : group.getContent()){
+                writeTrace(child);
+            }
+            writeEnd();
+        }
+    }
+
+    /**
+     * Writes a trace view including all its content, unless it is empty.
+     */
+    private void writeView(InkTraceView view) throws XMLStreamException, InkMLComplianceException {
+        if(view.isEmpty()){
+            return;
+        }
+        if(view.isLeaf()){
+            Element header = scratch.createElement(InkTraceViewLeaf.INKML_NAME);
+            ((InkTraceViewLeaf) view).exportHeader(header);
+            writeStart(header);
+            writeEnd();
+        }else{
+            InkTraceViewContainer container = (InkTraceViewContainer) view;
+            Element header = scratch.createElement(InkTraceViewContainer.INKML_NAME);
+            container.exportHeader(header);
+            writeStart(header);
+            for(InkTraceView child : container.getContent()){
+                writeView(child);
+            }
+            writeEnd();
+        }
+    }
+
+    /**
+     * Exports the element into a detached ink element and writes the result.
+     */
+    private void writeExported(InkElement element) throws XMLStreamException, InkMLComplianceException {
+        Element parent = scratch.createElement(InkInk.INKML_NAME);
+        element.exportToInkML(parent);
+        writeChildren(parent);
+    }
+
+    private void writeChildren(Element parent) throws XMLStreamException {
+        for(Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()){
+            writeNode(child);
+        }
+    }
+
+    /**
+     * Writes the start tag and the child nodes of the header, leaving the element open.
+     */
+    private void writeStart(Element header) throws XMLStreamException {
+        newLine();
+        writer.writeStartElement(header.getNodeName());
+        writeAttributes(header);
+        depth++;
+        elementContent = false;
+        writeChildren(header);
+    }
+
+    /**
+     * Writes the end tag of the innermost open element.
+     */
+    private void writeEnd() throws XMLStreamException {
+        depth--;
+        if(elementContent){
+            newLine();
+        }
+        writer.writeEndElement();
+        elementContent = true;
+    }
+
+    private void writeNode(Node node) throws XMLStreamException {
+        switch(node.getNodeType()){
+        case Node.ELEMENT_NODE:
+            Element element = (Element) node;
+            if(!element.hasChildNodes()){
+                newLine();
+                writer.writeEmptyElement(element.getNodeName());
+                writeAttributes(element);
+                elementContent = true;
+                return;
+            }
+            newLine();
+            writer.writeStartElement(element.getNodeName());
+            writeAttributes(element);
+            boolean indented = indenting;
+            for(Node child = element.getFirstChild(); child != null; child = child.getNextSibling()){
+                if(child.getNodeType() != Node.ELEMENT_NODE){
+                    indenting = false;
+                }
+            }
+            depth++;
+            elementContent = false;
+            writeChildren(element);
+            writeEnd();
+            indenting = indented;
+            break;
+        case Node.TEXT_NODE:
+            writer.writeCharacters(node.getNodeValue());
+            break;
+        case Node.CDATA_SECTION_NODE:
+            writer.writeCData(node.getNodeValue());
+            break;
+        case Node.COMMENT_NODE:
+            writer.writeComment(node.getNodeValue());
+            break;
+        }
+    }
+
+    private void writeAttributes(Element element) throws XMLStreamException {
+        NamedNodeMap attributes = element.getAttributes();
+        for(int i = 0; i < attributes.getLength(); i++){
+            Attr attribute = (Attr) attributes.item(i);
+            String name = attribute.getName();
+            if(name.equals(XMLConstants.XMLNS_ATTRIBUTE)){
+                writer.writeDefaultNamespace(attribute.getValue());
+            }else if(name.startsWith(XMLConstants.XMLNS_ATTRIBUTE + ":")){
+                writer.writeNamespace(name.substring(6), attribute.getValue());
+            }else if(name.startsWith(XMLConstants.XML_NS_PREFIX + ":")){
+                writer.writeAttribute(XMLConstants.XML_NS_PREFIX, XMLConstants.XML_NS_URI, name.substring(4), attribute.getValue());
+            }else{
+                writer.writeAttribute(name, attribute.getValue());
+            }
+        }
+    }
+
+    /**
+     * Starts a new line indented according to the current depth, if indentation is enabled.
+     */
+    private void newLine() throws XMLStreamException {
+        if(!indenting){
+            return;
+        }
+        writer.writeCharacters("\n");
+        for(int i = 0; i < depth; i++){
+            writer.writeCharacters(INDENT);
+        }
+    }
+}
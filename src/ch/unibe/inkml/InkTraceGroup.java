@@ -32,6 +32,7 @@ import org.w3c.dom.Node;
 
 import ch.unibe.eindermu.utils.Aspect;
 import ch.unibe.eindermu.utils.Observer;
+import ch.unibe.inkml.InkChannel.ChannelName;
 import ch.unibe.inkml.util.Timespan;
 import ch.unibe.inkml.util.TraceBound;
 import ch.unibe.inkml.util.TraceVisitor;
@@ -39,6 +40,8 @@ import ch.unibe.inkml.util.TraceVisitor;
 
 public class InkTraceGroup extends InkTrace{
     
+    public static final String INKML_NAME = "traceGroup";
+
 	private String brushRef;
 	
 	private List<InkTrace> traces = new ArrayList<InkTrace>();
@@ -192,7 +195,7 @@ public class InkTraceGroup extends InkTrace{
 			if(child.getNodeType() != Node.ELEMENT_NODE){
 				continue;
 			}
-			Element el = (Element)node;
+			Element el = (Element)child;
 			if(el.getNodeName().equals("traceGroup")){
 				InkTraceGroup g = new InkTraceGroup(this.getInk(),this);
 				g.buildFromXMLNode(el);
@@ -210,16 +213,25 @@ public class InkTraceGroup extends InkTrace{
 		if(this.isRoot() && parent.getNodeName().equals("ink") && this.getCurrentContext() != this.getInk().getCurrentContext()){
 			this.getCurrentContext().exportToInkML(parent);
 		}
-		Element traceGroupNode  = parent.getOwnerDocument().createElement("traceGroup");
+		Element traceGroupNode  = parent.getOwnerDocument().createElement(INKML_NAME);
 		parent.appendChild(traceGroupNode);
-		super.exportToInkML(traceGroupNode);
-		this.writeAttribute(traceGroupNode, "brushRef", this.brushRef, "");
+		exportHeader(traceGroupNode);
 		for(InkTrace trace : this.traces){
 			trace.exportToInkML(traceGroupNode);
 		}
 		
 	}
 
+	/**
+	 * Writes the attributes and the annotations of this trace group to the traceGroup element.
+	 * @param traceGroupNode
+	 * @throws InkMLComplianceException
+	 */
+	void exportHeader(Element traceGroupNode) throws InkMLComplianceException {
+		super.exportToInkML(traceGroupNode);
+		this.writeAttribute(traceGroupNode, "brushRef", this.brushRef, "");
+	}
+
 	public List<InkTrace> getContent() {
 		return this.traces;
 	}
@@ -248,7 +260,7 @@ public class InkTraceGroup extends InkTrace{
             if(childrenIndex == fromOnThisLevel && fromSplitted.length>1){
                 fromForChildren = fromSplitted[1];
             }
-            if(childrenIndex == toOnThisLevel && tosplitted.length>1){
+            if(tosplitted != null && childrenIndex == toOnThisLevel && tosplitted.length>1){
                 toForChildren = tosplitted[1];
             }
             pointList.addAll(element.getPoints(fromForChildren,toForChildren));
@@ -264,6 +276,19 @@ public class InkTraceGroup extends InkTrace{
         return getPoints("1",null);
     } 
 
+    /**
+     * {@inheritDoc}
+     * The values of the traces are concatenated.
+     */
+    @Override
+    public int copyChannel(ChannelName name, double[] dest, int offset) {
+        int n = 0;
+        for(InkTrace trace : traces){
+            n += trace.copyChannel(name, dest, offset + n);
+        }
+        return n;
+    }
+
 
 	@Override
 	public boolean isView() {
@@ -24,13 +24,13 @@ package ch.unibe.inkml;
 import java.awt.Graphics2D;
 import java.awt.Polygon;
 import java.awt.geom.Point2D;
+import java.nio.DoubleBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Scanner;
-import java.util.regex.Pattern;
+import java.util.concurrent.Callable;
 
 import org.w3c.dom.Element;
 
@@ -40,8 +40,11 @@ import ch.unibe.eindermu.utils.NotImplementedException;
 import ch.unibe.eindermu.utils.Observer;
 import ch.unibe.inkml.InkChannel.ChannelName;
 import ch.unibe.inkml.util.Formatter;
+import ch.unibe.inkml.util.PointColumn;
+import ch.unibe.inkml.util.PointStore;
 import ch.unibe.inkml.util.Timespan;
 import ch.unibe.inkml.util.TraceBound;
+import ch.unibe.inkml.util.TraceDataTokenizer;
 import ch.unibe.inkml.util.TraceVisitor;
 
 public class InkTraceLeaf extends InkTrace {
@@ -64,13 +67,29 @@ public class InkTraceLeaf extends InkTrace {
     
     
     /**
-     * trace points, how they are stored in InkML
+     * trace points, how they are stored in InkML.
+     * Stored column by column: sourcePoints[channel] holds the values of all points, where channel is the index 
+     * within the source format. Each column is as compact as the type of its channel permits, see {@link InkChannel#columnFactory(double[], boolean)}.
      */
-    private double[][] sourcePoints;
+    private PointColumn[] sourcePoints;
     /**
-     * trace points, how they are displayed in the canvas
+     * trace points, how they are displayed in the canvas.
+     * Stored column by column: points[channel].get(point), where channel is the index within the target format.
+     * The buffers wrap arrays, or are direct buffers if the ink has a {@link PointStore}.
      */
-    private double[][] points;
+    private DoubleBuffer[] points;
+
+    /**
+     * aliased[channel] is true if the canvas points of the channel share their storage with the source points,
+     * because the canvas transform is the identity. Such channels are copied before they are changed.
+     * Null if no channel is shared.
+     */
+    private boolean[] aliased;
+
+    /**
+     * True if the points have been released by {@link #releasePoints()}.
+     */
+    private boolean released = false;
     
     private int size = 0;
 
@@ -191,10 +210,45 @@ public class InkTraceLeaf extends InkTrace {
     private Map<ChannelName,Integer> cacheSourceIndex;
     
     private boolean tainted = false;
+
+    /**
+     * Source points of a trace points are appended to, growingSource[channel][point]. The arrays have room
+     * for more points than {@link #size}. Null if the source points are stored in {@link #sourcePoints}.
+     */
+    private double[][] growingSource;
+
+    /**
+     * True while the observers are notified about appended points, whose caches have already been updated.
+     */
+    private boolean cacheAppended = false;
+
+    /**
+     * Trace data which has not been decoded yet, see {@link #deferPoints(TraceDataTokenizer, boolean)}.
+     * Null if the points are available.
+     */
+    private TraceDataTokenizer rawData;
+
+    /**
+     * Trace data the source points have been decoded from, kept if {@link InkInk#isKeepTraceData()}.
+     * As long as the points have not been modified and the source format has not changed, 
+     * it is exported instead of encoding the source points again.
+     * Null if the points have been modified or the trace data has not been kept.
+     */
+    private TraceDataTokenizer sourceData;
+
+    /**
+     * Source format the {@link #sourceData} is encoded in.
+     */
+    private InkTraceFormat sourceDataFormat;
     
     
     private InkTraceFormat targetFormat;
 
+    /**
+     * Index of the channels within the target format, by the ordinal of their name. -1 if the channel is not contained.
+     */
+    private int[] cacheTargetIndex;
+
 
     
     public class ProxyInkTracePoint extends InkTracePoint {
@@ -218,7 +272,8 @@ public class InkTraceLeaf extends InkTrace {
          * for this point.
          */
         public void set(ChannelName name, double d) {
-            points[i][getIndex(name)] = d;
+            unalias();
+            points[getIndex(name)].put(i, d);
             taint();
             notifyObserver(InkInk.ON_CHANGE);
         }
@@ -228,7 +283,7 @@ public class InkTraceLeaf extends InkTrace {
         }
         
         public double get(ChannelName t) {
-            return points[i][getIndex(t)];
+            return points[getIndex(t)].get(i);
         }
         
         public int index(){
@@ -238,6 +293,82 @@ public class InkTraceLeaf extends InkTrace {
     
     
     
+    /**
+     * Cursor reading the columns of the points directly. The channel indices of X and Y are resolved once.
+     */
+    private class LeafCursor extends TraceCursor {
+        private final int from;
+        private final int to;
+        private int i;
+        private final int x;
+        private final int y;
+
+        LeafCursor(int from, int to) {
+            this.from = from;
+            this.to = to;
+            this.i = from - 1;
+            this.x = getIndex(ChannelName.X);
+            this.y = getIndex(ChannelName.Y);
+        }
+
+        @Override
+        public boolean advance() {
+            if(i >= to - 1){
+                i = to;
+                return false;
+            }
+            i++;
+            return true;
+        }
+
+        @Override
+        public void reset() {
+            i = from - 1;
+        }
+
+        @Override
+        public int index() {
+            return i - from;
+        }
+
+        @Override
+        public double getX() {
+            return points[x].get(i);
+        }
+
+        @Override
+        public double getY() {
+            return points[y].get(i);
+        }
+
+        @Override
+        public double get(ChannelName name) {
+            return points[getIndex(name)].get(i);
+        }
+
+        @Override
+        public Object getObject(ChannelName name) {
+            return objectify(name, get(name));
+        }
+
+        /**
+         * {@inheritDoc}
+         * This method will notify the observers registered for {@link InkTrace#ON_CHANGE} on the trace.
+         */
+        @Override
+        public void set(ChannelName name, double d) {
+            unalias();
+            points[getIndex(name)].put(i, d);
+            taint();
+            notifyObserver(InkInk.ON_CHANGE);
+        }
+
+        @Override
+        public void set(ChannelName name, Object value) {
+            set(name, doubleize(name, value));
+        }
+    }
+
     public InkTraceLeaf(InkInk ink, InkTraceGroup parent) {
         super(ink, parent);
         cacheSourceIndex = getSourceFormat().getIndex();
@@ -248,7 +379,9 @@ public class InkTraceLeaf extends InkTrace {
         registerFor(ON_CHANGE, new Observer() {
             @Override
             public void notifyFor(Aspect event, Object subject) {
-                renewCache();
+                if(rawData == null && !cacheAppended){
+                    renewCache();
+                }
                 if(isRoot()){
                     getInk().notifyObserver(InkInk.ON_CHANGE, subject);
                 }else{
@@ -261,11 +394,27 @@ public class InkTraceLeaf extends InkTrace {
 
     private void taint(){
         tainted = true;
+        sourceData = null;
     }
     
     private void renewCache() {
-        // new center of gravity
-        cacheCenterOfGravity = InkTracePoint.getCenterOfGravity(this);
+        // new center of gravity and new bound, scanning the x and y columns
+        cacheBound = new TraceBound();
+        if (size > 0) {
+            TraceCursor cursor = new LeafCursor(0, size);
+            double sx = 0, sy = 0;
+            cursor.advance();
+            cacheBound.setRect(cursor.getX(), cursor.getY(), 0, 0);
+            do {
+                double x = cursor.getX(), y = cursor.getY();
+                sx += x;
+                sy += y;
+                cacheBound.add(x, y);
+            } while (cursor.advance());
+            cacheCenterOfGravity = new Point2D.Double(sx / size, sy / size);
+        } else {
+            cacheCenterOfGravity = new Point2D.Double(Double.NaN, Double.NaN);
+        }
         
         //new timespan
         if (getPointCount() > 0) {
@@ -274,17 +423,14 @@ public class InkTraceLeaf extends InkTrace {
                 //this.testFormat(this.getCanvasFormat());
             }
             int t = getIndex(ChannelName.T);
-            cacheTimespan = new Timespan(points[0][t], points[size-1][t]);
-        }
-        
-        //new bound
-        cacheBound = new TraceBound(getPoint(0));
-        for(InkTracePoint p: this){
-            cacheBound.add(p);
+            cacheTimespan = new Timespan(points[t].get(0), points[t].get(size-1));
         }
 	}
 
 	public TraceBound getBounds() {
+	    if(cacheBound == null){
+	        decodePoints();
+	    }
 	    return cacheBound;
     }
 	
@@ -293,15 +439,24 @@ public class InkTraceLeaf extends InkTrace {
      * @return
      */
     public Point2D getCenterOfGravity() {
+        if(cacheBound == null){
+            decodePoints();
+        }
         return cacheCenterOfGravity;
     }
 
     public Timespan getTimeSpan() {
+        if(cacheBound == null){
+            decodePoints();
+        }
         return cacheTimespan;
     }
 
     public void backTransformPoints() throws InkMLComplianceException {
-        getCanvasTransform().backTransform(points,sourcePoints,getTargetFormat(),getSourceFormat());
+        decodePoints();
+        double[][] values = getSourceColumns();
+        getCanvasTransform().backTransformColumns(getCanvasColumns(),values,getTargetFormat(),getSourceFormat());
+        storeSourcePoints(values, getSourceFormat());
     }
 
     public InkCanvasTransform getCanvasTransform() {
@@ -340,7 +495,14 @@ public class InkTraceLeaf extends InkTrace {
      */
     private InkTraceFormat getTargetFormat() {
         if(targetFormat == null){
-            targetFormat = getCanvasFormat();
+            InkTraceFormat format = getCanvasFormat();
+            int[] index = new int[ChannelName.values().length];
+            Arrays.fill(index, -1);
+            for(Map.Entry<ChannelName,Integer> e : format.getIndex().entrySet()){
+                index[e.getKey().ordinal()] = e.getValue();
+            }
+            cacheTargetIndex = index;
+            targetFormat = format;
         }
         return targetFormat;
     }
@@ -356,12 +518,58 @@ public class InkTraceLeaf extends InkTrace {
 
     
     public List<InkTracePoint> getPoints() {
-        List<InkTracePoint> l =  new LinkedList<InkTracePoint>();
-        for(int i = 0;i<getPointCount();i++){
-            l.add(getPoint(i));
+        return getPoints(0, getPointCount());
+    }
+
+    /**
+     * @param from index of the first point
+     * @param to index after the last point
+     * @return new points, which can be kept
+     */
+    private List<InkTracePoint> getPoints(int from, int to) {
+        checkRange(from, to);
+        decodePoints();
+        List<InkTracePoint> l =  new ArrayList<InkTracePoint>(to - from);
+        for(int i = from;i<to;i++){
+            l.add(new ProxyInkTracePoint(i));
         }
         return l;
     }
+
+    /**
+     * {@inheritDoc}
+     * The cursor reads the points directly, without creating an object for each point.
+     */
+    @Override
+    public TraceCursor cursor(String from, String to) {
+        int f = firstIndex(from);
+        int t = endIndex(to);
+        checkRange(f, t);
+        decodePoints();
+        return new LeafCursor(f, t);
+    }
+
+    /**
+     * @param from 'from' attribute of a trace view referring to this trace
+     * @return index of the first point
+     */
+    private int firstIndex(String from) {
+        return Integer.parseInt(from) - 1;
+    }
+
+    /**
+     * @param to 'to' attribute of a trace view referring to this trace, null if it is not set
+     * @return index after the last point
+     */
+    private int endIndex(String to) {
+        return (to != null) ? Integer.parseInt(to) : getPointCount();
+    }
+
+    private void checkRange(int from, int to) {
+        if(from < 0 || to > getPointCount() || from > to){
+            throw new IndexOutOfBoundsException("Points from "+from+" to "+to+" of "+getPointCount());
+        }
+    }
     
     
     public Iterable<InkTracePoint> pointIterable(){
@@ -393,7 +601,12 @@ public class InkTraceLeaf extends InkTrace {
      * @return
      */
     protected int getIndex(ChannelName name){
-        return getTargetFormat().indexOf(name);
+        getTargetFormat();
+        int index = cacheTargetIndex[name.ordinal()];
+        if(index < 0){
+            throw new IllegalArgumentException("The canvas format of trace '"+getId()+"' has no channel "+name);
+        }
+        return index;
     }
     
     /**
@@ -421,9 +634,7 @@ public class InkTraceLeaf extends InkTrace {
     
     @Override
     public List<InkTracePoint> getPoints(String from, String to) {
-        int f = Integer.parseInt(from) - 1;
-        int t = (to != null) ? Integer.parseInt(to) : getPointCount();
-        return getPoints().subList(f, t);
+        return getPoints(firstIndex(from), endIndex(to));
     }
 
     public int getPointCount() {
@@ -431,6 +642,7 @@ public class InkTraceLeaf extends InkTrace {
     }
 
     public InkTracePoint getPoint(final int pos) {
+        decodePoints();
         return new ProxyInkTracePoint(pos);
     }
 
@@ -449,6 +661,17 @@ public class InkTraceLeaf extends InkTrace {
      * This method will notify the observers registered for {@link InkTrace#ON_CHANGE}.
      */
     public void buildFromXMLNode(Element node) throws InkMLComplianceException {
+        loadAttributes(node);
+        loadPoints(node.getTextContent());
+    }
+
+    /**
+     * Initializes this trace with the attributes (and annotations) of the XML node, 
+     * leaving the trace data untouched.
+     * @param node The XML node.
+     * @throws InkMLComplianceException
+     */
+    void loadAttributes(Element node) throws InkMLComplianceException {
         super.buildFromXMLNode(node);
         if (node.hasAttribute(INKML_ATTR_TYPE)) {
             this.type = Type.getValue(loadAttribute(node, INKML_ATTR_TYPE, null));
@@ -468,49 +691,331 @@ public class InkTraceLeaf extends InkTrace {
         if (node.hasAttribute(INKML_ATTR_TIMEOFFSET)) {
             this.duration = Double.parseDouble(node.getAttribute(INKML_ATTR_TIMEOFFSET));
         }
-        final List<Formatter> formatter = new ArrayList<Formatter>();
-        for (InkChannel c : this.getSourceFormat()) {
-            formatter.add(c.formatterFactory());
-        }
-        final String input = node.getTextContent().trim();
-        int total = 0;
-        char[] chars = input.toCharArray();
-        boolean onemore = false;
-        for(int i = 0;i<chars.length;i++){
-            switch(chars[i]){
-            case ',':
-                total++;
-                onemore = false;
-                break;
-            case ' ':
-            case '\n':
-            case '\t':
-            case '\r':
-                break;
-            default:
-                onemore = true;
+    }
+
+    /**
+     * Decodes the trace data as it is found in the content of the trace element.
+     * This method will notify the observers registered for {@link InkTrace#ON_CHANGE}.
+     * @param content Text content of the trace element
+     * @throws InkMLComplianceException
+     */
+    void loadPoints(String content) throws InkMLComplianceException {
+        loadPoints(new TraceDataTokenizer(content.toCharArray(), 0, content.length()));
+    }
+
+    /**
+     * Decodes the trace data provided by the tokenizer.
+     * If the document keeps the trace data, see {@link InkInk#setKeepTraceData(boolean)}, a copy of it
+     * is kept to be exported unchanged. The tokenizer is not used afterwards, so the characters or bytes
+     * it works on may be reused.
+     * This method will notify the observers registered for {@link InkTrace#ON_CHANGE}.
+     * @param data tokenizer positioned at the beginning of the trace data
+     * @throws InkMLComplianceException
+     */
+    void loadPoints(TraceDataTokenizer data) throws InkMLComplianceException {
+        addPoints(createDecodingBlock(data, getSourceFormat()));
+        if(getInk().isKeepTraceData()){
+            keepSourceData(data.copy());
+        }
+    }
+
+    private void keepSourceData(TraceDataTokenizer data) {
+        sourceData = data;
+        sourceDataFormat = getSourceFormat();
+    }
+
+    /**
+     * Keeps a copy of the trace data, which is decoded not until the points, the bounds or
+     * the time span of this trace are requested for the first time.
+     * The tokenizer is not used afterwards, so the characters or bytes it works on may be reused,
+     * and a mapped file may be closed.
+     * Since the data is decoded in the context which is valid at that time, the context of
+     * this trace should not be changed before.
+     * Compliance errors found while decoding are reported as {@link IllegalStateException}.
+     * @param data tokenizer providing the trace data
+     * @param summarize if true, the points are decoded once to calculate the bounds, the time span
+     *      and the center of gravity, and then discarded. Like this these values are available
+     *      without decoding the points again.
+     * @throws InkMLComplianceException if summarize is true and the trace data is not compliant
+     */
+    void deferPoints(TraceDataTokenizer data, boolean summarize) throws InkMLComplianceException {
+        if(summarize){
+            PointConstructionBlock block = createDecodingBlock(data, getSourceFormat());
+            block.addPoints();
+            applyTransform(block.finish(), getSourceFormat(), getCanvasTransform());
+            renewCache();
+            points = null;
+        }else{
+            cacheBound = null;
+            cacheTimespan = null;
+        }
+        sourcePoints = null;
+        growingSource = null;
+        size = data.countPoints();
+        rawData = data.copy();
+        if(getInk().isKeepTraceData()){
+            keepSourceData(rawData);
+        }
+        notifyObserver(ON_CHANGE);
+    }
+
+    /**
+     * Decodes the trace data kept by {@link #deferPoints(TraceDataTokenizer, boolean)}, if there is any.
+     * This method does not notify any observers, since the trace does not change.
+     */
+    private void decodePoints() {
+        if(released){
+            throw new IllegalStateException("The points of trace '"+getId()+"' have been released");
+        }
+        if(rawData == null){
+            return;
+        }
+        try {
+            decodePoints(getSourceFormat(), getCanvasTransform());
+        } catch (InkMLComplianceException e) {
+            throw new IllegalStateException("The data of trace '"+getId()+"' is not compliant: "+e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Returns a task decoding the trace data kept by {@link #deferPoints(TraceDataTokenizer, boolean)}.
+     * The context of this trace is resolved by the calling thread, the task itself only accesses this trace
+     * and the resolved formats and canvas transform. So the tasks of different traces can be executed
+     * concurrently, as long as this trace is not accessed otherwise until the task has finished.
+     * @return the task
+     */
+    Callable<Void> createDecodingTask() {
+        final InkTraceFormat sourceFormat = getSourceFormat();
+        final InkCanvasTransform transform = getCanvasTransform();
+        getTargetFormat();
+        return new Callable<Void>() {
+            public Void call() throws InkMLComplianceException {
+                decodePoints(sourceFormat, transform);
+                return null;
+            }
+        };
+    }
+
+    private void decodePoints(InkTraceFormat sourceFormat, InkCanvasTransform transform) throws InkMLComplianceException {
+        TraceDataTokenizer data = rawData;
+        if(data == null){
+            return;
+        }
+        rawData = null;
+        PointConstructionBlock block = createDecodingBlock(data, sourceFormat);
+        block.addPoints();
+        double[][] values = block.finish();
+        storeSourcePoints(values, sourceFormat);
+        if(!aliasSourcePoints(sourceFormat, transform)){
+            applyTransform(values, sourceFormat, transform);
+        }
+        renewCache();
+    }
+
+    /**
+     * Stores the source points in the columns created by the channels of the source format.
+     * @param values values[channel][point], the arrays may be kept by the columns
+     * @param sourceFormat
+     */
+    private void storeSourcePoints(double[][] values, InkTraceFormat sourceFormat) {
+        PointColumn[] columns = new PointColumn[values.length];
+        for (InkChannel c : sourceFormat) {
+            int index = sourceFormat.indexOf(c.getName());
+            columns[index] = c.columnFactory(values[index], getInk().isSinglePrecision());
+        }
+        PointStore store = getInk().getPointStore();
+        for (int i = 0;i<columns.length;i++) {
+            if (columns[i] == null) {
+                columns[i] = PointColumn.decimals(values[i], false);
+            }
+            if (store != null) {
+                columns[i] = columns[i].moveTo(store);
+            }
+        }
+        sourcePoints = columns;
+        growingSource = null;
+        aliased = null;
+    }
+
+    /**
+     * Stores the source points of a trace points have been appended to in columns again.
+     */
+    private void sealSource() {
+        if (growingSource == null) {
+            return;
+        }
+        double[][] values = new double[growingSource.length][];
+        for (int i = 0;i<values.length;i++) {
+            values[i] = Arrays.copyOf(growingSource[i], size);
+        }
+        storeSourcePoints(values, getSourceFormat());
+    }
+
+    /**
+     * @return a copy of the source points, sourcePoints[channel][point]
+     */
+    private double[][] getSourceColumns() {
+        sealSource();
+        double[][] values = new double[sourcePoints.length][];
+        for (int i = 0;i<values.length;i++) {
+            values[i] = sourcePoints[i].toArray();
+        }
+        return values;
+    }
+
+    /**
+     * @return the canvas points, points[channel][point]. The arrays are the ones the points are stored in,
+     * unless they are stored in direct memory or have room for appended points, then they are copies.
+     */
+    private double[][] getCanvasColumns() {
+        double[][] values = new double[points.length][];
+        for (int i = 0;i<values.length;i++) {
+            if (points[i].hasArray() && points[i].capacity() == size) {
+                values[i] = points[i].array();
+            } else {
+                values[i] = new double[size];
+                DoubleBuffer column = points[i].duplicate();
+                column.clear();
+                column.get(values[i]);
             }
         }
-        if(onemore) total++;
-        addPoints(new PointConstructionBlock(total) {
+        return values;
+    }
+
+    /**
+     * {@inheritDoc}
+     * The values are copied directly from the column of the channel.
+     */
+    @Override
+    public int copyChannel(ChannelName name, double[] dest, int offset) {
+        return copyChannel(name, 0, getPointCount(), dest, offset);
+    }
+
+    /**
+     * {@inheritDoc}
+     * The values are copied directly from the column of the channel.
+     */
+    @Override
+    public int copyChannel(ChannelName name, String from, String to, double[] dest, int offset) {
+        return copyChannel(name, firstIndex(from), endIndex(to), dest, offset);
+    }
+
+    private int copyChannel(ChannelName name, int from, int to, double[] dest, int offset) {
+        checkRange(from, to);
+        decodePoints();
+        DoubleBuffer column = points[getIndex(name)].duplicate();
+        column.clear();
+        column.position(from);
+        column.get(dest, offset, to - from);
+        return to - from;
+    }
+
+    /**
+     * {@inheritDoc}
+     * The view refers to the column of the channel, the values are not copied. 
+     * It is only valid until the points are changed, the next time the points are
+     * transformed, or until the points are released.
+     */
+    @Override
+    public DoubleBuffer getChannelBuffer(ChannelName name) {
+        return getChannelBuffer(name, "1", null);
+    }
+
+    /**
+     * {@inheritDoc}
+     * The view refers to the column of the channel, the values are not copied. 
+     * It is only valid until the points are changed, the next time the points are
+     * transformed, or until the points are released.
+     */
+    @Override
+    public DoubleBuffer getChannelBuffer(ChannelName name, String from, String to) {
+        int f = firstIndex(from);
+        int t = endIndex(to);
+        checkRange(f, t);
+        decodePoints();
+        DoubleBuffer view = points[getIndex(name)].asReadOnlyBuffer();
+        view.clear();
+        view.limit(t);
+        view.position(f);
+        return view.slice();
+    }
+
+    /**
+     * Discards the points of this trace, such that the memory they use can be freed.
+     * Afterwards the points can not be accessed anymore. This is used by {@link InkInk#close()}.
+     */
+    void releasePoints() {
+        released = true;
+        points = null;
+        aliased = null;
+        sourcePoints = null;
+        growingSource = null;
+        rawData = null;
+        sourceData = null;
+    }
+
+    /**
+     * Creates the point construction block which decodes the trace data.
+     */
+    private PointConstructionBlock createDecodingBlock(final TraceDataTokenizer tokenizer, InkTraceFormat sourceFormat) {
+        List<Formatter> formatterList = new ArrayList<Formatter>();
+        for (InkChannel c : sourceFormat) {
+            formatterList.add(c.formatterFactory());
+        }
+        final Formatter[] formatter = formatterList.toArray(new Formatter[formatterList.size()]);
+        final int[] index = new int[formatter.length];
+        for(int i = 0;i<formatter.length;i++){
+            index[i] = cacheSourceIndex.get(formatter[i].getChannel().getName());
+        }
+        return new PointConstructionBlock(tokenizer.countPoints()) {
             public void addPoints() throws InkMLComplianceException {
-                Scanner stringScanner = new Scanner(input);
-                Pattern pattern = Pattern.compile(",|F|T|\\*|\\?|[\"'!]?-?(\\.[0-9]+|[0-9]+\\.[0-9]+|[0-9]+)");
+                tokenizer.reset();
                 int i = 0;
-                while (true) {
-                    String result = stringScanner.findWithinHorizon(pattern, input
-                            .length());
-                    if (result == null) { // finished
-                        break;
-                    }
-                    if (result.equals(",") || i >= formatter.size()) { //if new point begins, but not all coordinates of the old one are set.
+                while (tokenizer.next()) {
+                    if (tokenizer.isPointSeparator() || i >= formatter.length) { //if new point begins, but not all coordinates of the old one are set.
                         next();i = 0;continue;
                     }
-                    set(formatter.get(i).getChannel().getName(),formatter.get(i).consume(result));
+                    set(index[i],formatter[i].consume(tokenizer.getPrefix(), tokenizer.getValue()));
                     i++;
                 }
             }
-        });
+        };
+    }
+
+    /**
+     * Decodes only the first point of the trace data, and returns its time in canvas coordinates.
+     * This is where the time span of this trace starts, see {@link #getTimeSpan()}.
+     * This trace is not changed, and the tokenizer is reset afterwards.
+     * @param tokenizer tokenizer providing the trace data
+     * @return the start time, or NaN if the trace data is empty or there is no time channel
+     * @throws InkMLComplianceException
+     */
+    double decodeStartTime(TraceDataTokenizer tokenizer) throws InkMLComplianceException {
+        InkTraceFormat sourceFormat = getSourceFormat();
+        InkTraceFormat targetFormat = getTargetFormat();
+        if(!targetFormat.containsChannel(ChannelName.T)){
+            return Double.NaN;
+        }
+        double[][] values = new double[sourceFormat.getChannelCount()][1];
+        for(double[] v : values){
+            v[0] = Double.NaN;
+        }
+        tokenizer.reset();
+        boolean empty = true;
+        for(InkChannel c : sourceFormat){
+            if(!tokenizer.next() || tokenizer.isPointSeparator()){
+                break;
+            }
+            values[sourceFormat.indexOf(c.getName())][0] = c.formatterFactory().consume(tokenizer.getPrefix(), tokenizer.getValue());
+            empty = false;
+        }
+        tokenizer.reset();
+        if(empty){
+            return Double.NaN;
+        }
+        double[][] target = new double[targetFormat.getChannelCount()][1];
+        getCanvasTransform().transformColumns(values, target, sourceFormat, targetFormat);
+        return target[targetFormat.indexOf(ChannelName.T)][0];
     }
 
     @Override
@@ -520,11 +1025,20 @@ public class InkTraceLeaf extends InkTrace {
                 && this.getCurrentContext() != this.getInk().getCurrentContext()) {
         	this.getCurrentContext().exportToInkML(parent);
         }
-        if(tainted){
-            backTransformPoints();
-        }
         Element traceNode = parent.getOwnerDocument().createElement(INKML_NAME);
         parent.appendChild(traceNode);
+        exportHeader(traceNode);
+        StringBuilder pointString = new StringBuilder();
+        exportPoints(pointString, Formatter.DEFAULT_PRECISION);
+        traceNode.setTextContent(pointString.toString());
+    }
+
+    /**
+     * Writes the attributes and the annotations of this trace to the trace element.
+     * @param traceNode
+     * @throws InkMLComplianceException
+     */
+    void exportHeader(Element traceNode) throws InkMLComplianceException {
         super.exportToInkML(traceNode);
         writeAttribute(traceNode, INKML_ATTR_TYPE, this.getType().toString(),
                 Type.PEN_DOWN.toString());
@@ -538,21 +1052,86 @@ public class InkTraceLeaf extends InkTrace {
             writeAttribute(traceNode, INKML_ATTR_DURATION, duration.toString(), null);
         if (timeOffset != null)
             writeAttribute(traceNode, INKML_ATTR_TIMEOFFSET, timeOffset.toString(), null);
+    }
 
-        StringBuffer pointString = new StringBuffer();
-        List<Formatter> formatter = new ArrayList<Formatter>();
+    /**
+     * Appends the trace data of this trace, as it is the content of the trace element, to the builder.
+     * If the trace data has been kept, see {@link InkInk#setKeepTraceData(boolean)}, the points have not
+     * been modified since they have been loaded, and the default precision is requested, the trace data
+     * is appended as it has been loaded, without encoding the points again.
+     * @param pointString
+     * @param precision number of decimal places of the values
+     * @throws InkMLComplianceException
+     */
+    void exportPoints(StringBuilder pointString, int precision) throws InkMLComplianceException {
+        if(precision == Formatter.DEFAULT_PRECISION && hasSourceData()){
+            sourceData.appendTo(pointString);
+            return;
+        }
+        prepareExport();
+        Formatter[] formatter = new Formatter[getSourceFormat().getChannelCount()];
+        int d = 0;
         for (InkChannel c : this.getSourceFormat()) {
-            formatter.add(c.formatterFactory());
+            formatter[d] = c.formatterFactory();
+            formatter[d++].setPrecision(precision);
         }
+        double[][] values = getSourceColumns();
         for (int i = 0;i<getPointCount();i++) {
-            for (int d = 0;d<formatter.size();d++) {
-                pointString.append(formatter.get(d).getNext(sourcePoints[i][d]));
+            if (i > 0) {
+                pointString.append(',');
+            }
+            for (d = 0;d<formatter.length;d++) {
+                formatter[d].appendNext(values[d][i], pointString);
             }
-            pointString.append(",");
         }
-        pointString.deleteCharAt(pointString.length() - 1);
-        traceNode.setTextContent(pointString.toString());
+    }
+
+    /**
+     * @return true if the trace data the points have been loaded from can be exported unchanged
+     */
+    boolean hasSourceData() {
+        return sourceData != null && !tainted && sourceDataFormat == getSourceFormat();
+    }
+
+    /**
+     * Decodes the points if necessary, and transforms modified points back to the source format,
+     * such that the source points can be exported.
+     * @throws InkMLComplianceException
+     */
+    void prepareExport() throws InkMLComplianceException {
+        decodePoints();
+        if(tainted){
+            backTransformPoints();
+        }
+    }
 
+    /**
+     * Copies the values of one channel of the source points into the array.
+     * {@link #prepareExport()} has to be called before.
+     * @param index index of the channel within the source format
+     * @param column array of at least {@link #getPointCount()} elements
+     */
+    void exportColumn(int index, double[] column) {
+        sealSource();
+        sourcePoints[index].copyTo(column);
+    }
+
+    /**
+     * Sets the source points from columns as they are copied by {@link #exportColumn(int, double[])}.
+     * This method will notify the observers registered for {@link InkTrace#ON_CHANGE}.
+     * @param columns one column for each channel of the source format
+     * @param length number of points
+     * @throws InkMLComplianceException
+     */
+    void loadColumns(final double[][] columns, final int length) throws InkMLComplianceException {
+        addPoints(new PointConstructionBlock(length){
+            @Override
+            public void addPoints() {
+                for (int d = 0;d<columns.length;d++) {
+                    setColumn(d, columns[d]);
+                }
+            }
+        });
     }
 
     /**
@@ -637,13 +1216,16 @@ public class InkTraceLeaf extends InkTrace {
     }
 
     public Polygon getPolygon() {
+        decodePoints();
         int[] xpoints = new int[getPointCount()];
         int[] ypoints = new int[getPointCount()];
         int x = getIndex(ChannelName.X);
         int y = getIndex(ChannelName.Y);
+        DoubleBuffer xs = points[x];
+        DoubleBuffer ys = points[y];
         for(int i = 0;i<xpoints.length;i++){
-            xpoints[i] = (int) points[i][x];
-            ypoints[i] = (int) points[i][y];
+            xpoints[i] = (int) xs.get(i);
+            ypoints[i] = (int) ys.get(i);
         }
         return new Polygon(xpoints, ypoints, getPointCount());
         
@@ -657,6 +1239,7 @@ public class InkTraceLeaf extends InkTrace {
      * @throws InkMLComplianceException
      */
     public void reloadPoints() throws InkMLComplianceException {
+        decodePoints();
     	transform();
     }
     
@@ -666,13 +1249,238 @@ public class InkTraceLeaf extends InkTrace {
      * @throws InkMLComplianceException
      */
     private void transform() throws InkMLComplianceException{
-        if(points == null){
-            points = new double[size][getTargetFormat().getChannelCount()];
+        sealSource();
+        if(!aliasSourcePoints(getSourceFormat(), getCanvasTransform())){
+            applyTransform(getSourceColumns(), getSourceFormat(), getCanvasTransform());
         }
-        getCanvasTransform().transform(sourcePoints, points,getSourceFormat(), getTargetFormat());
         notifyObserver(ON_CHANGE);
     }
 
+    /**
+     * If the canvas transform is the identity, the canvas points are set to share their storage
+     * with the source points instead of transforming them. Channels whose source points are not
+     * stored as double are copied.
+     * @return false if the transform is not the identity, then nothing has been done
+     */
+    private boolean aliasSourcePoints(InkTraceFormat sourceFormat, InkCanvasTransform transform) {
+        InkTraceFormat targetFormat = getTargetFormat();
+        if(sourcePoints == null || !transform.isIdentity(sourceFormat, targetFormat)){
+            return false;
+        }
+        int channels = targetFormat.getChannelCount();
+        DoubleBuffer[] shared = new DoubleBuffer[channels];
+        boolean[] isShared = new boolean[channels];
+        for(InkChannel c : targetFormat){
+            int t = targetFormat.indexOf(c.getName());
+            PointColumn column = sourcePoints[sourceFormat.indexOf(c.getName())];
+            shared[t] = column.asDoubleBuffer();
+            isShared[t] = shared[t] != null;
+            if(!isShared[t]){
+                double[] values = column.toArray();
+                shared[t] = allocateColumn(size);
+                shared[t].duplicate().put(values);
+            }
+        }
+        points = shared;
+        aliased = isShared;
+        return true;
+    }
+
+    /**
+     * Copies the canvas points which share their storage with the source points, before they are changed.
+     */
+    private void unalias() {
+        if(aliased == null){
+            return;
+        }
+        for(int c = 0;c<points.length;c++){
+            if(aliased[c]){
+                DoubleBuffer source = points[c].duplicate();
+                source.clear();
+                source.limit(size);
+                DoubleBuffer copy = allocateColumn(size);
+                copy.duplicate().put(source);
+                points[c] = copy;
+            }
+        }
+        aliased = null;
+    }
+
+    /**
+     * Transforms the source points to the target points, without notifying the observers.
+     * @param values the source points, values[channel][point]
+     * @throws InkMLComplianceException
+     */
+    private void applyTransform(double[][] values, InkTraceFormat sourceFormat, InkCanvasTransform transform) throws InkMLComplianceException{
+        int channels = getTargetFormat().getChannelCount();
+        PointStore store = getInk().getPointStore();
+        if(points == null || aliased != null || points.length != channels || (channels > 0 && points[0].capacity() != size)
+                || (channels > 0 && points[0].isDirect() != (store != null))){
+            aliased = null;
+            points = new DoubleBuffer[channels];
+            for(int c = 0;c<channels;c++){
+                points[c] = allocateColumn(size);
+            }
+        }
+        if(store == null){
+            transform.transformColumns(values, getCanvasColumns(), sourceFormat, getTargetFormat());
+        }else{
+            double[][] target = new double[channels][size];
+            transform.transformColumns(values, target, sourceFormat, getTargetFormat());
+            for(int c = 0;c<channels;c++){
+                DoubleBuffer column = points[c].duplicate();
+                column.clear();
+                column.put(target[c]);
+            }
+        }
+    }
+
+
+    /**
+     * @param capacity number of points
+     * @return a column of the canvas points, in direct memory if the ink has a {@link PointStore}
+     */
+    private DoubleBuffer allocateColumn(int capacity) {
+        PointStore store = getInk().getPointStore();
+        return (store == null) ? DoubleBuffer.wrap(new double[capacity]) : store.allocateDoubles(capacity);
+    }
+
+    /**
+     * Appends a point at the end of this trace, for example while the pen is moving.
+     * Only the new point is transformed, and the bounds, the time span and the center of gravity
+     * are updated incrementally. See {@link #appendPoints(double[], int)}.
+     * This method will notify the observers registered for {@link InkTrace#ON_CHANGE}.
+     * @param values the values of the point, one for each channel of the source format, in its order
+     * @throws InkMLComplianceException
+     */
+    public void appendPoint(double... values) throws InkMLComplianceException {
+        if(values.length != cacheSourceIndex.size()){
+            throw new IllegalArgumentException("A point of trace '"+getId()+"' has "+cacheSourceIndex.size()+" values, not "+values.length);
+        }
+        appendPoints(values, 1);
+    }
+
+    /**
+     * Appends points at the end of this trace. The storage grows by a constant factor, such that
+     * appending the points of a trace one after the other takes linear time.
+     * Only the new points are transformed, and the bounds, the time span and the center of gravity
+     * are updated incrementally.
+     * This method will notify the observers registered for {@link InkTrace#ON_CHANGE}.
+     * @param interleaved the values of the points one after the other, each point has one value
+     *      for each channel of the source format, in its order. Unknown values are NaN.
+     * @param n number of points
+     * @throws InkMLComplianceException
+     */
+    public void appendPoints(double[] interleaved, int n) throws InkMLComplianceException {
+        int channels = cacheSourceIndex.size();
+        if(interleaved.length < n * channels){
+            throw new IllegalArgumentException(n+" points of trace '"+getId()+"' need "+(n * channels)+" values, not "+interleaved.length);
+        }
+        if(n == 0){
+            return;
+        }
+        decodePoints();
+        sourceData = null;
+        int length = size + n;
+
+        //source points
+        if(growingSource == null){
+            growingSource = new double[channels][grow(length)];
+            if(sourcePoints != null){
+                for(int c = 0;c<channels;c++){
+                    sourcePoints[c].copyTo(growingSource[c]);
+                }
+            }
+            sourcePoints = null;
+        }else if(growingSource[0].length < length){
+            int capacity = grow(length);
+            for(int c = 0;c<channels;c++){
+                growingSource[c] = Arrays.copyOf(growingSource[c], capacity);
+            }
+        }
+        double[][] values = new double[channels][n];
+        for(int c = 0;c<channels;c++){
+            for(int i = 0;i<n;i++){
+                values[c][i] = interleaved[i * channels + c];
+            }
+            System.arraycopy(values[c], 0, growingSource[c], size, n);
+        }
+
+        //canvas points, only the new ones are transformed
+        int targetChannels = getTargetFormat().getChannelCount();
+        double[][] target = new double[targetChannels][n];
+        getCanvasTransform().transformColumns(values, target, getSourceFormat(), getTargetFormat());
+        if(points == null || aliased != null || points.length != targetChannels || points[0].capacity() < length){
+            int capacity = grow(length);
+            DoubleBuffer[] grown = new DoubleBuffer[targetChannels];
+            for(int c = 0;c<targetChannels;c++){
+                grown[c] = allocateColumn(capacity);
+                if(points != null && size > 0){
+                    DoubleBuffer old = points[c].duplicate();
+                    old.clear();
+                    old.limit(size);
+                    grown[c].duplicate().put(old);
+                }
+            }
+            points = grown;
+            aliased = null;
+        }
+        for(int c = 0;c<targetChannels;c++){
+            DoubleBuffer column = points[c].duplicate();
+            column.clear();
+            column.position(size);
+            column.put(target[c]);
+        }
+        updateCache(size, length);
+        size = length;
+
+        cacheAppended = true;
+        try{
+            notifyObserver(ON_CHANGE);
+        }finally{
+            cacheAppended = false;
+        }
+    }
+
+    /**
+     * @param length number of points needed
+     * @return capacity for at least length points, growing by a constant factor
+     */
+    private int grow(int length) {
+        return Math.max(length, Math.max(16, size + (size >> 1)));
+    }
+
+    /**
+     * Updates the bounds, the time span and the center of gravity with appended points.
+     * @param from index of the first appended point
+     * @param to index after the last appended point
+     */
+    private void updateCache(int from, int to) {
+        if(cacheBound == null){
+            from = 0;
+        }
+        DoubleBuffer xs = points[getIndex(ChannelName.X)];
+        DoubleBuffer ys = points[getIndex(ChannelName.Y)];
+        double sx = 0, sy = 0;
+        if(from == 0){
+            cacheBound = new TraceBound();
+            cacheBound.setRect(xs.get(from), ys.get(from), 0, 0);
+        }else{
+            sx = cacheCenterOfGravity.getX() * from;
+            sy = cacheCenterOfGravity.getY() * from;
+        }
+        for (int i = from; i < to; i++) {
+            double x = xs.get(i), y = ys.get(i);
+            sx += x;
+            sy += y;
+            cacheBound.add(x, y);
+        }
+        cacheCenterOfGravity = new Point2D.Double(sx / to, sy / to);
+        if (getTargetFormat().containsChannel(ChannelName.T)) {
+            int t = getIndex(ChannelName.T);
+            cacheTimespan = new Timespan(points[t].get(0), points[t].get(to-1));
+        }
+    }
 
     /**
      * Returns the index of the point within this trace.
@@ -706,8 +1514,14 @@ public class InkTraceLeaf extends InkTrace {
      */
     public abstract class PointConstructionBlock{
         private int i = 0;
+        /**
+         * The source points added so far, sourcePoints[channel][point]
+         */
+        private double[][] sourcePoints;
         public PointConstructionBlock(int length){
-            sourcePoints = new double[length][cacheSourceIndex.size()];
+            rawData = null;
+            sourceData = null;
+            sourcePoints = new double[cacheSourceIndex.size()][length];
             size = length;
         }
         /**
@@ -722,9 +1536,27 @@ public class InkTraceLeaf extends InkTrace {
          * @param value value of the point's channel
          */
         public void set(ChannelName name, double value) {
-            sourcePoints[i][cacheSourceIndex.get(name)] = value;
+            sourcePoints[cacheSourceIndex.get(name)][i] = value;
         }
-        
+
+        /**
+         * sets the value of the channel at the specified index of the source format to the current point
+         * @param index index of the channel within the source format
+         * @param value value of the point's channel
+         */
+        public void set(int index, double value) {
+            sourcePoints[index][i] = value;
+        }
+
+        /**
+         * sets the values of the channel at the specified index of the source format for all points at once.
+         * @param index index of the channel within the source format
+         * @param values values of the channel, at least as many as points
+         */
+        public void setColumn(int index, double[] values) {
+            System.arraycopy(values, 0, sourcePoints[index], 0, size);
+        }
+
         /**
          * proceed to the next point. Unset, intermittent channels are filled with the value "unknown"
          * which internally is represented by Double.NaN
@@ -735,8 +1567,8 @@ public class InkTraceLeaf extends InkTrace {
             }
             i++;
             if(i<size){
-                for(int c = 0;c<sourcePoints[i-1].length;c++){
-                    sourcePoints[i][c] = Double.NaN;
+                for(int c = 0;c<sourcePoints.length;c++){
+                    sourcePoints[c][i] = Double.NaN;
                 }
             }
         }
@@ -748,7 +1580,17 @@ public class InkTraceLeaf extends InkTrace {
             size--;
         }
         
-        private void finish() {
+        /**
+         * Shortens the columns, if points have been removed by {@link #reduce()}.
+         * @return the source points, sourcePoints[channel][point]
+         */
+        private double[][] finish() {
+            for(int c = 0;c<sourcePoints.length;c++){
+                if(sourcePoints[c].length != size){
+                    sourcePoints[c] = Arrays.copyOf(sourcePoints[c], size);
+                }
+            }
+            return sourcePoints;
         }
     }
 
@@ -763,8 +1605,12 @@ public class InkTraceLeaf extends InkTrace {
      */
     public void addPoints(PointConstructionBlock block) throws InkMLComplianceException {
         block.addPoints();
-        block.finish();
-        transform();//will call observers
+        double[][] values = block.finish();
+        storeSourcePoints(values, getSourceFormat());
+        if(!aliasSourcePoints(getSourceFormat(), getCanvasTransform())){
+            applyTransform(values, getSourceFormat(), getCanvasTransform());
+        }
+        notifyObserver(ON_CHANGE);
     }
 
     public void accept(TraceVisitor visitor) {
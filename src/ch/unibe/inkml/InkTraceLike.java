@@ -2,10 +2,12 @@ package ch.unibe.inkml;
 
 import java.awt.Point;
 import java.awt.Polygon;
+import java.nio.DoubleBuffer;
 import java.util.List;
 
 import org.w3c.dom.Element;
 
+import ch.unibe.inkml.InkChannel.ChannelName;
 import ch.unibe.inkml.util.Timespan;
 import ch.unibe.inkml.util.TraceBound;
 import ch.unibe.inkml.util.TraceVisitor;
@@ -201,7 +203,82 @@ public abstract class InkTraceLike<C extends InkTraceLike<C>> extends InkAnnotat
      * @return euclidian distance
      */
     public double distance(Point p) {
-        return InkTracePoint.distanceToPoint(this, p);
+        return InkTracePoint.distanceToPoint(cursor(), p);
+    }
+
+    /**
+     * Returns a cursor over all points, see {@link TraceCursor}.
+     * @return cursor located before the first point
+     */
+    public TraceCursor cursor() {
+        return cursor("1", null);
+    }
+
+    /**
+     * Returns a cursor over the points specified like by {@link #getPoints(String, String)}.
+     * @param from
+     * @param to
+     * @return cursor located before the first point
+     */
+    public TraceCursor cursor(String from, String to) {
+        return TraceCursor.over(getPoints(from, to));
+    }
+
+    /**
+     * Copies the values of one channel of all points into the array, in the order of the points.
+     * @param name name of a channel of the canvas format
+     * @param dest the array
+     * @param offset index within the array of the value of the first point
+     * @return number of values copied
+     */
+    public int copyChannel(ChannelName name, double[] dest, int offset) {
+        return copyChannel(cursor(), name, dest, offset);
+    }
+
+    /**
+     * Copies the values of one channel of the points specified like by {@link #getPoints(String, String)} into the array.
+     * @param name name of a channel of the canvas format
+     * @param from
+     * @param to
+     * @param dest the array
+     * @param offset index within the array of the value of the first point
+     * @return number of values copied
+     */
+    public int copyChannel(ChannelName name, String from, String to, double[] dest, int offset) {
+        return copyChannel(cursor(from, to), name, dest, offset);
+    }
+
+    private static int copyChannel(TraceCursor cursor, ChannelName name, double[] dest, int offset) {
+        int n = 0;
+        while(cursor.advance()){
+            dest[offset + n++] = cursor.get(name);
+        }
+        return n;
+    }
+
+    /**
+     * Returns a read only buffer containing the values of one channel of all points.
+     * @param name name of a channel of the canvas format
+     * @return buffer whose position is 0 and whose limit is the number of values
+     */
+    public DoubleBuffer getChannelBuffer(ChannelName name) {
+        double[] values = new double[getPointCount()];
+        int n = copyChannel(name, values, 0);
+        return DoubleBuffer.wrap(values, 0, n).slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns a read only buffer containing the values of one channel of the points
+     * specified like by {@link #getPoints(String, String)}.
+     * @param name name of a channel of the canvas format
+     * @param from
+     * @param to
+     * @return buffer whose position is 0 and whose limit is the number of values
+     */
+    public DoubleBuffer getChannelBuffer(ChannelName name, String from, String to) {
+        double[] values = new double[getPointCount()];
+        int n = copyChannel(name, from, to, values, 0);
+        return DoubleBuffer.wrap(values, 0, n).slice().asReadOnlyBuffer();
     }
     
     /**
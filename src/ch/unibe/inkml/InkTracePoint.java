@@ -98,14 +98,25 @@ public abstract class InkTracePoint extends Point2D {
      * @return distance to nearest point in double precision.
      */
     public static double distanceToPoint(Iterable<InkTracePoint> l, Point2D p) {
+        return distanceToPoint(TraceCursor.over(l), p);
+    }
+
+    /**
+     * Returns the distance from point p to the nearest of the points the cursor iterates over.
+     * @param cursor cursor located before the first point
+     * @param p point for which the nearest distance should be given. 
+     * @return distance to nearest point in double precision.
+     */
+    public static double distanceToPoint(TraceCursor cursor, Point2D p) {
         double dist = java.lang.Double.MAX_VALUE;
-        for(InkTracePoint po : l) {
-            double d = po.distance(p);
+        double px = p.getX(), py = p.getY();
+        while(cursor.advance()) {
+            double d = Point2D.distanceSq(cursor.getX(), cursor.getY(), px, py);
             if(d < dist) {
                 dist = d;
             }
         }
-        return dist;
+        return (dist == java.lang.Double.MAX_VALUE) ? dist : Math.sqrt(dist);
     }
     
     /**
@@ -136,10 +147,19 @@ public abstract class InkTracePoint extends Point2D {
      * @return
      */
     public static Point2D getCenterOfGravity(Iterable<InkTracePoint> points) {
+        return getCenterOfGravity(TraceCursor.over(points));
+    }
+
+    /**
+     * Returns the center of gravity of the points the cursor iterates over.
+     * @param cursor cursor located before the first point
+     * @return
+     */
+    public static Point2D getCenterOfGravity(TraceCursor cursor) {
         double x = 0,y = 0, i = 0;
-        for(InkTracePoint p : points){
-            x += p.getX();
-            y += p.getY();
+        while(cursor.advance()){
+            x += cursor.getX();
+            y += cursor.getY();
             i++;
         }
         return new Point2D.Double(x/i,y/i);
@@ -223,7 +223,7 @@ public abstract class InkTraceView extends InkTraceLike<InkTraceView> implements
 	 * @return distance values
 	 */
 	public double distance(Point2D p) {
-        return InkTracePoint.distanceToPoint(this.getPoints(), p);
+        return InkTracePoint.distanceToPoint(this.cursor(), p);
     }
 
     /**
@@ -242,7 +242,7 @@ public abstract class InkTraceView extends InkTraceLike<InkTraceView> implements
 	 * @return center of gravity point
 	 */
 	public Point2D getCenterOfGravity() {
-        return InkTracePoint.getCenterOfGravity(this.getPoints());
+        return InkTracePoint.getCenterOfGravity(this.cursor());
     }
 
 
@@ -15,6 +15,7 @@ import org.w3c.dom.Node;
 import ch.unibe.eindermu.utils.Aspect;
 import ch.unibe.eindermu.utils.Observable;
 import ch.unibe.eindermu.utils.Observer;
+import ch.unibe.inkml.InkChannel.ChannelName;
 import ch.unibe.inkml.util.AbstractTraceFilter;
 import ch.unibe.inkml.util.Timespan;
 import ch.unibe.inkml.util.TraceBound;
@@ -95,7 +96,7 @@ public class InkTraceViewContainer extends InkTraceView implements Observer {
         parent.appendChild(traceViewNode);
         prepairForExport(parent);
         
-		super.exportToInkML(traceViewNode);
+		exportHeader(traceViewNode);
 		if(!this.content.isEmpty()){
 			for(InkTraceView child : this.content){
 				child.exportToInkML(traceViewNode);
@@ -103,6 +104,15 @@ public class InkTraceViewContainer extends InkTraceView implements Observer {
 		}
 	}
 
+	/**
+	 * Writes the attributes and the annotations of this container to the traceGroup element.
+	 * @param traceViewNode
+	 * @throws InkMLComplianceException
+	 */
+	void exportHeader(Element traceViewNode) throws InkMLComplianceException {
+		super.exportToInkML(traceViewNode);
+	}
+
 	/**
 	 * Adds each InkTraceView of the list to this container 
 	 * @param viewList list of InkTraceView
@@ -387,6 +397,19 @@ public class InkTraceViewContainer extends InkTraceView implements Observer {
         return pointList;
     }
 
+    /**
+     * {@inheritDoc}
+     * The values of the views contained are concatenated.
+     */
+    @Override
+    public int copyChannel(ChannelName name, double[] dest, int offset) {
+        int n = 0;
+        for(InkTraceView view : this.content){
+            n += view.copyChannel(name, dest, offset + n);
+        }
+        return n;
+    }
+
     @Override
     public InkTracePoint getPoint(int i) {
         int offset = 0;
@@ -2,6 +2,7 @@ package ch.unibe.inkml;
 
 import java.awt.Graphics2D;
 import java.awt.Polygon;
+import java.nio.DoubleBuffer;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -10,6 +11,7 @@ import org.w3c.dom.Element;
 
 import ch.unibe.eindermu.utils.Aspect;
 import ch.unibe.eindermu.utils.Observer;
+import ch.unibe.inkml.InkChannel.ChannelName;
 import ch.unibe.inkml.util.Timespan;
 import ch.unibe.inkml.util.TraceBound;
 import ch.unibe.inkml.util.TraceVisitor;
@@ -70,6 +72,15 @@ public class InkTraceViewLeaf extends InkTraceView {
         Element traceViewNode = parent.getOwnerDocument().createElement(INKML_NAME);
         parent.appendChild(traceViewNode);
         prepairForExport(parent);
+        exportHeader(traceViewNode);
+    }
+
+    /**
+     * Writes the attributes and the annotations of this view to the traceView element.
+     * @param traceViewNode
+     * @throws InkMLComplianceException
+     */
+    void exportHeader(Element traceViewNode) throws InkMLComplianceException {
         super.exportToInkML(traceViewNode);
         writeAttribute(traceViewNode,INKML_ATTR_TRACEDATA_REF,getTraceDataRef(),"");
         if(!getFrom().equals("1")){
@@ -167,6 +178,36 @@ public class InkTraceViewLeaf extends InkTraceView {
 		return this.getTrace().getPoints(from, to);
 	}
 
+    @Override
+    public TraceCursor cursor() {
+        return this.getTrace().cursor(getFrom(), getTo());
+    }
+
+    @Override
+    public TraceCursor cursor(String from, String to) {
+        return this.getTrace().cursor(from, to);
+    }
+
+    @Override
+    public int copyChannel(ChannelName name, double[] dest, int offset) {
+        return this.getTrace().copyChannel(name, getFrom(), getTo(), dest, offset);
+    }
+
+    @Override
+    public int copyChannel(ChannelName name, String from, String to, double[] dest, int offset) {
+        return this.getTrace().copyChannel(name, from, to, dest, offset);
+    }
+
+    @Override
+    public DoubleBuffer getChannelBuffer(ChannelName name) {
+        return this.getTrace().getChannelBuffer(name, getFrom(), getTo());
+    }
+
+    @Override
+    public DoubleBuffer getChannelBuffer(ChannelName name, String from, String to) {
+        return this.getTrace().getChannelBuffer(name, from, to);
+    }
+
 	/**
 	 * Returns the trace, trace group, or traceview represented by this TraceView.
 	 * @return the referenced trace
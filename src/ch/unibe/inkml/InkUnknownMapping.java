@@ -25,7 +25,7 @@ public class InkUnknownMapping extends InkMapping {
 	}
 
     @Override
-    public void transform(double[][] sourcePoints, double[][] points,
+    public void transformColumns(double[][] sourcePoints, double[][] points,
             InkTraceFormat sourceFormat, InkTraceFormat targetFormat)
             throws InkMLComplianceException {
         int[] targetIndices = new int[sourceFormat.getChannelCount()];
@@ -33,15 +33,13 @@ public class InkUnknownMapping extends InkMapping {
         for(InkChannel c : sourceFormat){
             targetIndices[i++] = targetFormat.indexOf(c.getName());
         }
-        for (i = 0;i<sourcePoints.length;i++){
-            for(int c = 0; c<targetIndices.length;c++){
-                points[i][targetIndices[c]] = sourcePoints[i][c];
-            }
+        for(int c = 0; c<targetIndices.length;c++){
+            System.arraycopy(sourcePoints[c], 0, points[targetIndices[c]], 0, sourcePoints[c].length);
         }
     }
     
     @Override
-    public void backTransform(double[][] sourcePoints, double[][] points,
+    public void backTransformColumns(double[][] sourcePoints, double[][] points,
             InkTraceFormat canvasFormat, InkTraceFormat sourceFormat)
             throws InkMLComplianceException {
         int[] targetIndices = new int[sourceFormat.getChannelCount()];
@@ -49,10 +47,8 @@ public class InkUnknownMapping extends InkMapping {
         for(InkChannel c : sourceFormat){
             targetIndices[i++] = canvasFormat.indexOf(c.getName());
         }
-        for (i = 0;i<sourcePoints.length;i++){
-            for(int c = 0; c<targetIndices.length;c++){
-                sourcePoints[i][c] = points[i][targetIndices[c]];
-            }
+        for(int c = 0; c<targetIndices.length;c++){
+            System.arraycopy(points[targetIndices[c]], 0, sourcePoints[c], 0, sourcePoints[c].length);
         }
         
     }
@@ -0,0 +1,170 @@
+package ch.unibe.inkml;
+
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+
+/**
+ * Provides an InkML document contained by a (memory mapped) buffer to an XML parser.
+ *
+ * The content of each <code>trace</code> element is replaced by the processing instruction
+ * <code>&lt;?inkml-trace offset length?&gt;</code>, which specifies where the trace data
+ * is located in the buffer. Like this the parser does not process the trace data, and it can be
+ * decoded directly from the buffer.
+ * Only trace data consisting of ASCII characters other than <code>&amp;</code> is replaced,
+ * and only if the document is stored in an ASCII compatible encoding.
+ * Everything else is passed to the parser unchanged.
+ *
+ * @author emanuel
+ */
+class MappedInkInputStream extends InputStream {
+
+    /**
+     * Target of the processing instruction replacing the trace data.
+     */
+    static final String PI_TARGET = "inkml-trace";
+
+    /**
+     * Shorter trace data is not worth to be replaced.
+     */
+    private static final int MIN_LENGTH = 32;
+
+    private ByteBuffer buffer;
+
+    private MarkupScanner markup;
+
+    /**
+     * Used for bulk reads, its position is changed.
+     */
+    private ByteBuffer view;
+
+    private int limit;
+
+    private boolean replace;
+
+    /**
+     * Index of the next byte to be delivered
+     */
+    private int pos = 0;
+
+    /**
+     * Bytes before this index can be delivered without looking at them.
+     */
+    private int plainUntil = 0;
+
+    /**
+     * Processing instruction to be delivered when plainUntil is reached, null if there is none.
+     */
+    private byte[] insert;
+
+    private int insertPos;
+
+    /**
+     * Index to continue with after the processing instruction has been delivered.
+     */
+    private int resume;
+
+    /**
+     * @param buffer buffer containing the document from index 0 to its limit.
+     */
+    MappedInkInputStream(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.view = buffer.duplicate();
+        this.limit = buffer.limit();
+        this.markup = new MarkupScanner(buffer);
+        this.replace = markup.isAsciiCompatible();
+    }
+
+    @Override
+    public int read() {
+        byte[] b = new byte[1];
+        return (read(b, 0, 1) == -1) ? -1 : (b[0] & 0xff);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if(len == 0){
+            return 0;
+        }
+        if(pos == plainUntil){
+            if(insert != null){
+                int n = Math.min(len, insert.length - insertPos);
+                System.arraycopy(insert, insertPos, b, off, n);
+                insertPos += n;
+                if(insertPos == insert.length){
+                    insert = null;
+                    pos = resume;
+                    plainUntil = resume;
+                }
+                return n;
+            }
+            if(pos >= limit){
+                return -1;
+            }
+            scan();
+        }
+        int n = Math.min(len, plainUntil - pos);
+        view.position(pos);
+        view.get(b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return plainUntil - pos;
+    }
+
+    /**
+     * Determines how many bytes starting at pos can be delivered unchanged, and whether
+     * trace data follows them.
+     */
+    private void scan() {
+        if(!replace){
+            plainUntil = limit;
+            return;
+        }
+        int kind = markup.kind(pos);
+        plainUntil = markup.end(pos, kind);
+        if(kind == MarkupScanner.START_TAG){
+            checkTrace(pos + 1, plainUntil);
+        }
+    }
+
+    /**
+     * If the start tag is the one of a trace element containing only trace data, the processing
+     * instruction replacing the data is prepared.
+     * @param nameStart index of the first character of the element name
+     * @param tagEnd index after the end of the start tag
+     */
+    private void checkTrace(int nameStart, int tagEnd) {
+        if(tagEnd >= limit){
+            return;
+        }
+        int nameEnd = markup.endOfName(nameStart, tagEnd);
+        if(!markup.matches(InkTraceLeaf.INKML_NAME, markup.startOfLocalName(nameStart, nameEnd), nameEnd)){
+            return;
+        }
+        int dataEnd = tagEnd;
+        while(dataEnd < limit){
+            byte c = buffer.get(dataEnd);
+            if(c == '<'){
+                break;
+            }
+            if(c == '&' || c < 0){
+                return;
+            }
+            dataEnd++;
+        }
+        if(dataEnd - tagEnd < MIN_LENGTH || !markup.isEndTag(dataEnd, nameStart, nameEnd)){
+            return;
+        }
+        try {
+            insert = ("<?" + PI_TARGET + " " + tagEnd + " " + (dataEnd - tagEnd) + "?>").getBytes("US-ASCII");
+        } catch (UnsupportedEncodingException e) {
+            throw new Error(e);
+        }
+        insertPos = 0;
+        resume = dataEnd;
+    }
+}
@@ -0,0 +1,229 @@
+package ch.unibe.inkml;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Finds the markup of an XML document contained by a byte buffer, without parsing it.
+ * The buffer is accessed by absolute indices, its position and limit are not changed.
+ * Only documents stored in an ASCII compatible encoding can be scanned, see {@link #isAsciiCompatible()}.
+ *
+ * @see MappedInkInputStream
+ * @see InkIndex
+ * @author emanuel
+ */
+class MarkupScanner {
+
+    static final int TEXT = 0;
+    static final int COMMENT = 1;
+    static final int CDATA = 2;
+    static final int PROCESSING_INSTRUCTION = 3;
+    static final int DECLARATION = 4;
+    static final int END_TAG = 5;
+    static final int START_TAG = 6;
+    static final int EMPTY_ELEMENT_TAG = 7;
+
+    private ByteBuffer buffer;
+
+    private int limit;
+
+    /**
+     * @param buffer buffer containing the document from index 0 to its limit.
+     */
+    MarkupScanner(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.limit = buffer.limit();
+    }
+
+    int getLimit() {
+        return limit;
+    }
+
+    byte get(int i) {
+        return buffer.get(i);
+    }
+
+    /**
+     * @param pos index of a character which is not part of any markup or text found before
+     * @return the kind of markup or text starting at pos
+     */
+    int kind(int pos) {
+        if(buffer.get(pos) != '<'){
+            return TEXT;
+        }else if(startsWith("<!--", pos)){
+            return COMMENT;
+        }else if(startsWith("<![CDATA[", pos)){
+            return CDATA;
+        }else if(startsWith("<?", pos)){
+            return PROCESSING_INSTRUCTION;
+        }else if(startsWith("<!", pos)){
+            return DECLARATION;
+        }else if(startsWith("</", pos)){
+            return END_TAG;
+        }
+        int end = endOfTag(pos + 1);
+        return (end <= limit && buffer.get(end - 2) == '/') ? EMPTY_ELEMENT_TAG : START_TAG;
+    }
+
+    /**
+     * @param pos index where the markup or text begins
+     * @param kind the kind of markup or text as returned by {@link #kind(int)}
+     * @return index after the end of the markup or text
+     */
+    int end(int pos, int kind) {
+        switch(kind){
+        case TEXT:
+            return indexOf("<", pos);
+        case COMMENT:
+            return endOf("-->", pos + 4);
+        case CDATA:
+            return endOf("]]>", pos + 9);
+        case PROCESSING_INSTRUCTION:
+            return endOf("?>", pos + 2);
+        case DECLARATION:
+            return endOfDeclaration(pos + 2);
+        case END_TAG:
+            return endOf(">", pos + 2);
+        default:
+            return endOfTag(pos + 1);
+        }
+    }
+
+    /**
+     * @param nameStart index of the first character of an element name
+     * @param tagEnd index after the end of the tag
+     * @return index after the last character of the element name
+     */
+    int endOfName(int nameStart, int tagEnd) {
+        int nameEnd = nameStart;
+        while(nameEnd < tagEnd && !isNameEnd(buffer.get(nameEnd))){
+            nameEnd++;
+        }
+        return nameEnd;
+    }
+
+    /**
+     * @param nameStart index of the first character of an element name
+     * @param nameEnd index after the last character of the element name
+     * @return index of the first character of the local name, which follows the prefix
+     */
+    int startOfLocalName(int nameStart, int nameEnd) {
+        for(int i = nameEnd - 1; i >= nameStart; i--){
+            if(buffer.get(i) == ':'){
+                return i + 1;
+            }
+        }
+        return nameStart;
+    }
+
+    /**
+     * @return true if at index i the end tag of the element with the specified name begins
+     */
+    boolean isEndTag(int i, int nameStart, int nameEnd) {
+        if(!startsWith("</", i)){
+            return false;
+        }
+        i += 2;
+        for(int k = nameStart; k < nameEnd; k++, i++){
+            if(i >= limit || buffer.get(i) != buffer.get(k)){
+                return false;
+            }
+        }
+        while(i < limit && isWhiteSpace(buffer.get(i))){
+            i++;
+        }
+        return i < limit && buffer.get(i) == '>';
+    }
+
+    /**
+     * @return index after the '&gt;' closing the tag, respecting quoted attribute values
+     */
+    private int endOfTag(int i) {
+        byte quote = 0;
+        for(; i < limit; i++){
+            byte c = buffer.get(i);
+            if(quote != 0){
+                if(c == quote){
+                    quote = 0;
+                }
+            }else if(c == '"' || c == '\''){
+                quote = c;
+            }else if(c == '>'){
+                return i + 1;
+            }
+        }
+        return limit;
+    }
+
+    /**
+     * @return index after the '&gt;' closing a declaration such as DOCTYPE, respecting an internal subset
+     */
+    private int endOfDeclaration(int i) {
+        int depth = 0;
+        byte quote = 0;
+        for(; i < limit; i++){
+            byte c = buffer.get(i);
+            if(quote != 0){
+                if(c == quote){
+                    quote = 0;
+                }
+            }else if(c == '"' || c == '\''){
+                quote = c;
+            }else if(c == '['){
+                depth++;
+            }else if(c == ']'){
+                depth--;
+            }else if(c == '>' && depth <= 0){
+                return i + 1;
+            }
+        }
+        return limit;
+    }
+
+    private int indexOf(String s, int from) {
+        for(int i = from; i < limit; i++){
+            if(startsWith(s, i)){
+                return i;
+            }
+        }
+        return limit;
+    }
+
+    private int endOf(String s, int from) {
+        return Math.min(limit, indexOf(s, from) + s.length());
+    }
+
+    boolean startsWith(String s, int i) {
+        return i + s.length() <= limit && matches(s, i, i + s.length());
+    }
+
+    boolean matches(String s, int start, int end) {
+        if(end - start != s.length()){
+            return false;
+        }
+        for(int k = 0; k < s.length(); k++){
+            if(buffer.get(start + k) != s.charAt(k)){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isNameEnd(byte c) {
+        return c == '/' || c == '>' || isWhiteSpace(c);
+    }
+
+    private boolean isWhiteSpace(byte c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+    }
+
+    /**
+     * UTF-16 and UTF-32 documents start with a byte order mark or a zero byte.
+     */
+    boolean isAsciiCompatible() {
+        if(limit < 2){
+            return false;
+        }
+        int b0 = buffer.get(0) & 0xff, b1 = buffer.get(1) & 0xff;
+        return !(b0 == 0 || b1 == 0 || (b0 == 0xfe && b1 == 0xff) || (b0 == 0xff && b1 == 0xfe));
+    }
+}
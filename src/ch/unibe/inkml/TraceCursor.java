@@ -0,0 +1,108 @@
+package ch.unibe.inkml;
+
+import java.util.Iterator;
+
+import ch.unibe.inkml.InkChannel.ChannelName;
+
+/**
+ * A cursor iterates over the points of a trace without creating an object for each point.
+ * The cursor itself represents the point it is located at, so it must not be kept as a point
+ * after the cursor has been advanced. Use {@link InkTraceLike#getPoint(int)} to get points which can be kept.
+ *
+ * A new cursor is located before the first point:
+ * <pre>
+ * TraceCursor c = trace.cursor();
+ * while(c.advance()){
+ *     sum += c.getX();
+ * }
+ * </pre>
+ * A cursor is only valid as long as the points of the trace are not added or retransformed.
+ *
+ * @author emanuel
+ */
+public abstract class TraceCursor extends InkTracePoint {
+
+    /**
+     * Moves the cursor to the next point.
+     * @return false if there is no next point
+     */
+    public abstract boolean advance();
+
+    /**
+     * Moves the cursor before the first point again.
+     */
+    public abstract void reset();
+
+    /**
+     * @return index of the point the cursor is located at, relative to the first point of the cursor
+     */
+    public abstract int index();
+
+    /**
+     * Creates a cursor delegating to the points of the iterable. This is used by traces which do not
+     * provide a more efficient cursor.
+     * @param points
+     * @return the cursor
+     */
+    public static TraceCursor over(Iterable<InkTracePoint> points) {
+        return new IterableCursor(points);
+    }
+
+    private static class IterableCursor extends TraceCursor {
+        private Iterable<InkTracePoint> points;
+
+        private Iterator<InkTracePoint> iterator;
+
+        private InkTracePoint current;
+
+        private int index;
+
+        IterableCursor(Iterable<InkTracePoint> points) {
+            this.points = points;
+            reset();
+        }
+
+        @Override
+        public boolean advance() {
+            if(!iterator.hasNext()){
+                current = null;
+                return false;
+            }
+            current = iterator.next();
+            index++;
+            return true;
+        }
+
+        @Override
+        public void reset() {
+            iterator = points.iterator();
+            current = null;
+            index = -1;
+        }
+
+        @Override
+        public int index() {
+            return index;
+        }
+
+        @Override
+        public double get(ChannelName channel) {
+            return current.get(channel);
+        }
+
+        @Override
+        public Object getObject(ChannelName channel) {
+            return current.getObject(channel);
+        }
+
+        @Override
+        public void set(ChannelName channel, double d) {
+            current.set(channel, d);
+        }
+
+        @Override
+        public void set(ChannelName channel, Object value) {
+            current.set(channel, value);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package ch.unibe.inkml;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A mapping compiled for one pair of source and target format, see {@link InkCanvasTransform#getPlan(InkTraceFormat, InkTraceFormat)}.
+ *
+ * The channel indices are resolved once, and product mappings of identity and affine mappings are fused
+ * into one set of rows, one for each target channel. As with {@link InkProductMapping#transformColumns(double[][], double[][], InkTraceFormat, InkTraceFormat)},
+ * a target channel set by several mappings of a product gets the value of the last one.
+ * Each row is either a copy of a source channel, or a weighted sum of source channels plus a translation,
+ * evaluated by {@link InkMatrix#transformChannel(double[][], int[], double[], double[], double[], int, double[], int)}.
+ * Rows refer to the arrays of the matrices, which is safe since a plan is not used after its matrices changed.
+ * Plans of other mappings delegate to the mapping.
+ *
+ * Plans do not change and can be used by several threads.
+ *
+ * @author emanuel
+ */
+class TransformPlan {
+
+    /**
+     * The transformation of one target channel.
+     */
+    private static class Row {
+        /**
+         * Index of the source channel to copy, -1 if the row is a weighted sum
+         */
+        int copy = -1;
+        int[] sources;
+        double[] weights;
+        /**
+         * Translation of the matrix, null if it has none
+         */
+        double[] translation;
+        int index;
+    }
+
+    private final InkMapping mapping;
+
+    private final InkTraceFormat sourceFormat;
+
+    private final InkTraceFormat targetFormat;
+
+    /**
+     * rows[target channel], an element is null if the channel is not set by the mapping.
+     * Null if the mapping is not compiled.
+     */
+    private Row[] rows;
+
+    /**
+     * Matrices the rows have been taken from, and their versions at that time.
+     */
+    private List<InkMatrix> matrices = new ArrayList<InkMatrix>();
+
+    private List<Integer> versions = new ArrayList<Integer>();
+
+    private TransformPlan(InkMapping mapping, InkTraceFormat sourceFormat, InkTraceFormat targetFormat) {
+        this.mapping = mapping;
+        this.sourceFormat = sourceFormat;
+        this.targetFormat = targetFormat;
+    }
+
+    /**
+     * Compiles the mapping for the formats.
+     * @param mapping
+     * @param sourceFormat
+     * @param targetFormat
+     * @return the plan
+     * @throws InkMLComplianceException if the mapping does not fit the formats
+     */
+    static TransformPlan compile(InkMapping mapping, InkTraceFormat sourceFormat, InkTraceFormat targetFormat) throws InkMLComplianceException {
+        TransformPlan plan = new TransformPlan(mapping, sourceFormat, targetFormat);
+        Row[] rows = new Row[targetFormat.getChannelCount()];
+        if(plan.add(mapping, rows)){
+            plan.rows = rows;
+        }
+        return plan;
+    }
+
+    /**
+     * Adds the rows of the mapping.
+     * @return false if the mapping can not be compiled
+     */
+    private boolean add(InkMapping mapping, Row[] rows) throws InkMLComplianceException {
+        switch(mapping.getType()){
+        case IDENTITY:
+            int s = 0;
+            for(InkChannel c : sourceFormat){
+                if(!targetFormat.containsChannel(c.getName())){
+                    return false;
+                }
+                Row row = new Row();
+                row.copy = s++;
+                rows[targetFormat.indexOf(c.getName())] = row;
+            }
+            return true;
+        case AFFINE:
+            InkAffineMapping affine = (InkAffineMapping) mapping;
+            InkMatrix matrix = affine.getInkMatrix();
+            int[] sourceIndices = affine.getSourceIndices(sourceFormat);
+            int[] targetIndices = affine.getTargetIndices(targetFormat);
+            double[][] m = matrix.getMatrix();
+            double[] translation = matrix.getTranslation();
+            if(m.length > targetIndices.length){
+                return false;
+            }
+            for(int y = 0;y<m.length;y++){
+                if(m[y].length > sourceIndices.length){
+                    return false;
+                }
+                Row row = new Row();
+                row.sources = new int[m[y].length];
+                System.arraycopy(sourceIndices, 0, row.sources, 0, m[y].length);
+                row.weights = m[y];
+                row.translation = translation;
+                row.index = y;
+                rows[targetIndices[y]] = row;
+            }
+            matrices.add(matrix);
+            versions.add(matrix.getVersion());
+            return true;
+        case PRODUCT:
+            for(InkMapping part : ((InkProductMapping) mapping).getMappings()){
+                if(!add(part, rows)){
+                    return false;
+                }
+            }
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * @return true if the plan has been compiled for these formats
+     */
+    boolean isFor(InkTraceFormat sourceFormat, InkTraceFormat targetFormat) {
+        return this.sourceFormat == sourceFormat && this.targetFormat == targetFormat;
+    }
+
+    /**
+     * @param mapping the mapping the plan should represent
+     * @return true if the plan has been compiled from the mapping, and its matrices have not changed since
+     */
+    boolean isCurrent(InkMapping mapping) {
+        if(this.mapping != mapping){
+            return false;
+        }
+        for(int i = 0;i<matrices.size();i++){
+            if(matrices.get(i).getVersion() != versions.get(i)){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Transforms points from the source format to the target format.
+     * @param sourcePoints sourcePoints[channel][point]
+     * @param points points[channel][point], receives the transformed points
+     * @throws InkMLComplianceException
+     */
+    void transform(double[][] sourcePoints, double[][] points) throws InkMLComplianceException {
+        if(rows == null || shares(sourcePoints, points)){
+            mapping.transformColumns(sourcePoints, points, sourceFormat, targetFormat);
+            return;
+        }
+        for(int t = 0;t<rows.length;t++){
+            Row row = rows[t];
+            if(row == null){
+                continue;
+            }
+            double[] target = points[t];
+            if(row.copy >= 0){
+                System.arraycopy(sourcePoints[row.copy], 0, target, 0, sourcePoints[row.copy].length);
+                continue;
+            }
+            int length = (row.sources.length > 0) ? sourcePoints[row.sources[0]].length : target.length;
+            InkMatrix.transformChannel(sourcePoints, row.sources, null, row.weights, row.translation, row.index, target, length);
+        }
+    }
+
+    /**
+     * @return true if a channel of the points is also a channel of the source points,
+     * in which case the rows could read values they have already overwritten
+     */
+    private boolean shares(double[][] sourcePoints, double[][] points) {
+        for(double[] target : points){
+            for(double[] source : sourcePoints){
+                if(target == source){
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
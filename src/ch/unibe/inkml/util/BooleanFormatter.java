@@ -19,6 +19,10 @@ public class BooleanFormatter extends Formatter {
 		return valueOf(next);
 	}
 
+	public void appendNext(double next, StringBuilder out){
+		out.append((next>0.5)?'T':'F');
+	}
+
 	protected String valueOf(double n) {
 		return (n>0.5)?"T":"F";
 	}
@@ -53,21 +57,21 @@ public class BooleanFormatter extends Formatter {
      * @throws InkMLComplianceException 
      */
     @Override
-    public double consume(String result) throws InkMLComplianceException {
-        if(result.equals("T")){
+    public double consume(char prefix, double value) throws InkMLComplianceException {
+        if(prefix == 'T'){
             this.setLastValue(1.0);
             return 1.0;
-        }else if(result.equals("F")){
+        }else if(prefix == 'F'){
             this.setLastValue(0.0);
             return 0.0;
-        }else if(result.equals("*")){
+        }else if(prefix == '*'){
             if(!hasLastValue()){
                 throw new InkMLComplianceException("For this channel the value '*'  is not accepted in the first place");
             }
             return getLastValue();
         }else if(!this.getChannel().isIntermittent()){
             throw new InkMLComplianceException("A non intermittent boolean channel only accepts T or F or '*'");
-        }else if(result.equals("?")){
+        }else if(prefix == '?'){
             //point.set(this.getChannel().getName(), this.getChannel().getDefaultValue());
             unsetLastValue();
             return Double.NaN;
@@ -7,9 +7,20 @@ import ch.unibe.inkml.InkTracePoint;
 
 
 abstract public class Formatter {
+    /**
+     * Prefix of a token which consists of an explicit number without qualifier.
+     */
+    public static final char NO_PREFIX = ' ';
+
+    /**
+     * Number of decimal places written by default.
+     */
+    public static final int DEFAULT_PRECISION = 3;
+
 	private InkChannel c;
 	private double lastValue = 0;
 	private boolean hasLastValue = false;
+	private int precision = DEFAULT_PRECISION;
 	public Formatter(InkChannel c) {
 		this.c = c;
 	}
@@ -23,6 +34,29 @@ abstract public class Formatter {
 	abstract public String getNext(double next);
 	abstract protected String valueOf(double n);
 
+	/**
+	 * Appends the same text as returned by {@link #getNext(double)} to the builder,
+	 * without creating intermediate strings.
+	 * @param next the next value of the channel
+	 * @param out builder the text is appended to
+	 */
+	abstract public void appendNext(double next, StringBuilder out);
+
+	/**
+	 * Sets the number of decimal places of the written values. The default is {@link #DEFAULT_PRECISION}.
+	 * @param precision number of decimal places, between 0 and 18
+	 */
+	public void setPrecision(int precision) {
+	    if(precision < 0 || precision > 18){
+	        throw new IllegalArgumentException("The precision must be between 0 and 18, not "+precision);
+	    }
+	    this.precision = precision;
+	}
+
+	public int getPrecision() {
+	    return precision;
+	}
+
 	public void setLastValue(double value){
 		lastValue = value;
 		hasLastValue = true;
@@ -48,6 +82,32 @@ abstract public class Formatter {
      * @return the double which has been extracted from the string in the current context
      * @throws InkMLComplianceException 
      */
-    public abstract double consume(String result) throws InkMLComplianceException;
-	
+    public double consume(String result) throws InkMLComplianceException {
+        char prefix = result.charAt(0);
+        switch(prefix){
+        case '!':
+        case '\'':
+        case '"':
+            return consume(prefix, Double.parseDouble(result.substring(1)));
+        case '*':
+        case '?':
+        case ',':
+        case 'T':
+        case 'F':
+            return consume(prefix, Double.NaN);
+        default:
+            return consume(NO_PREFIX, Double.parseDouble(result));
+        }
+    }
+
+    /**
+     * Return the double for a token which has already been split into its prefix and its numerical value,
+     * as done by {@link TraceDataTokenizer}.
+     * @param prefix one of <code>, F T * ? " ' !</code> or {@link #NO_PREFIX}
+     * @param value numerical value of the token, NaN if the token has none
+     * @return the double represented by the token in the current context
+     * @throws InkMLComplianceException
+     */
+    public abstract double consume(char prefix, double value) throws InkMLComplianceException;
+
 }
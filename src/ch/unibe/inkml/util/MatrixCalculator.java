@@ -86,29 +86,174 @@ public class MatrixCalculator {
 
 	// --------------------------------------------------------------
 
+	/**
+	 * Computes the inverse by LU decomposition with partial pivoting, which needs
+	 * O(n^3) operations instead of the determinants of all cofactors.
+	 * @param a square matrix
+	 * @return the inverse
+	 * @throws IllegalArgumentException if the matrix is not invertible
+	 */
 	public double[][] Inverse(final double[][] a) {
-		// Formula used to Calculate Inverse:
-		// inv(A) = 1/det(A) * adj(A)
 		int tms = a.length;
+		int[] permutation = new int[tms];
+		double[][] lu = clone(a);
+		if (decompose(lu, permutation) == 0) {
+			throw new IllegalArgumentException("Determinant Equals 0, Not Invertible.");
+		}
+
+		return inverse(lu, permutation);
+	}
 
+	/**
+	 * @param lu decomposition of an invertible matrix, see {@link #decompose(double[][], int[])}
+	 * @param permutation permutation of the decomposition
+	 * @return the inverse of the matrix
+	 */
+	private double[][] inverse(final double[][] lu, final int[] permutation) {
+		int tms = lu.length;
 		double m[][] = new double[tms][tms];
-		double mm[][] = Adjoint(a);
+		double[] column = new double[tms];
+		for (int j = 0; j < tms; j++) {
+			for (int i = 0; i < tms; i++) {
+				column[i] = (permutation[i] == j) ? 1 : 0;
+			}
+			substitute(lu, column);
+			for (int i = 0; i < tms; i++) {
+				m[i][j] = column[i];
+			}
+		}
+		return m;
+	}
 
-		double det = Determinant(a);
-		double dd = 0;
+	// --------------------------------------------------------------
 
-		if (det == 0) {
+	/**
+	 * Solves the linear system a * x = b.
+	 * @param a square matrix
+	 * @param b right hand side, not changed
+	 * @return x
+	 * @throws IllegalArgumentException if the matrix is not invertible
+	 */
+	public double[] Solve(final double[][] a, final double[] b) {
+		int tms = a.length;
+		if (b.length != tms) {
+			throw new IllegalArgumentException("Matrix Size Mismatch");
+		}
+		int[] permutation = new int[tms];
+		double[][] lu = clone(a);
+		if (decompose(lu, permutation) == 0) {
 			throw new IllegalArgumentException("Determinant Equals 0, Not Invertible.");
-		} else {
-			dd = 1 / det;
 		}
+		double[] x = new double[tms];
+		for (int i = 0; i < tms; i++) {
+			x[i] = b[permutation[i]];
+		}
+		substitute(lu, x);
+		return x;
+	}
 
-		for (int i = 0; i < tms; i++)
-			for (int j = 0; j < tms; j++) {
-				m[i][j] = dd * mm[i][j];
+	// --------------------------------------------------------------
+
+	/**
+	 * Computes the condition number of the matrix in the 1-norm, ||a|| * ||inv(a)||.
+	 * It is 1 for orthogonal matrices and large for matrices whose inverse is not accurate;
+	 * about log10 of it decimal digits are lost when inverting.
+	 * @param a square matrix
+	 * @return the condition number, infinite if the matrix is not invertible
+	 */
+	public double ConditionNumber(final double[][] a) {
+		int tms = a.length;
+		int[] permutation = new int[tms];
+		double[][] lu = clone(a);
+		if (decompose(lu, permutation) == 0) {
+			return Double.POSITIVE_INFINITY;
+		}
+		return norm(a) * norm(inverse(lu, permutation));
+	}
+
+	/**
+	 * @return the maximum absolute column sum
+	 */
+	private double norm(final double[][] a) {
+		double max = 0;
+		for (int j = 0; j < a[0].length; j++) {
+			double sum = 0;
+			for (int i = 0; i < a.length; i++) {
+				sum += Math.abs(a[i][j]);
+			}
+			max = Math.max(max, sum);
+		}
+		return max;
+	}
+
+	// --------------------------------------------------------------
+
+	/**
+	 * Decomposes the matrix in place into a lower triangle L with ones on the diagonal
+	 * and an upper triangle U, such that L * U is the matrix with its rows permuted.
+	 * In each column the row with the largest absolute value is chosen as pivot.
+	 * @param lu square matrix, receives L below and U on and above the diagonal
+	 * @param permutation receives the permutation: row i of L * U is row permutation[i] of the matrix
+	 * @return 1 or -1, the sign of the permutation, or 0 if the matrix is singular
+	 * @throws IllegalArgumentException if the matrix is not square
+	 */
+	private int decompose(double[][] lu, int[] permutation) {
+		int tms = lu.length;
+		for (int i = 0; i < tms; i++) {
+			if (lu[i].length != tms) {
+				throw new IllegalArgumentException("Matrix is not square");
 			}
+			permutation[i] = i;
+		}
+		int sign = 1;
+		for (int col = 0; col < tms; col++) {
+			int pivot = col;
+			for (int row = col + 1; row < tms; row++) {
+				if (Math.abs(lu[row][col]) > Math.abs(lu[pivot][col])) {
+					pivot = row;
+				}
+			}
+			if (lu[pivot][col] == 0) {
+				return 0;
+			}
+			if (pivot != col) {
+				double[] temp = lu[pivot];
+				lu[pivot] = lu[col];
+				lu[col] = temp;
+				int p = permutation[pivot];
+				permutation[pivot] = permutation[col];
+				permutation[col] = p;
+				sign = -sign;
+			}
+			for (int row = col + 1; row < tms; row++) {
+				double f = lu[row][col] / lu[col][col];
+				lu[row][col] = f;
+				for (int i = col + 1; i < tms; i++) {
+					lu[row][i] -= f * lu[col][i];
+				}
+			}
+		}
+		return sign;
+	}
 
-		return m;
+	/**
+	 * Solves L * U * x = b in place by forward and back substitution.
+	 * @param lu decomposition, see {@link #decompose(double[][], int[])}
+	 * @param x the permuted right hand side, receives the solution
+	 */
+	private void substitute(final double[][] lu, double[] x) {
+		int tms = lu.length;
+		for (int i = 1; i < tms; i++) {
+			for (int j = 0; j < i; j++) {
+				x[i] -= lu[i][j] * x[j];
+			}
+		}
+		for (int i = tms - 1; i >= 0; i--) {
+			for (int j = i + 1; j < tms; j++) {
+				x[i] -= lu[i][j] * x[j];
+			}
+			x[i] /= lu[i][i];
+		}
 	}
 
 	// --------------------------------------------------------------
@@ -143,7 +288,7 @@ public class MatrixCalculator {
 				}
 
 				det = Determinant(ap);
-				m[i][j] = (float) Math.pow(-1, i + j) * det;
+				m[i][j] = Math.pow(-1, i + j) * det;
 			}
 
 		m = Transpose(m);
@@ -211,19 +356,21 @@ public class MatrixCalculator {
 		return res;
 	}
 
+	/**
+	 * Computes the determinant by LU decomposition, see {@link #decompose(double[][], int[])}.
+	 * @param matrix square matrix
+	 * @return the determinant
+	 */
 	public double Determinant(final double[][] matrix) {
 		int tms = matrix.length;
+		double[][] lu = clone(matrix);
 
-		double det = 1;
+		double det = decompose(lu, new int[tms]);
 
-		double[][] m = UpperTriangle(matrix);
-
-		for (int i = 0; i < tms; i++) {
-			det = det * m[i][i];
+		for (int i = 0; i < tms && det != 0; i++) {
+			det = det * lu[i][i];
 		} // multiply down diagonal
 
-		det = det * iDF; // adjust w/ determinant factor
-
 		return det;
 	}
 
@@ -1,11 +1,22 @@
 package ch.unibe.inkml.util;
 
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
 import ch.unibe.inkml.InkChannel;
 import ch.unibe.inkml.InkMLComplianceException;
 import ch.unibe.inkml.InkTracePoint;
 
 public class NumberFormatter extends Formatter{
 
+    private static final long[] POW10 = {
+        1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L,
+        10000000000L, 100000000000L, 1000000000000L, 10000000000000L, 100000000000000L,
+        1000000000000000L, 10000000000000000L, 100000000000000000L, 1000000000000000000L
+    };
+
+    private static final double MAX_LONG = Long.MAX_VALUE;
+
 	public double explicit = 0;
 	public boolean explicit_set = false;
 	
@@ -30,26 +41,40 @@ public class NumberFormatter extends Formatter{
 	}
 	
 	public String getNext(double next){
+	    StringBuilder out = new StringBuilder();
+	    appendNext(next, out);
+	    return out.toString();
+	}
+
+	public void appendNext(double next, StringBuilder out){
+	    if(getChannel().isIntermittent()){
+	        //intermittent channels do not accept differences
+	        appendDouble(next, getPrecision(), true, out);
+	        return;
+	    }
 	    if(state == State.EXPLICIT && !explicit_set){
 	        explicit = next;
 	        explicit_set = true;
-            return prepair(valueOf(next));
+	        appendDouble(next, getPrecision(), true, out);
 	    }else	if(state == State.EXPLICIT){
 		    speed = next-explicit;
 		    speed_set = true;
 		    state = State.FIRST_O;
 		    explicit = next;
 		    explicit_set = true;
-			return prepair("'"+valueOf(speed));
+		    out.append('\'');
+		    appendDouble(speed, getPrecision(), false, out);
 		}else{
 			double v = (next-explicit)-speed;
 			speed = next-explicit;
 			speed_set = true;
 			explicit = next;
 			explicit_set = true;
-			String mark = (state == State.FIRST_O)?"\"":"";
+			if(state == State.FIRST_O){
+			    out.append('"');
+			}
+			appendDouble(v, getPrecision(), state != State.FIRST_O, out);
 			state = State.SECOND_O;
-			return prepair(mark+valueOf(v));
 		}
 	}
 
@@ -82,8 +107,11 @@ public class NumberFormatter extends Formatter{
      * {@inheritDoc}
      */
     @Override
-    public double consume(String result) throws InkMLComplianceException {
-        switch(result.charAt(0)){
+    public double consume(char prefix, double value) throws InkMLComplianceException {
+        switch(prefix){
+        case 'T':
+        case 'F':
+            throw new InkMLComplianceException("The numerical channel '"+this.getChannel().getName().toString()+"' does not accept boolean values.");
         case '*':
             if(! hasLastValue()){
                 throw new InkMLComplianceException("The value '*'  is not accepted at the first position.");
@@ -93,29 +121,28 @@ public class NumberFormatter extends Formatter{
         case ',':
             if(!this.getChannel().isIntermittent()){
                 throw new InkMLComplianceException("For non intermittent channel '"+this.getChannel().getName().toString()+
-                        "' its not acceptable to "+((result.charAt(0)==',')?"drop the value.":"substitute the value with '?'."));
+                        "' its not acceptable to "+((prefix==',')?"drop the value.":"substitute the value with '?'."));
             }
             this.unsetLastValue();
             return Double.NaN;
         case '!':
             this.setState(NumberFormatter.State.EXPLICIT);
         case '\'':
-            if(result.charAt(0) == '\''){
+            if(prefix == '\''){
                 this.setState(NumberFormatter.State.FIRST_O);
             }
         case '"':
             if(this.getChannel().isIntermittent()){
                 throw new InkMLComplianceException("An intermittent does not accepts qualifier prefixes for the values");
             }
-            if(result.charAt(0) == '"'){
+            if(prefix == '"'){
                 if(this.getState() == NumberFormatter.State.EXPLICIT){
                     throw new InkMLComplianceException("A numerical channel cannot switch from explicit values to second order values");
                 }
                 this.setState(NumberFormatter.State.SECOND_O);
             }
-            result = result.substring(1);
         default:
-            return getValueForPoint(Double.parseDouble(result)); 
+            return getValueForPoint(value);
         }
     }
 
@@ -127,37 +154,80 @@ public class NumberFormatter extends Formatter{
     }
     
     public static String printDouble(double d){
+        StringBuilder out = new StringBuilder();
+        appendDouble(d, DEFAULT_PRECISION, false, out);
+        return out.toString();
+    }
+
+    /**
+     * Appends the value to the builder, as text parsable by {@link TraceDataTokenizer}.
+     * The value is rounded to the specified number of decimal places. Trailing zeros of the fraction
+     * are omitted, as well as the integer part if it is zero and there is a fraction. NaN is written as '?'.
+     * @param d the value
+     * @param precision number of decimal places, between 0 and 18
+     * @param out builder the text is appended to
+     */
+    public static void appendDouble(double d, int precision, StringBuilder out){
+        appendDouble(d, precision, false, out);
+    }
+
+    /**
+     * @param spaced if true, a space is written in front of values not beginning with a sign,
+     * to separate them from the preceding value.
+     */
+    private static void appendDouble(double d, int precision, boolean spaced, StringBuilder out){
         if(Double.isNaN(d)){
-            return "?";
+            out.append('?');
+            return;
         }
-        int straight = Math.abs((int)d);
-        boolean minus = d < 0;
-        
-        int rest = (int)Math.round((Math.abs(d-(double)straight) * 1000));
-        if(rest == 1000){
-            straight ++;
+        double abs = Math.abs(d);
+        if(!(abs < MAX_LONG)){
+            appendLarge(d, precision, spaced, out);
+            return;
+        }
+        long straight = (long)abs;
+        long scale = POW10[precision];
+        long rest = Math.round((abs - straight) * scale);
+        if(rest == scale){
+            straight++;
             rest = 0;
         }
-        if(rest == 0){
-            return String.valueOf(straight);
+        if(d < 0 && (straight != 0 || rest != 0)){
+            out.append('-');
+        }else if(spaced){
+            out.append(' ');
+        }
+        if(straight != 0 || rest == 0){
+            out.append(straight);
         }
-        String result = "";
-        boolean wrote = false;
-        for(int i=1;i<=3;i++){
-            if(rest % Math.pow(10, i)!=0 || wrote){
-                result = String.valueOf(((int)((rest % Math.pow(10,i))/Math.pow(10,i-1)))) + result;
-                rest = rest -(int)(rest % Math.pow(10,i));
-                wrote = true;
+        if(rest != 0){
+            int digits = precision;
+            while(rest % 10 == 0){
+                rest /= 10;
+                digits--;
+            }
+            out.append('.');
+            int end = out.length() + digits;
+            out.setLength(end);
+            for(int i = end - 1; i >= end - digits; i--){
+                out.setCharAt(i, (char) ('0' + rest % 10));
+                rest /= 10;
             }
         }
-        if(!result.isEmpty()){
-            result = "."+result;
+    }
+
+    /**
+     * Values outside of the range of long are rare, they are written by the help of BigDecimal.
+     */
+    private static void appendLarge(double d, int precision, boolean spaced, StringBuilder out){
+        if(Double.isInfinite(d)){
+            throw new IllegalArgumentException("The infinite value "+d+" can not be written to InkML");
         }
-        if(straight == 0){
-            return ((minus)?"-":"")+result;
-        }else{
-            return ((minus)?"-":"")+straight+result;
+        String value = new BigDecimal(d).setScale(precision, RoundingMode.HALF_UP).stripTrailingZeros().toPlainString();
+        if(spaced && d > 0){
+            out.append(' ');
         }
+        out.append(value);
     }
 
     private double getValueForPoint(double value){
@@ -0,0 +1,477 @@
+package ch.unibe.inkml.util;
+
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.BitSet;
+
+/**
+ * The values of one channel for all points of a trace, stored as compact as the values permit.
+ *
+ * Values are read and written as double, unknown values of intermittent channels are represented by NaN.
+ * The column is chosen by the type of the channel, see {@link #decimals(double[], boolean)},
+ * {@link #integers(double[])} and {@link #booleans(double[])}. If the values do not fit into the compact
+ * representation, for example because an integer channel contains fractions after a transformation,
+ * the values are stored as double. Only the storage of decimals as float looses precision.
+ *
+ * Columns can be moved to direct memory allocated by a {@link PointStore}, see {@link #moveTo(PointStore)}.
+ *
+ * @author emanuel
+ */
+public abstract class PointColumn {
+
+    /**
+     * Points whose value is unknown, null if all values are known.
+     * Only used by columns which can not represent NaN.
+     */
+    protected BitSet unknown;
+
+    protected int length;
+
+    /**
+     * @return number of values
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * @param i index of the point
+     * @return the value of the point, NaN if it is unknown
+     */
+    public double get(int i) {
+        if(unknown != null && unknown.get(i)){
+            return Double.NaN;
+        }
+        return getKnown(i);
+    }
+
+    /**
+     * @param i index of a point whose value is known
+     * @return the value of the point
+     */
+    protected abstract double getKnown(int i);
+
+    /**
+     * Copies all values into the array.
+     * @param target array of at least {@link #length()} elements
+     */
+    public void copyTo(double[] target) {
+        for(int i = 0;i<length;i++){
+            target[i] = getKnown(i);
+        }
+        if(unknown != null){
+            for(int i = unknown.nextSetBit(0); i >= 0; i = unknown.nextSetBit(i + 1)){
+                target[i] = Double.NaN;
+            }
+        }
+    }
+
+    /**
+     * @return a new array containing all values
+     */
+    public double[] toArray() {
+        double[] values = new double[length];
+        copyTo(values);
+        return values;
+    }
+
+    /**
+     * @return number of bytes used to store the values, without the constant overhead of the objects
+     */
+    public abstract long getByteCount();
+
+    protected long getUnknownByteCount() {
+        return (unknown == null) ? 0 : unknown.size() / 8;
+    }
+
+    /**
+     * Returns a column with the same values, stored in direct memory allocated by the store.
+     * Columns of bits are small and stay on the heap.
+     * @param store
+     * @return the new column, or this column if it is not moved
+     */
+    public PointColumn moveTo(PointStore store) {
+        return this;
+    }
+
+    /**
+     * @return true if the values are stored in direct memory
+     */
+    public boolean isDirect() {
+        return false;
+    }
+
+    /**
+     * Returns a buffer sharing the values with this column, if they are stored as double.
+     * The buffer must not be changed, since columns are not supposed to change.
+     * @return the buffer, whose capacity is {@link #length()}, or null if the values are not stored as double
+     */
+    public DoubleBuffer asDoubleBuffer() {
+        return null;
+    }
+
+    /**
+     * Creates the column of a decimal channel.
+     * @param values the values, the array is kept if they are stored as double
+     * @param singlePrecision if true, the values are stored as float
+     * @return the column
+     */
+    public static PointColumn decimals(double[] values, boolean singlePrecision) {
+        if(singlePrecision){
+            return new FloatColumn(values);
+        }
+        return new DoubleColumn(values);
+    }
+
+    /**
+     * Creates the column of an integer channel. The values are stored as short or int
+     * if all of them are integers in the respective range.
+     * @param values the values, the array is kept if they are stored as double
+     * @return the column
+     */
+    public static PointColumn integers(double[] values) {
+        boolean isShort = true;
+        for(double v : values){
+            if(v != v){
+                continue;
+            }
+            if(v != (int) v){
+                return new DoubleColumn(values);
+            }
+            isShort = isShort && v >= Short.MIN_VALUE && v <= Short.MAX_VALUE;
+        }
+        return isShort ? new ShortColumn(values) : new IntColumn(values);
+    }
+
+    /**
+     * Creates the column of a boolean channel. The values are stored as bits if all of them are 0 or 1.
+     * @param values the values, the array is kept if they are stored as double
+     * @return the column
+     */
+    public static PointColumn booleans(double[] values) {
+        for(double v : values){
+            if(v == v && v != 0 && v != 1){
+                return new DoubleColumn(values);
+            }
+        }
+        return new BitColumn(values);
+    }
+
+    /**
+     * Marks the point as unknown.
+     */
+    protected void setUnknown(int i) {
+        if(unknown == null){
+            unknown = new BitSet(length);
+        }
+        unknown.set(i);
+    }
+
+    /**
+     * Stores the values as double.
+     */
+    public static class DoubleColumn extends PointColumn {
+        private double[] values;
+
+        public DoubleColumn(double[] values) {
+            this.values = values;
+            this.length = values.length;
+        }
+
+        @Override
+        protected double getKnown(int i) {
+            return values[i];
+        }
+
+        @Override
+        public double get(int i) {
+            return values[i];
+        }
+
+        @Override
+        public void copyTo(double[] target) {
+            System.arraycopy(values, 0, target, 0, length);
+        }
+
+        @Override
+        public long getByteCount() {
+            return 8L * length;
+        }
+
+        @Override
+        public DoubleBuffer asDoubleBuffer() {
+            return DoubleBuffer.wrap(values);
+        }
+
+        @Override
+        public PointColumn moveTo(PointStore store) {
+            DoubleBuffer buffer = store.allocateDoubles(length);
+            buffer.put(values);
+            return new DirectDoubleColumn(buffer, length);
+        }
+    }
+
+    /**
+     * Stores the values as float.
+     */
+    public static class FloatColumn extends PointColumn {
+        private float[] values;
+
+        public FloatColumn(double[] values) {
+            this.length = values.length;
+            this.values = new float[length];
+            for(int i = 0;i<length;i++){
+                this.values[i] = (float) values[i];
+            }
+        }
+
+        @Override
+        protected double getKnown(int i) {
+            return values[i];
+        }
+
+        @Override
+        public long getByteCount() {
+            return 4L * length;
+        }
+
+        @Override
+        public PointColumn moveTo(PointStore store) {
+            FloatBuffer buffer = store.allocateFloats(length);
+            buffer.put(values);
+            return new DirectFloatColumn(buffer, length);
+        }
+    }
+
+    /**
+     * Stores integer values as int.
+     */
+    public static class IntColumn extends PointColumn {
+        private int[] values;
+
+        public IntColumn(double[] values) {
+            this.length = values.length;
+            this.values = new int[length];
+            for(int i = 0;i<length;i++){
+                if(values[i] != values[i]){
+                    setUnknown(i);
+                }else{
+                    this.values[i] = (int) values[i];
+                }
+            }
+        }
+
+        @Override
+        protected double getKnown(int i) {
+            return values[i];
+        }
+
+        @Override
+        public long getByteCount() {
+            return 4L * length + getUnknownByteCount();
+        }
+
+        @Override
+        public PointColumn moveTo(PointStore store) {
+            IntBuffer buffer = store.allocateInts(length);
+            buffer.put(values);
+            return new DirectIntColumn(buffer, length, unknown);
+        }
+    }
+
+    /**
+     * Stores integer values as short.
+     */
+    public static class ShortColumn extends PointColumn {
+        private short[] values;
+
+        public ShortColumn(double[] values) {
+            this.length = values.length;
+            this.values = new short[length];
+            for(int i = 0;i<length;i++){
+                if(values[i] != values[i]){
+                    setUnknown(i);
+                }else{
+                    this.values[i] = (short) values[i];
+                }
+            }
+        }
+
+        @Override
+        protected double getKnown(int i) {
+            return values[i];
+        }
+
+        @Override
+        public long getByteCount() {
+            return 2L * length + getUnknownByteCount();
+        }
+
+        @Override
+        public PointColumn moveTo(PointStore store) {
+            ShortBuffer buffer = store.allocateShorts(length);
+            buffer.put(values);
+            return new DirectShortColumn(buffer, length, unknown);
+        }
+    }
+
+    /**
+     * Stores the values 0 and 1 as bits.
+     */
+    public static class BitColumn extends PointColumn {
+        private BitSet values;
+
+        public BitColumn(double[] values) {
+            this.length = values.length;
+            this.values = new BitSet(length);
+            for(int i = 0;i<length;i++){
+                if(values[i] != values[i]){
+                    setUnknown(i);
+                }else if(values[i] == 1){
+                    this.values.set(i);
+                }
+            }
+        }
+
+        @Override
+        protected double getKnown(int i) {
+            return values.get(i) ? 1 : 0;
+        }
+
+        @Override
+        public long getByteCount() {
+            return values.size() / 8 + getUnknownByteCount();
+        }
+    }
+
+    /**
+     * Stores the values as double in direct memory.
+     */
+    public static class DirectDoubleColumn extends PointColumn {
+        private DoubleBuffer values;
+
+        public DirectDoubleColumn(DoubleBuffer values, int length) {
+            this.values = values;
+            this.length = length;
+        }
+
+        @Override
+        protected double getKnown(int i) {
+            return values.get(i);
+        }
+
+        @Override
+        public double get(int i) {
+            return values.get(i);
+        }
+
+        @Override
+        public void copyTo(double[] target) {
+            DoubleBuffer view = values.duplicate();
+            view.position(0);
+            view.get(target, 0, length);
+        }
+
+        @Override
+        public long getByteCount() {
+            return 8L * length;
+        }
+
+        @Override
+        public boolean isDirect() {
+            return true;
+        }
+
+        @Override
+        public DoubleBuffer asDoubleBuffer() {
+            DoubleBuffer buffer = values.duplicate();
+            buffer.clear();
+            return buffer;
+        }
+    }
+
+    /**
+     * Stores the values as float in direct memory.
+     */
+    public static class DirectFloatColumn extends PointColumn {
+        private FloatBuffer values;
+
+        public DirectFloatColumn(FloatBuffer values, int length) {
+            this.values = values;
+            this.length = length;
+        }
+
+        @Override
+        protected double getKnown(int i) {
+            return values.get(i);
+        }
+
+        @Override
+        public long getByteCount() {
+            return 4L * length;
+        }
+
+        @Override
+        public boolean isDirect() {
+            return true;
+        }
+    }
+
+    /**
+     * Stores integer values as int in direct memory.
+     */
+    public static class DirectIntColumn extends PointColumn {
+        private IntBuffer values;
+
+        public DirectIntColumn(IntBuffer values, int length, BitSet unknown) {
+            this.values = values;
+            this.length = length;
+            this.unknown = unknown;
+        }
+
+        @Override
+        protected double getKnown(int i) {
+            return values.get(i);
+        }
+
+        @Override
+        public long getByteCount() {
+            return 4L * length + getUnknownByteCount();
+        }
+
+        @Override
+        public boolean isDirect() {
+            return true;
+        }
+    }
+
+    /**
+     * Stores integer values as short in direct memory.
+     */
+    public static class DirectShortColumn extends PointColumn {
+        private ShortBuffer values;
+
+        public DirectShortColumn(ShortBuffer values, int length, BitSet unknown) {
+            this.values = values;
+            this.length = length;
+            this.unknown = unknown;
+        }
+
+        @Override
+        protected double getKnown(int i) {
+            return values.get(i);
+        }
+
+        @Override
+        public long getByteCount() {
+            return 2L * length + getUnknownByteCount();
+        }
+
+        @Override
+        public boolean isDirect() {
+            return true;
+        }
+    }
+}
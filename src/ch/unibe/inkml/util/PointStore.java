@@ -0,0 +1,159 @@
+package ch.unibe.inkml.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Allocates the point data of traces outside of the Java heap, such that the heap stays small
+ * and garbage collection does not depend on the number of points loaded.
+ *
+ * Small buffers are cut from large direct buffers (slabs), larger ones are allocated directly.
+ * Memory is not reused before the store is released, so a store suits documents which are loaded
+ * and analysed rather than documents which are edited extensively.
+ * A store can be shared by several documents and used by several threads. It is released by its owner,
+ * when none of the documents using it is accessed anymore.
+ *
+ * @see ch.unibe.inkml.InkInk#setPointStore(PointStore)
+ * @author emanuel
+ */
+public class PointStore {
+
+    /**
+     * Default number of bytes of a slab.
+     */
+    public static final int DEFAULT_SLAB_SIZE = 1 << 20;
+
+    private int slabSize;
+
+    private List<ByteBuffer> slabs = new ArrayList<ByteBuffer>();
+
+    /**
+     * The slab buffers are currently cut from, null if there is none.
+     */
+    private ByteBuffer current;
+
+    private long allocated = 0;
+
+    private boolean released = false;
+
+    public PointStore() {
+        this(DEFAULT_SLAB_SIZE);
+    }
+
+    /**
+     * @param slabSize number of bytes of a slab
+     */
+    public PointStore(int slabSize) {
+        if(slabSize < 64){
+            throw new IllegalArgumentException("The slab size must be at least 64 bytes, not "+slabSize);
+        }
+        this.slabSize = slabSize;
+    }
+
+    /**
+     * Allocates a buffer of direct memory, in native byte order.
+     * @param bytes number of bytes
+     * @return the buffer, its position is 0 and its limit and capacity are bytes
+     * @throws IllegalStateException if the store has been released
+     * @throws IllegalArgumentException if bytes is negative
+     */
+    public synchronized ByteBuffer allocate(int bytes) {
+        if(released){
+            throw new IllegalStateException("The point store has been released");
+        }
+        if(bytes < 0){
+            throw new IllegalArgumentException("Can not allocate "+bytes+" bytes");
+        }
+        allocated += bytes;
+        if(bytes > slabSize / 4){
+            return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+        }
+        //buffers are aligned to 8 bytes, such that doubles can be accessed efficiently
+        int aligned = (bytes + 7) & ~7;
+        if(current == null || current.remaining() < aligned){
+            current = ByteBuffer.allocateDirect(slabSize).order(ByteOrder.nativeOrder());
+            slabs.add(current);
+        }
+        ByteBuffer buffer = current.slice();
+        buffer.limit(bytes);
+        current.position(current.position() + aligned);
+        return buffer.slice().order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Allocates a buffer of direct memory for doubles.
+     * @param length number of doubles
+     * @return the buffer, its position is 0 and its limit and capacity are length
+     * @throws IllegalStateException if the store has been released
+     * @throws IllegalArgumentException if length is negative, or the buffer would exceed 2 GB
+     */
+    public DoubleBuffer allocateDoubles(int length) {
+        return allocate(bytes(length, 8)).asDoubleBuffer();
+    }
+
+    /**
+     * Allocates a buffer of direct memory for floats, see {@link #allocateDoubles(int)}.
+     */
+    public FloatBuffer allocateFloats(int length) {
+        return allocate(bytes(length, 4)).asFloatBuffer();
+    }
+
+    /**
+     * Allocates a buffer of direct memory for ints, see {@link #allocateDoubles(int)}.
+     */
+    public IntBuffer allocateInts(int length) {
+        return allocate(bytes(length, 4)).asIntBuffer();
+    }
+
+    /**
+     * Allocates a buffer of direct memory for shorts, see {@link #allocateDoubles(int)}.
+     */
+    public ShortBuffer allocateShorts(int length) {
+        return allocate(bytes(length, 2)).asShortBuffer();
+    }
+
+    /**
+     * @return number of bytes of length elements of the size
+     * @throws IllegalArgumentException if length is negative or the number of bytes exceeds the int range
+     */
+    private static int bytes(int length, int size) {
+        if(length < 0 || length > Integer.MAX_VALUE / size){
+            throw new IllegalArgumentException("Can not allocate a buffer of "+length+" elements of "+size+" bytes");
+        }
+        return length * size;
+    }
+
+    /**
+     * @return number of bytes allocated so far
+     */
+    public synchronized long getAllocatedBytes() {
+        return allocated;
+    }
+
+    /**
+     * @return number of bytes reserved by the slabs
+     */
+    public synchronized long getSlabBytes() {
+        return (long) slabs.size() * slabSize;
+    }
+
+    /**
+     * Releases the store. No further buffers can be allocated, and the direct memory is freed
+     * as soon as the buffers allocated so far are not referenced anymore.
+     */
+    public synchronized void release() {
+        released = true;
+        slabs.clear();
+        current = null;
+    }
+
+    public synchronized boolean isReleased() {
+        return released;
+    }
+}
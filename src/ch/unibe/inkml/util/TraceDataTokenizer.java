@@ -0,0 +1,264 @@
+package ch.unibe.inkml.util;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Splits the content of a trace element into tokens, directly working on a range of a char array,
+ * or on a range of a byte buffer containing ASCII characters.
+ *
+ * The tokens are the same as the ones accepted by the regular expression
+ * <code>,|F|T|\*|\?|["'!]?-?(\.[0-9]+|[0-9]+\.[0-9]+|[0-9]+)</code>. Characters which are not
+ * part of a token, such as white space, are skipped.
+ * A token consists of a prefix, which is one of <code>, F T * ? " ' !</code> or
+ * {@link Formatter#NO_PREFIX}, and its numerical value, which is NaN if the token has none.
+ * The numerical values are calculated without creating intermediate strings.
+ *
+ * @author emanuel
+ */
+public class TraceDataTokenizer {
+
+    /**
+     * Powers of ten which can be represented exactly by a double.
+     */
+    private static final double[] POW10 = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /**
+     * Largest mantissa which is exactly represented by a double.
+     */
+    private static final long MAX_EXACT = 1L << 53;
+
+    private char[] data;
+    private ByteBuffer bytes;
+    private int start;
+    private int pos;
+    private int end;
+
+    private char prefix;
+    private double value;
+
+    /**
+     * @param data characters containing the trace data
+     * @param offset index of the first character of the trace data
+     * @param length number of characters of the trace data
+     */
+    public TraceDataTokenizer(char[] data, int offset, int length) {
+        this.data = data;
+        this.start = offset;
+        this.pos = offset;
+        this.end = offset + length;
+    }
+
+    /**
+     * The buffer is accessed by absolute indices, its position and limit are not changed.
+     * Each byte is interpreted as one ASCII character.
+     * @param bytes buffer containing the trace data
+     * @param offset index of the first byte of the trace data
+     * @param length number of bytes of the trace data
+     */
+    public TraceDataTokenizer(ByteBuffer bytes, int offset, int length) {
+        this.bytes = bytes;
+        this.start = offset;
+        this.pos = offset;
+        this.end = offset + length;
+    }
+
+    /**
+     * Copies the trace data to the heap, such that it is independent of the characters or bytes
+     * this tokenizer works on. If the trace data consists of ASCII characters only, as it should,
+     * each character is stored in one byte.
+     * @return tokenizer positioned at the beginning of the copy
+     */
+    public TraceDataTokenizer copy() {
+        int length = end - start;
+        byte[] ascii = new byte[length];
+        if(data == null){
+            ByteBuffer source = bytes.duplicate();
+            source.position(start);
+            source.get(ascii);
+        }else{
+            for(int i = 0;i<length;i++){
+                char c = data[start + i];
+                if(c > 127){
+                    return new TraceDataTokenizer(Arrays.copyOfRange(data, start, end), 0, length);
+                }
+                ascii[i] = (byte) c;
+            }
+        }
+        return new TraceDataTokenizer(ByteBuffer.wrap(ascii), 0, length);
+    }
+
+    /**
+     * Moves back to the beginning of the trace data.
+     */
+    public void reset() {
+        pos = start;
+    }
+
+    /**
+     * Counts the points contained by the trace data, independently of the current position.
+     * @return number of points
+     */
+    public int countPoints() {
+        int total = 0;
+        boolean onemore = false;
+        for(int i = start;i<end;i++){
+            switch(charAt(i)){
+            case ',':
+                total++;
+                onemore = false;
+                break;
+            case ' ':
+            case '\n':
+            case '\t':
+            case '\r':
+                break;
+            default:
+                onemore = true;
+            }
+        }
+        if(onemore) total++;
+        return total;
+    }
+
+    /**
+     * Proceeds to the next token.
+     * @return false if there are no more tokens
+     */
+    public boolean next() {
+        while(pos < end){
+            char c = charAt(pos);
+            switch(c){
+            case ',':
+            case 'F':
+            case 'T':
+            case '*':
+            case '?':
+                prefix = c;
+                value = Double.NaN;
+                pos++;
+                return true;
+            case '"':
+            case '\'':
+            case '!':
+                if(readNumber(pos + 1)){
+                    prefix = c;
+                    return true;
+                }
+                break;
+            default:
+                if(readNumber(pos)){
+                    prefix = Formatter.NO_PREFIX;
+                    return true;
+                }
+            }
+            pos++;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the prefix of the current token.
+     * @return one of <code>, F T * ? " ' !</code> or {@link Formatter#NO_PREFIX}
+     */
+    public char getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * Returns the numerical value of the current token.
+     * @return the value, or NaN if the token has no numerical part
+     */
+    public double getValue() {
+        return value;
+    }
+
+    /**
+     * @return True if the current token separates two points.
+     */
+    public boolean isPointSeparator() {
+        return prefix == ',';
+    }
+
+    /**
+     * Tries to read a number starting at index from. If there is one, its value is stored
+     * and the position is moved behind it.
+     * @return true if a number has been read
+     */
+    private boolean readNumber(int from) {
+        int i = from;
+        boolean minus = false;
+        if(i < end && charAt(i) == '-'){
+            minus = true;
+            i++;
+        }
+        long mantissa = 0;
+        boolean exact = true;
+        int intStart = i;
+        while(i < end && isDigit(charAt(i))){
+            exact = exact && fits(mantissa, charAt(i));
+            mantissa = mantissa * 10 + (charAt(i) - '0');
+            i++;
+        }
+        int fraction = 0;
+        if(i + 1 < end && charAt(i) == '.' && isDigit(charAt(i + 1))){
+            i++;
+            while(i < end && isDigit(charAt(i))){
+                exact = exact && fits(mantissa, charAt(i));
+                mantissa = mantissa * 10 + (charAt(i) - '0');
+                fraction++;
+                i++;
+            }
+        }
+        if(i == intStart){
+            return false;
+        }
+        if(exact && fraction < POW10.length){
+            value = (fraction == 0) ? mantissa : mantissa / POW10[fraction];
+            if(minus){
+                value = -value;
+            }
+        }else{
+            StringBuilder number = new StringBuilder(i - from);
+            for(int k = from; k < i; k++){
+                number.append(charAt(k));
+            }
+            value = Double.parseDouble(number.toString());
+        }
+        pos = i;
+        return true;
+    }
+
+    /**
+     * Appends the trace data unchanged to the builder, independently of the current position.
+     * @param builder
+     */
+    public void appendTo(StringBuilder builder) {
+        if(data != null){
+            builder.append(data, start, end - start);
+        }else{
+            builder.ensureCapacity(builder.length() + end - start);
+            for(int i = start; i < end; i++){
+                builder.append((char) (bytes.get(i) & 0xff));
+            }
+        }
+    }
+
+    private char charAt(int i) {
+        return (data != null) ? data[i] : (char) (bytes.get(i) & 0xff);
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * @return false if appending the digit to the mantissa exceeds the exactly representable range.
+     */
+    private static boolean fits(long mantissa, char digit) {
+        return mantissa <= (MAX_EXACT - (digit - '0')) / 10;
+    }
+}